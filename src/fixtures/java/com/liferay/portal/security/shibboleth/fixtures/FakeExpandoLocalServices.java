@@ -0,0 +1,65 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.expando.kernel.model.ExpandoColumn;
+import com.liferay.expando.kernel.model.ExpandoTable;
+import com.liferay.expando.kernel.model.ExpandoValue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Delegate of fake expando table, column and value services. Every table and
+ * column exists; values are kept in memory unless persistence is turned off,
+ * in which case every value reads as missing.
+ */
+public class FakeExpandoLocalServices {
+
+    public FakeExpandoLocalServices(boolean persistent) {
+        _persistent = persistent;
+    }
+
+    public ExpandoTable addDefaultTable(long companyId, String className) {
+        return fetchDefaultTable(companyId, className);
+    }
+
+    public ExpandoValue addValue(
+            long companyId, String className, String tableName, String columnName, long classPK, String data) {
+
+        if (_persistent) {
+            _values.put(getKey(companyId, className, tableName, columnName, classPK), data);
+        }
+
+        return null;
+    }
+
+    public ExpandoTable fetchDefaultTable(long companyId, String className) {
+        return ShibbolethFakes.fake(ExpandoTable.class, new Object());
+    }
+
+    public ExpandoColumn getColumn(long tableId, String name) {
+        return ShibbolethFakes.fake(ExpandoColumn.class, new Object());
+    }
+
+    public String getData(
+            long companyId, String className, String tableName, String columnName, long classPK,
+            String defaultData) {
+
+        String data = _values.get(getKey(companyId, className, tableName, columnName, classPK));
+
+        if (data == null) {
+            return defaultData;
+        }
+
+        return data;
+    }
+
+    private static String getKey(long companyId, String className, String tableName, String columnName,
+            long classPK) {
+
+        return companyId + "#" + className + "#" + tableName + "#" + columnName + "#" + classPK;
+    }
+
+    private final boolean _persistent;
+    private final ConcurrentMap<String, String> _values = new ConcurrentHashMap<>();
+
+}
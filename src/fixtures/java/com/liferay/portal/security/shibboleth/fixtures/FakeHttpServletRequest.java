@@ -0,0 +1,61 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import javax.servlet.http.HttpSession;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Delegate of a fake {@link javax.servlet.http.HttpServletRequest} as the
+ * Shibboleth SP would pass it on: the attributes either as HTTP headers or as
+ * request attributes (AJP environment variables).
+ */
+public class FakeHttpServletRequest {
+
+    public FakeHttpServletRequest(String pathInfo, HttpSession session) {
+        _pathInfo = pathInfo;
+        _session = session;
+    }
+
+    public Object getAttribute(String name) {
+        return _attributes.get(name);
+    }
+
+    public String getHeader(String name) {
+        return _headers.get(name);
+    }
+
+    public String getPathInfo() {
+        return _pathInfo;
+    }
+
+    public String getRequestURI() {
+        return "/c" + _pathInfo;
+    }
+
+    public HttpSession getSession() {
+        return _session;
+    }
+
+    public HttpSession getSession(boolean create) {
+        return _session;
+    }
+
+    public void removeAttribute(String name) {
+        _attributes.remove(name);
+    }
+
+    public void setAttribute(String name, Object value) {
+        _attributes.put(name, value);
+    }
+
+    public void setHeader(String name, String value) {
+        _headers.put(name, value);
+    }
+
+    private final Map<String, Object> _attributes = new HashMap<>();
+    private final Map<String, String> _headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final String _pathInfo;
+    private final HttpSession _session;
+
+}
@@ -0,0 +1,39 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delegate of a fake {@link javax.servlet.http.HttpSession}.
+ */
+public class FakeHttpSession {
+
+    public Object getAttribute(String name) {
+        return _attributes.get(name);
+    }
+
+    public String getId() {
+        return _id;
+    }
+
+    public void invalidate() {
+        _attributes.clear();
+    }
+
+    public void removeAttribute(String name) {
+        _attributes.remove(name);
+    }
+
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            _attributes.remove(name);
+        } else {
+            _attributes.put(name, value);
+        }
+    }
+
+    private final Map<String, Object> _attributes = new ConcurrentHashMap<>();
+    private final String _id = UUID.randomUUID().toString();
+
+}
@@ -0,0 +1,45 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityMappingStore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link ShibbolethIdentityMappingStore} keeping the identity mappings in
+ * memory instead of in the portal database.
+ */
+public class FakeIdentityMappingStore extends ShibbolethIdentityMappingStore {
+
+    @Override
+    public void addUserId(long companyId, String identityProvider, String persistentId, long userId) {
+        _userIds.putIfAbsent(getKey(companyId, identityProvider, persistentId), userId);
+    }
+
+    @Override
+    public long getUserId(long companyId, String identityProvider, String persistentId) {
+        return _userIds.getOrDefault(getKey(companyId, identityProvider, persistentId), 0L);
+    }
+
+    @Override
+    public void removeUserId(long companyId, String identityProvider, String persistentId) {
+        _userIds.remove(getKey(companyId, identityProvider, persistentId));
+    }
+
+    @Override
+    public void removeUserIds(long userId) {
+        _userIds.values().removeIf(mappedUserId -> mappedUserId == userId);
+    }
+
+    public int size() {
+        return _userIds.size();
+    }
+
+    private static String getKey(long companyId, String identityProvider, String persistentId) {
+        return companyId + StringPool.POUND + getMappingKey(identityProvider, persistentId);
+    }
+
+    private final ConcurrentMap<String, Long> _userIds = new ConcurrentHashMap<>();
+
+}
@@ -0,0 +1,152 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.portal.kernel.model.Group;
+import com.liferay.portal.kernel.model.Organization;
+import com.liferay.portal.kernel.model.UserGroup;
+import com.liferay.portal.kernel.util.StringUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delegate of fake group, user group and organization services. Sites, user
+ * groups and organizations exist once they are added by name; the memberships
+ * are kept by the fake user service. The fake keeps no site or organization
+ * roles, and every organization is its own site.
+ */
+public class FakeMembershipLocalServices {
+
+    public FakeMembershipLocalServices(FakeUserLocalService fakeUserLocalService) {
+        _fakeUserLocalService = fakeUserLocalService;
+    }
+
+    public long addOrganization(long companyId, String name) {
+        return addId(_organizationIds, companyId, name);
+    }
+
+    public long addSite(long companyId, String name) {
+        return addId(_groupIds, companyId, name);
+    }
+
+    public long addUserGroup(long companyId, String name) {
+        return addId(_userGroupIds, companyId, name);
+    }
+
+    public void addUserGroups(long userId, long[] groupIds) {
+        for (long groupId : groupIds) {
+            _fakeUserLocalService.getGroupIds(userId).add(groupId);
+        }
+    }
+
+    public void addUserOrganizations(long userId, long[] organizationIds) {
+        for (long organizationId : organizationIds) {
+            _fakeUserLocalService.getOrganizationIds(userId).add(organizationId);
+        }
+    }
+
+    public void addUserUserGroups(long userId, long[] userGroupIds) {
+        for (long userGroupId : userGroupIds) {
+            _fakeUserLocalService.getUserGroupIds(userId).add(userGroupId);
+        }
+    }
+
+    public void deleteUserGroups(long userId, long[] groupIds) {
+        for (long groupId : groupIds) {
+            _fakeUserLocalService.getGroupIds(userId).remove(groupId);
+        }
+    }
+
+    public void deleteUserGroupRoles(long userId, long[] groupIds) {
+    }
+
+    public void deleteUserOrganizations(long userId, long[] organizationIds) {
+        for (long organizationId : organizationIds) {
+            _fakeUserLocalService.getOrganizationIds(userId).remove(organizationId);
+        }
+    }
+
+    public void deleteUserUserGroups(long userId, long[] userGroupIds) {
+        for (long userGroupId : userGroupIds) {
+            _fakeUserLocalService.getUserGroupIds(userId).remove(userGroupId);
+        }
+    }
+
+    public Group fetchGroup(long companyId, String groupKey) {
+        Long groupId = _groupIds.get(getKey(companyId, groupKey));
+
+        if (groupId == null) {
+            return null;
+        }
+
+        return ShibbolethFakes.fake(Group.class, new FakeModel(groupId));
+    }
+
+    public Organization fetchOrganization(long organizationId) {
+        if (!_organizationIds.containsValue(organizationId)) {
+            return null;
+        }
+
+        return ShibbolethFakes.fake(Organization.class, new FakeModel(organizationId));
+    }
+
+    public Organization fetchOrganization(long companyId, String name) {
+        Long organizationId = _organizationIds.get(getKey(companyId, name));
+
+        if (organizationId == null) {
+            return null;
+        }
+
+        return ShibbolethFakes.fake(Organization.class, new FakeModel(organizationId));
+    }
+
+    public UserGroup fetchUserGroup(long companyId, String name) {
+        Long userGroupId = _userGroupIds.get(getKey(companyId, name));
+
+        if (userGroupId == null) {
+            return null;
+        }
+
+        return ShibbolethFakes.fake(UserGroup.class, new FakeModel(userGroupId));
+    }
+
+    private static String getKey(long companyId, String name) {
+        return companyId + "#" + StringUtil.toLowerCase(name);
+    }
+
+    private long addId(Map<String, Long> ids, long companyId, String name) {
+        return ids.computeIfAbsent(getKey(companyId, name), key -> _idSequence.incrementAndGet());
+    }
+
+    private final FakeUserLocalService _fakeUserLocalService;
+    private final Map<String, Long> _groupIds = new ConcurrentHashMap<>();
+    private final AtomicLong _idSequence = new AtomicLong(200000);
+    private final Map<String, Long> _organizationIds = new ConcurrentHashMap<>();
+    private final Map<String, Long> _userGroupIds = new ConcurrentHashMap<>();
+
+    /**
+     * Delegate of a fake site, user group or organization
+     */
+    public static class FakeModel {
+
+        public long getGroupId() {
+            return _id;
+        }
+
+        public long getOrganizationId() {
+            return _id;
+        }
+
+        public long getUserGroupId() {
+            return _id;
+        }
+
+        private FakeModel(long id) {
+            _id = id;
+        }
+
+        private final long _id;
+
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+/**
+ * Delegate of a fake {@link com.liferay.portal.kernel.model.Role}.
+ */
+public class FakeRole {
+
+    public FakeRole(long roleId) {
+        _roleId = roleId;
+    }
+
+    public long getCompanyId() {
+        return _companyId;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public long getPrimaryKey() {
+        return _roleId;
+    }
+
+    public long getRoleId() {
+        return _roleId;
+    }
+
+    public String getSubtype() {
+        return _subtype;
+    }
+
+    public int getType() {
+        return _type;
+    }
+
+    public void setCompanyId(long companyId) {
+        _companyId = companyId;
+    }
+
+    public void setName(String name) {
+        _name = name;
+    }
+
+    public void setSubtype(String subtype) {
+        _subtype = subtype;
+    }
+
+    public void setType(int type) {
+        _type = type;
+    }
+
+    @Override
+    public String toString() {
+        return "{roleId=" + _roleId + ", name=" + _name + "}";
+    }
+
+    private long _companyId;
+    private String _name;
+    private final long _roleId;
+    private String _subtype = "";
+    private int _type;
+
+}
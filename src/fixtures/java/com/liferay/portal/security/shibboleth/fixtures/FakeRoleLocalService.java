@@ -0,0 +1,88 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delegate of a fake {@link com.liferay.portal.kernel.service.RoleLocalService}
+ * keeping roles in memory. Role assignments are stored in the fake user
+ * service.
+ */
+public class FakeRoleLocalService {
+
+    public FakeRoleLocalService(FakeUserLocalService fakeUserLocalService) {
+        _fakeUserLocalService = fakeUserLocalService;
+    }
+
+    public Role addRole(Role role) {
+        if (_rolesByName.putIfAbsent(getKey(role.getCompanyId(), role.getName()), role) != null) {
+            throw new IllegalStateException("Duplicate role " + role.getName());
+        }
+
+        _rolesById.put(role.getRoleId(), role);
+
+        return role;
+    }
+
+    /**
+     * Adds a role of the subtype to the company
+     */
+    public Role addRole(long companyId, String name, String subtype) {
+        FakeRole fakeRole = new FakeRole(_roleIdSequence.incrementAndGet());
+
+        fakeRole.setCompanyId(companyId);
+        fakeRole.setName(name);
+        fakeRole.setSubtype(subtype);
+
+        return addRole(ShibbolethFakes.fake(Role.class, fakeRole));
+    }
+
+    public void addUserRoles(long userId, long[] roleIds) {
+        for (long roleId : roleIds) {
+            _fakeUserLocalService.getRoleIds(userId).add(roleId);
+        }
+    }
+
+    public Role createRole(long roleId) {
+        return ShibbolethFakes.fake(Role.class, new FakeRole(roleId));
+    }
+
+    public Role fetchRole(long companyId, String name) {
+        return _rolesByName.get(getKey(companyId, name));
+    }
+
+    public List<Role> getRoles(long companyId) {
+        List<Role> roles = new ArrayList<>();
+
+        for (Role role : _rolesById.values()) {
+            if (role.getCompanyId() == companyId) {
+                roles.add(role);
+            }
+        }
+
+        return Collections.unmodifiableList(roles);
+    }
+
+    public void unsetUserRoles(long userId, long[] roleIds) {
+        for (long roleId : roleIds) {
+            _fakeUserLocalService.getRoleIds(userId).remove(roleId);
+        }
+    }
+
+    private static String getKey(long companyId, String name) {
+        return companyId + "#" + StringUtil.toLowerCase(name);
+    }
+
+    private final FakeUserLocalService _fakeUserLocalService;
+    private final AtomicLong _roleIdSequence = new AtomicLong(200000);
+    private final ConcurrentMap<Long, Role> _rolesById = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Role> _rolesByName = new ConcurrentHashMap<>();
+
+}
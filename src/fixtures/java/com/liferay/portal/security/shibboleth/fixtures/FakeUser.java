@@ -0,0 +1,119 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.expando.kernel.model.ExpandoBridge;
+import com.liferay.expando.kernel.model.ExpandoColumnConstants;
+import com.liferay.portal.kernel.workflow.WorkflowConstants;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delegate of a fake {@link com.liferay.portal.kernel.model.User}.
+ */
+public class FakeUser {
+
+    public FakeUser(long userId, long companyId, String screenName, String emailAddress, String firstName,
+            String lastName) {
+
+        _userId = userId;
+        _companyId = companyId;
+        _screenName = screenName;
+        _emailAddress = emailAddress;
+        _firstName = firstName;
+        _lastName = lastName;
+    }
+
+    public long getCompanyId() {
+        return _companyId;
+    }
+
+    public String getEmailAddress() {
+        return _emailAddress;
+    }
+
+    public ExpandoBridge getExpandoBridge() {
+        return ShibbolethFakes.fake(ExpandoBridge.class, new FakeExpandoBridge());
+    }
+
+    public String getFirstName() {
+        return _firstName;
+    }
+
+    public String getLastName() {
+        return _lastName;
+    }
+
+    public String getPassword() {
+        return "password";
+    }
+
+    public long getPrimaryKey() {
+        return _userId;
+    }
+
+    public String getScreenName() {
+        return _screenName;
+    }
+
+    public int getStatus() {
+        return WorkflowConstants.STATUS_APPROVED;
+    }
+
+    public long getUserId() {
+        return _userId;
+    }
+
+    public boolean isActive() {
+        return true;
+    }
+
+    public void setEmailAddress(String emailAddress) {
+        _emailAddress = emailAddress;
+    }
+
+    public void setFirstName(String firstName) {
+        _firstName = firstName;
+    }
+
+    public void setLastName(String lastName) {
+        _lastName = lastName;
+    }
+
+    @Override
+    public String toString() {
+        return "{userId=" + _userId + ", screenName=" + _screenName + "}";
+    }
+
+    /**
+     * Custom fields of the fake users, all of type String array
+     */
+    public class FakeExpandoBridge {
+
+        public Serializable getAttribute(String name, boolean secure) {
+            return _expandoValues.get(name);
+        }
+
+        public int getAttributeType(String name) {
+            return ExpandoColumnConstants.STRING_ARRAY;
+        }
+
+        public boolean hasAttribute(String name) {
+            return true;
+        }
+
+        public void setAttribute(String name, Serializable value, boolean secure) {
+            _expandoValues.put(name, value);
+        }
+
+    }
+
+    private final long _companyId;
+    private volatile String _emailAddress;
+    private final Map<String, Serializable> _expandoValues = new ConcurrentHashMap<>();
+    private volatile String _firstName;
+    private volatile String _lastName;
+    private final String _screenName;
+    private final long _userId;
+
+}
@@ -0,0 +1,176 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.portal.kernel.exception.NoSuchUserException;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.service.ServiceContext;
+import com.liferay.portal.kernel.util.StringUtil;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delegate of a fake {@link com.liferay.portal.kernel.service.UserLocalService}
+ * keeping users and their role, site, user group and organization memberships
+ * in memory.
+ */
+public class FakeUserLocalService {
+
+    public void addGroupUsers(long groupId, long[] userIds) {
+        for (long userId : userIds) {
+            getGroupIds(userId).add(groupId);
+        }
+    }
+
+    public User addUser(
+            long creatorUserId, long companyId, boolean autoPassword, String password1, String password2,
+            boolean autoScreenName, String screenName, String emailAddress, long facebookId, String openId,
+            Locale locale, String firstName, String middleName, String lastName, long prefixId, long suffixId,
+            boolean male, int birthdayMonth, int birthdayDay, int birthdayYear, String jobTitle, long[] groupIds,
+            long[] organizationIds, long[] roleIds, long[] userGroupIds, boolean sendEmail,
+            ServiceContext serviceContext)
+            throws PortalException {
+
+        String screenNameKey = getKey(companyId, screenName);
+
+        User user = ShibbolethFakes.fake(
+                User.class,
+                new FakeUser(_userIdSequence.incrementAndGet(), companyId, screenName, emailAddress, firstName,
+                        lastName));
+
+        if (_usersByScreenName.putIfAbsent(screenNameKey, user) != null) {
+            throw new PortalException("Duplicate screen name " + screenName);
+        }
+
+        _usersByEmailAddress.put(getKey(companyId, emailAddress), user);
+        _usersById.put(user.getUserId(), user);
+
+        return user;
+    }
+
+    public User fetchUser(long userId) {
+        return _usersById.get(userId);
+    }
+
+    public User fetchUserByEmailAddress(long companyId, String emailAddress) {
+        return _usersByEmailAddress.get(getKey(companyId, emailAddress));
+    }
+
+    public User fetchUserByScreenName(long companyId, String screenName) {
+        return _usersByScreenName.get(getKey(companyId, screenName));
+    }
+
+    public long[] getGroupPrimaryKeys(long userId) {
+        return toArray(getGroupIds(userId));
+    }
+
+    public long[] getOrganizationPrimaryKeys(long userId) {
+        return toArray(getOrganizationIds(userId));
+    }
+
+    public long[] getRolePrimaryKeys(long userId) {
+        return toArray(getRoleIds(userId));
+    }
+
+    public User getUser(long userId) throws PortalException {
+        User user = fetchUser(userId);
+
+        if (user == null) {
+            throw new NoSuchUserException("No user " + userId);
+        }
+
+        return user;
+    }
+
+    public User getUserByEmailAddress(long companyId, String emailAddress) throws PortalException {
+        User user = fetchUserByEmailAddress(companyId, emailAddress);
+
+        if (user == null) {
+            throw new NoSuchUserException("No user with email address " + emailAddress);
+        }
+
+        return user;
+    }
+
+    public User getUserById(long userId) throws PortalException {
+        return getUser(userId);
+    }
+
+    public User getUserByScreenName(long companyId, String screenName) throws PortalException {
+        User user = fetchUserByScreenName(companyId, screenName);
+
+        if (user == null) {
+            throw new NoSuchUserException("No user with screen name " + screenName);
+        }
+
+        return user;
+    }
+
+    public long[] getUserGroupPrimaryKeys(long userId) {
+        return toArray(getUserGroupIds(userId));
+    }
+
+    public int getUsersCount() {
+        return _usersById.size();
+    }
+
+    public boolean hasGroupUser(long groupId, long userId) {
+        return getGroupIds(userId).contains(groupId);
+    }
+
+    public User updateUser(User user) {
+        return user;
+    }
+
+    /**
+     * The site IDs of the user, shared with the fake membership services
+     */
+    Set<Long> getGroupIds(long userId) {
+        return _groupIds.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * The organization IDs of the user, shared with the fake membership
+     * services
+     */
+    Set<Long> getOrganizationIds(long userId) {
+        return _organizationIds.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * The role IDs of the user, shared with the fake role service
+     */
+    Set<Long> getRoleIds(long userId) {
+        return _roleIds.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * The user group IDs of the user, shared with the fake membership
+     * services
+     */
+    Set<Long> getUserGroupIds(long userId) {
+        return _userGroupIds.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static String getKey(long companyId, String value) {
+        return companyId + "#" + StringUtil.toLowerCase(value);
+    }
+
+    private static long[] toArray(Set<Long> values) {
+        return values.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private final ConcurrentMap<Long, Set<Long>> _groupIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Set<Long>> _organizationIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Set<Long>> _roleIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Set<Long>> _userGroupIds = new ConcurrentHashMap<>();
+    private final AtomicLong _userIdSequence = new AtomicLong(100000);
+    private final Map<String, User> _usersByEmailAddress = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, User> _usersById = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, User> _usersByScreenName = new ConcurrentHashMap<>();
+
+}
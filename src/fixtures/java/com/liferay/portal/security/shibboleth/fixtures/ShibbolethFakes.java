@@ -0,0 +1,230 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates in-memory fakes of portal interfaces and wires them into the plugin
+ * components.
+ * <p/>
+ * A fake is a dynamic proxy that forwards every call to the public method of
+ * the delegate with the same name and parameter types. Methods the delegate
+ * does not implement return the default value of their return type, so a
+ * delegate only implements what the plugin actually calls.
+ */
+public class ShibbolethFakes {
+
+    /**
+     * Creates a configuration proxy returning the given values by method
+     * name, and <code>false</code>, blank or empty arrays otherwise
+     */
+    public static <T> T configuration(Class<T> type, Map<String, Object> values) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invokeObjectMethod(proxy, method, args, values);
+            }
+
+            Object value = values.get(method.getName());
+
+            if (value != null) {
+                return value;
+            }
+
+            if (method.getReturnType() == String.class) {
+                return "";
+            }
+
+            return getDefaultValue(method.getReturnType());
+        };
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, invocationHandler));
+    }
+
+    public static <T> T fake(Class<T> type, Object delegate) {
+        return fake(type, delegate, ShibbolethServiceCalls.NONE);
+    }
+
+    /**
+     * Creates a fake whose calls are counted and delayed by the service calls
+     */
+    public static <T> T fake(Class<T> type, Object delegate, ShibbolethServiceCalls serviceCalls) {
+        return type.cast(Proxy.newProxyInstance(
+                type.getClassLoader(), new Class<?>[] {type},
+                new DelegatingInvocationHandler(type, delegate, serviceCalls)));
+    }
+
+    /**
+     * Returns the delegate of a fake created by {@link #fake(Class, Object)}
+     */
+    public static Object getDelegate(Object fake) {
+        return ((DelegatingInvocationHandler) Proxy.getInvocationHandler(fake))._delegate;
+    }
+
+    /**
+     * Passes the services to every single argument method of the component
+     * (including inherited and protected ones, i.e. the OSGi reference setters)
+     * whose parameter type is implemented by the service
+     */
+    public static <T> T inject(T component, Object... services) {
+        for (Object service : services) {
+            boolean injected = false;
+
+            for (Class<?> clazz = component.getClass(); clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (Method method : clazz.getDeclaredMethods()) {
+                    if (!method.getName().startsWith("set") || (method.getParameterTypes().length != 1) ||
+                            !method.getParameterTypes()[0].isInstance(service)) {
+
+                        continue;
+                    }
+
+                    invoke(component, method, service);
+
+                    injected = true;
+                }
+            }
+
+            if (!injected) {
+                throw new IllegalArgumentException(
+                        component.getClass().getName() + " has no setter for " + service.getClass().getName());
+            }
+        }
+
+        return component;
+    }
+
+    /**
+     * Invokes a (possibly protected) lifecycle method of a component, e.g.
+     * <code>activate</code>
+     */
+    public static void invoke(Object component, String methodName, Object... args) {
+        for (Class<?> clazz = component.getClass(); clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.getName().equals(methodName) && (method.getParameterTypes().length == args.length)) {
+                    invoke(component, method, args);
+
+                    return;
+                }
+            }
+        }
+
+        throw new IllegalArgumentException(component.getClass().getName() + " has no method " + methodName);
+    }
+
+    private static Object getDefaultValue(Class<?> type) {
+        if (!type.isPrimitive()) {
+            if (type.isArray()) {
+                return Array.newInstance(type.getComponentType(), 0);
+            }
+
+            return null;
+        }
+
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == double.class) {
+            return 0D;
+        }
+
+        return null;
+    }
+
+    private static void invoke(Object component, Method method, Object... args) {
+        try {
+            method.setAccessible(true);
+
+            method.invoke(component, args);
+        } catch (InvocationTargetException ite) {
+            throw new IllegalStateException(ite.getCause());
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException(iae);
+        }
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args, Object delegate) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return delegate.toString();
+        }
+    }
+
+    private static class DelegatingInvocationHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return invokeObjectMethod(proxy, method, args, _delegate);
+            }
+
+            _serviceCalls.record(_type, method.getName());
+
+            Method delegateMethod = _delegateMethods.computeIfAbsent(method, this::getDelegateMethod);
+
+            if (delegateMethod == _NO_METHOD) {
+                return getDefaultValue(method.getReturnType());
+            }
+
+            try {
+                return delegateMethod.invoke(_delegate, args);
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+
+        private DelegatingInvocationHandler(Class<?> type, Object delegate, ShibbolethServiceCalls serviceCalls) {
+            _type = type;
+            _delegate = delegate;
+            _serviceCalls = serviceCalls;
+        }
+
+        private Method getDelegateMethod(Method method) {
+            try {
+                Method delegateMethod = _delegate.getClass().getMethod(method.getName(), method.getParameterTypes());
+
+                delegateMethod.setAccessible(true);
+
+                return delegateMethod;
+            } catch (NoSuchMethodException nsme) {
+                return _NO_METHOD;
+            }
+        }
+
+        private final Object _delegate;
+        private final ConcurrentMap<Method, Method> _delegateMethods = new ConcurrentHashMap<>();
+        private final ShibbolethServiceCalls _serviceCalls;
+        private final Class<?> _type;
+
+    }
+
+    private static final Method _NO_METHOD;
+
+    static {
+        try {
+            _NO_METHOD = Object.class.getMethod("toString");
+        } catch (NoSuchMethodException nsme) {
+            throw new ExceptionInInitializerError(nsme);
+        }
+    }
+
+}
@@ -0,0 +1,362 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.counter.kernel.service.CounterLocalService;
+import com.liferay.expando.kernel.service.ExpandoColumnLocalService;
+import com.liferay.expando.kernel.service.ExpandoTableLocalService;
+import com.liferay.expando.kernel.service.ExpandoValueLocalService;
+import com.liferay.portal.kernel.lock.LockManager;
+import com.liferay.portal.kernel.model.CompanyConstants;
+import com.liferay.portal.kernel.module.configuration.ConfigurationProvider;
+import com.liferay.portal.kernel.service.ClassNameLocalService;
+import com.liferay.portal.kernel.service.GroupLocalService;
+import com.liferay.portal.kernel.service.OrganizationLocalService;
+import com.liferay.portal.kernel.service.RoleLocalService;
+import com.liferay.portal.kernel.service.UserGroupLocalService;
+import com.liferay.portal.kernel.service.UserGroupRoleLocalService;
+import com.liferay.portal.kernel.service.UserLocalService;
+import com.liferay.portal.kernel.settings.SettingsLocator;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvoker;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+import com.liferay.portal.kernel.util.Portal;
+import com.liferay.portal.kernel.util.PortalUtil;
+import com.liferay.portal.kernel.util.PrefsProps;
+import com.liferay.portal.kernel.util.PrefsPropsUtil;
+import com.liferay.portal.security.exportimport.UserImporter;
+import com.liferay.portal.security.shibboleth.auth.ShibbolethAutoLogin;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributesFingerprintStore;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethMappedAttributesUpdater;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationBus;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationTransport;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityRevocations;
+import com.liferay.portal.security.shibboleth.internal.membership.ShibbolethMembershipSynchronizer;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethMetrics;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethLdapImportCache;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethProvisioningBulkhead;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethProvisioningCoordinator;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethReadStageExecutor;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethUserUpdateQueue;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleCreator;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleIndex;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleNameCache;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleReconciler;
+import com.liferay.portal.servlet.filters.sso.shibboleth.ShibbolethFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Shibboleth filter and auto login wired to in-memory fakes of the portal
+ * services, for benchmarks and load tests outside of a portal.
+ * <p/>
+ * The fixture serves a single company. Logins go through the real
+ * {@link ShibbolethFilter} and {@link ShibbolethAutoLogin}, including their
+ * caches and the role reconciliation; only the portal services are fake.
+ * Fixtures whose invalidation buses share a
+ * {@link ShibbolethLocalInvalidationNetwork} act as the nodes of a cluster.
+ */
+public class ShibbolethFixture {
+
+    public static final long COMPANY_ID = 20116;
+
+    public static final String ROLE_SUBTYPE = "shibboleth";
+
+    /**
+     * Returns a configuration with headers enabled, auto-create, auto-update
+     * and role assignment turned on, and the SP attributes
+     * <code>eppn</code>, <code>mail</code>, <code>givenName</code>,
+     * <code>sn</code> and <code>entitlement</code> mapped.
+     */
+    public static Map<String, Object> createConfigurationValues() {
+        Map<String, Object> configurationValues = new HashMap<>();
+
+        configurationValues.put("affiliationTruncateEnabled", true);
+        configurationValues.put("autoAssignUserRole", true);
+        configurationValues.put("autoAssignUserRoleSubType", ROLE_SUBTYPE);
+        configurationValues.put("autoCreateUsers", true);
+        configurationValues.put("autoUpdateUsers", true);
+        configurationValues.put("enabled", true);
+        configurationValues.put("firstname", "givenName");
+        configurationValues.put("headersEnabled", true);
+        configurationValues.put("screenameTransformEnabled", true);
+        configurationValues.put("surname", "sn");
+        configurationValues.put("userEmailHeader", "mail");
+        configurationValues.put("userHeader", "eppn");
+        configurationValues.put("userHeaderAffiliation", "entitlement");
+
+        return configurationValues;
+    }
+
+    /**
+     * @param persistentFingerprints whether the attribute fingerprints of the
+     *        users are stored. Without them every login synchronizes the user
+     *        and its roles.
+     */
+    public ShibbolethFixture(Map<String, Object> configurationValues, boolean persistentFingerprints)
+            throws Exception {
+
+        this(configurationValues, persistentFingerprints, ShibbolethServiceCalls.NONE);
+    }
+
+    /**
+     * @param serviceCalls counts the calls to the fake services and simulates
+     *        their database latency
+     */
+    public ShibbolethFixture(
+            Map<String, Object> configurationValues, boolean persistentFingerprints,
+            ShibbolethServiceCalls serviceCalls)
+            throws Exception {
+
+        this(
+                configurationValues, persistentFingerprints, serviceCalls,
+                new ShibbolethLocalInvalidationNetwork().createTransport());
+    }
+
+    /**
+     * @param invalidationTransport connects the invalidation bus of the
+     *        fixture to the buses of other fixtures, see
+     *        {@link ShibbolethLocalInvalidationNetwork}
+     */
+    public ShibbolethFixture(
+            Map<String, Object> configurationValues, boolean persistentFingerprints,
+            ShibbolethServiceCalls serviceCalls, ShibbolethInvalidationTransport invalidationTransport)
+            throws Exception {
+
+        initPortalUtil();
+
+        _configurationValues = configurationValues;
+
+        _fakeUserLocalService = new FakeUserLocalService();
+        _fakeRoleLocalService = new FakeRoleLocalService(_fakeUserLocalService);
+        _fakeMembershipLocalServices = new FakeMembershipLocalServices(_fakeUserLocalService);
+
+        FakeExpandoLocalServices fakeExpandoLocalServices = new FakeExpandoLocalServices(persistentFingerprints);
+
+        UserLocalService userLocalService = ShibbolethFakes.fake(
+                UserLocalService.class, _fakeUserLocalService, serviceCalls);
+        RoleLocalService roleLocalService = ShibbolethFakes.fake(
+                RoleLocalService.class, _fakeRoleLocalService, serviceCalls);
+
+        _shibbolethMetrics = new ShibbolethMetrics();
+
+        _shibbolethConfigurationCache = ShibbolethFakes.inject(
+                new ShibbolethConfigurationCache(),
+                ShibbolethFakes.fake(ConfigurationProvider.class, new FakeConfigurationProvider()));
+
+        ShibbolethFakes.invoke(_shibbolethConfigurationCache, "activate");
+
+        ShibbolethAttributesFingerprintStore shibbolethAttributesFingerprintStore = ShibbolethFakes.inject(
+                new ShibbolethAttributesFingerprintStore(),
+                ShibbolethFakes.fake(ExpandoColumnLocalService.class, fakeExpandoLocalServices, serviceCalls),
+                ShibbolethFakes.fake(ExpandoTableLocalService.class, fakeExpandoLocalServices, serviceCalls),
+                ShibbolethFakes.fake(ExpandoValueLocalService.class, fakeExpandoLocalServices, serviceCalls));
+
+        ShibbolethMembershipSynchronizer shibbolethMembershipSynchronizer = ShibbolethFakes.inject(
+                new ShibbolethMembershipSynchronizer(),
+                ShibbolethFakes.fake(GroupLocalService.class, _fakeMembershipLocalServices, serviceCalls),
+                ShibbolethFakes.fake(OrganizationLocalService.class, _fakeMembershipLocalServices, serviceCalls),
+                shibbolethAttributesFingerprintStore,
+                ShibbolethFakes.fake(UserGroupLocalService.class, _fakeMembershipLocalServices, serviceCalls),
+                ShibbolethFakes.fake(UserGroupRoleLocalService.class, _fakeMembershipLocalServices, serviceCalls),
+                userLocalService);
+
+        ShibbolethRoleCreator shibbolethRoleCreator = ShibbolethFakes.inject(
+                new ShibbolethRoleCreator(),
+                ShibbolethFakes.fake(ClassNameLocalService.class, new Object(), serviceCalls),
+                ShibbolethFakes.fake(CounterLocalService.class, new FakeCounterLocalService(), serviceCalls),
+                roleLocalService);
+
+        ShibbolethIdentityRevocations shibbolethIdentityRevocations = new ShibbolethIdentityRevocations();
+        ShibbolethLdapImportCache shibbolethLdapImportCache = ShibbolethFakes.inject(
+                new ShibbolethLdapImportCache(), userLocalService);
+        ShibbolethRoleIndex shibbolethRoleIndex = ShibbolethFakes.inject(new ShibbolethRoleIndex(), roleLocalService);
+        ShibbolethRoleNameCache shibbolethRoleNameCache = ShibbolethFakes.inject(
+                new ShibbolethRoleNameCache(), roleLocalService);
+
+        _shibbolethInvalidationBus = ShibbolethFakes.inject(
+                new ShibbolethInvalidationBus(), _shibbolethConfigurationCache, shibbolethIdentityRevocations,
+                invalidationTransport, shibbolethLdapImportCache, shibbolethRoleIndex, shibbolethRoleNameCache);
+
+        ShibbolethFakes.invoke(_shibbolethInvalidationBus, "activate", new HashMap<String, Object>());
+
+        ShibbolethReadStageExecutor shibbolethReadStageExecutor = new ShibbolethReadStageExecutor();
+
+        ShibbolethFakes.invoke(shibbolethReadStageExecutor, "activate", new HashMap<String, Object>());
+
+        _filter = ShibbolethFakes.inject(
+                new ShibbolethFilter(), _shibbolethConfigurationCache, _shibbolethMetrics);
+
+        _filter.init(ShibbolethFakes.fake(FilterConfig.class, new Object()));
+
+        _autoLogin = ShibbolethFakes.inject(
+                new ShibbolethAutoLogin(), userLocalService, roleLocalService,
+                ShibbolethFakes.fake(UserImporter.class, new Object(), serviceCalls), _shibbolethConfigurationCache,
+                shibbolethAttributesFingerprintStore, _fakeIdentityMappingStore, shibbolethIdentityRevocations,
+                shibbolethLdapImportCache, new ShibbolethMappedAttributesUpdater(), shibbolethMembershipSynchronizer,
+                _shibbolethMetrics, new ShibbolethProvisioningBulkhead(),
+                ShibbolethFakes.inject(
+                        new ShibbolethProvisioningCoordinator(),
+                        ShibbolethFakes.fake(LockManager.class, new Object())),
+                shibbolethReadStageExecutor, shibbolethRoleCreator, shibbolethRoleIndex, shibbolethRoleNameCache,
+                ShibbolethFakes.inject(new ShibbolethRoleReconciler(), userLocalService, roleLocalService),
+                new ShibbolethUserUpdateQueue());
+    }
+
+    /**
+     * Creates a login request carrying the SP attributes as HTTP headers or,
+     * if headers are disabled in the configuration, as request attributes
+     */
+    public HttpServletRequest createRequest(HttpSession session, Map<String, String> attributes) {
+        FakeHttpServletRequest fakeHttpServletRequest = new FakeHttpServletRequest("/portal/login", session);
+
+        boolean headersEnabled = Boolean.TRUE.equals(_configurationValues.get("headersEnabled"));
+
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            if (headersEnabled) {
+                fakeHttpServletRequest.setHeader(entry.getKey(), entry.getValue());
+            } else {
+                fakeHttpServletRequest.setAttribute(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return ShibbolethFakes.fake(HttpServletRequest.class, fakeHttpServletRequest);
+    }
+
+    public HttpSession createSession() {
+        return ShibbolethFakes.fake(HttpSession.class, new FakeHttpSession());
+    }
+
+    public ShibbolethAutoLogin getAutoLogin() {
+        return _autoLogin;
+    }
+
+    public FakeIdentityMappingStore getFakeIdentityMappingStore() {
+        return _fakeIdentityMappingStore;
+    }
+
+    public FakeMembershipLocalServices getFakeMembershipLocalServices() {
+        return _fakeMembershipLocalServices;
+    }
+
+    public FakeRoleLocalService getFakeRoleLocalService() {
+        return _fakeRoleLocalService;
+    }
+
+    public FakeUserLocalService getFakeUserLocalService() {
+        return _fakeUserLocalService;
+    }
+
+    public ShibbolethFilter getFilter() {
+        return _filter;
+    }
+
+    public ShibbolethConfigurationCache getShibbolethConfigurationCache() {
+        return _shibbolethConfigurationCache;
+    }
+
+    public ShibbolethInvalidationBus getShibbolethInvalidationBus() {
+        return _shibbolethInvalidationBus;
+    }
+
+    public ShibbolethMetrics getShibbolethMetrics() {
+        return _shibbolethMetrics;
+    }
+
+    /**
+     * Logs in like a browser arriving from the SP: the filter extracts the
+     * attributes into the session, then the auto login resolves the user
+     *
+     * @return the credentials or <code>null</code> if the login failed
+     */
+    public String[] login(HttpSession session, Map<String, String> attributes) throws Exception {
+        HttpServletRequest request = createRequest(session, attributes);
+
+        _filter.doFilter(request, _response, _filterChain);
+
+        return _autoLogin.login(request, _response);
+    }
+
+    public class FakeConfigurationProvider {
+
+        public Object getConfiguration(Class<?> clazz, SettingsLocator settingsLocator) {
+            if (clazz != ShibbolethConfiguration.class) {
+                throw new IllegalArgumentException(clazz.getName());
+            }
+
+            return ShibbolethFakes.configuration(ShibbolethConfiguration.class, _configurationValues);
+        }
+
+    }
+
+    public static class FakeCounterLocalService {
+
+        public long increment() {
+            return _counter.incrementAndGet();
+        }
+
+        private final AtomicLong _counter = new AtomicLong(300000);
+
+    }
+
+    public static class FakeTransactionInvoker {
+
+        public <T> T invoke(TransactionConfig transactionConfig, Callable<T> callable) throws Throwable {
+            return callable.call();
+        }
+
+    }
+
+    private static synchronized void initPortalUtil() {
+        if (_portalUtilInitialized) {
+            return;
+        }
+
+        new PortalUtil().setPortal(ShibbolethFakes.fake(Portal.class, new Object() {
+
+            @SuppressWarnings("unused")
+            public long getCompanyId(HttpServletRequest request) {
+                return COMPANY_ID;
+            }
+
+        }));
+
+        new PrefsPropsUtil().setPrefsProps(ShibbolethFakes.fake(PrefsProps.class, new Object() {
+
+            @SuppressWarnings("unused")
+            public String getString(long companyId, String key, String defaultValue) {
+                return CompanyConstants.AUTH_TYPE_SN;
+            }
+
+        }));
+
+        new TransactionInvokerUtil().setTransactionInvoker(
+                ShibbolethFakes.fake(TransactionInvoker.class, new FakeTransactionInvoker()));
+
+        _portalUtilInitialized = true;
+    }
+
+    private static boolean _portalUtilInitialized;
+
+    private final ShibbolethAutoLogin _autoLogin;
+    private final Map<String, Object> _configurationValues;
+    private final FakeIdentityMappingStore _fakeIdentityMappingStore = new FakeIdentityMappingStore();
+    private final FakeMembershipLocalServices _fakeMembershipLocalServices;
+    private final FakeRoleLocalService _fakeRoleLocalService;
+    private final FakeUserLocalService _fakeUserLocalService;
+    private final ShibbolethFilter _filter;
+    private final FilterChain _filterChain = ShibbolethFakes.fake(FilterChain.class, new Object());
+    private final HttpServletResponse _response = ShibbolethFakes.fake(HttpServletResponse.class, new Object());
+    private final ShibbolethConfigurationCache _shibbolethConfigurationCache;
+    private final ShibbolethInvalidationBus _shibbolethInvalidationBus;
+    private final ShibbolethMetrics _shibbolethMetrics;
+
+}
@@ -0,0 +1,79 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidation;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationTransport;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Stands in for the cluster link between several nodes running in the same
+ * JVM, e.g. several {@link ShibbolethFixture}s.
+ * <p/>
+ * Every transport created by the network delivers the batches it sends to the
+ * receivers of all other transports, synchronously in the sending thread. A
+ * disconnected transport neither sends nor receives, which simulates a node
+ * that is cut off from the cluster.
+ */
+public class ShibbolethLocalInvalidationNetwork {
+
+    public ShibbolethInvalidationTransport createTransport() {
+        Transport transport = new Transport();
+
+        _transports.add(transport);
+
+        return transport;
+    }
+
+    public long getBatchCount() {
+        return _batchCount.sum();
+    }
+
+    public long getInvalidationCount() {
+        return _invalidationCount.sum();
+    }
+
+    public void setConnected(ShibbolethInvalidationTransport transport, boolean connected) {
+        ((Transport) transport)._connected = connected;
+    }
+
+    private final LongAdder _batchCount = new LongAdder();
+    private final LongAdder _invalidationCount = new LongAdder();
+    private final List<Transport> _transports = new CopyOnWriteArrayList<>();
+
+    private class Transport implements ShibbolethInvalidationTransport {
+
+        @Override
+        public void send(List<ShibbolethInvalidation> invalidations) {
+            if (!_connected) {
+                return;
+            }
+
+            _batchCount.increment();
+            _invalidationCount.add(invalidations.size());
+
+            List<ShibbolethInvalidation> batch = Collections.unmodifiableList(invalidations);
+
+            for (Transport transport : _transports) {
+                Consumer<List<ShibbolethInvalidation>> receiver = transport._receiver;
+
+                if ((transport != this) && transport._connected && (receiver != null)) {
+                    receiver.accept(batch);
+                }
+            }
+        }
+
+        @Override
+        public void setReceiver(Consumer<List<ShibbolethInvalidation>> receiver) {
+            _receiver = receiver;
+        }
+
+        private volatile boolean _connected = true;
+        private volatile Consumer<List<ShibbolethInvalidation>> _receiver;
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.liferay.portal.security.shibboleth.fixtures;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the calls to the fake portal services and simulates the latency of
+ * the database behind them.
+ * <p/>
+ * Methods starting with <code>add</code>, <code>delete</code>,
+ * <code>increment</code>, <code>set</code>, <code>unset</code> or
+ * <code>update</code> are treated as writes, methods starting with
+ * <code>fetch</code>, <code>get</code> or <code>has</code> as reads. Other
+ * methods (e.g. <code>createRole</code>, which only instantiates a model) are
+ * counted but not delayed.
+ */
+public class ShibbolethServiceCalls {
+
+    public static final ShibbolethServiceCalls NONE = new ShibbolethServiceCalls(0, 0);
+
+    public ShibbolethServiceCalls(long readLatencyMicros, long writeLatencyMicros) {
+        _readLatencyNanos = TimeUnit.MICROSECONDS.toNanos(readLatencyMicros);
+        _writeLatencyNanos = TimeUnit.MICROSECONDS.toNanos(writeLatencyMicros);
+    }
+
+    /**
+     * Returns the number of calls by <code>Service.method</code>, sorted by
+     * name
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+
+        for (Map.Entry<String, LongAdder> entry : _counts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        return counts;
+    }
+
+    public void record(Class<?> serviceClass, String methodName) {
+        if (this == NONE) {
+            return;
+        }
+
+        String key = serviceClass.getSimpleName() + "." + methodName;
+
+        LongAdder count = _counts.get(key);
+
+        if (count == null) {
+            count = _counts.computeIfAbsent(key, k -> new LongAdder());
+        }
+
+        count.increment();
+
+        long latencyNanos = 0;
+
+        if (isWrite(methodName)) {
+            latencyNanos = _writeLatencyNanos;
+        } else if (isRead(methodName)) {
+            latencyNanos = _readLatencyNanos;
+        }
+
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    public void reset() {
+        _counts.clear();
+    }
+
+    private static boolean isRead(String methodName) {
+        return methodName.startsWith("fetch") || methodName.startsWith("get") || methodName.startsWith("has");
+    }
+
+    private static boolean isWrite(String methodName) {
+        return methodName.startsWith("add") || methodName.startsWith("delete") ||
+                methodName.startsWith("increment") || methodName.startsWith("set") ||
+                methodName.startsWith("unset") || methodName.startsWith("update");
+    }
+
+    private final ConcurrentMap<String, LongAdder> _counts = new ConcurrentHashMap<>();
+    private final long _readLatencyNanos;
+    private final long _writeLatencyNanos;
+
+}
@@ -0,0 +1,21 @@
+package com.liferay.portal.security.shibboleth.benchmark;
+
+import com.liferay.portal.servlet.filters.sso.shibboleth.ShibbolethFilter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Makes the extraction methods of the filter callable from the benchmarks.
+ */
+public class ExposedShibbolethFilter extends ShibbolethFilter {
+
+    public boolean extract(HttpSession session, long companyId, HttpServletRequest request) throws Exception {
+        return extractData(session, companyId, request);
+    }
+
+    public String header(String headerName, HttpServletRequest request, boolean headersEnabled) {
+        return getHeader(headerName, request, headersEnabled);
+    }
+
+}
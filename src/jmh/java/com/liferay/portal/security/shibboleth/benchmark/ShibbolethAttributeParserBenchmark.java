@@ -0,0 +1,62 @@
+package com.liferay.portal.security.shibboleth.benchmark;
+
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributeParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting multi-valued attributes, entitlement truncation and the screen
+ * name transform.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class ShibbolethAttributeParserBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int valueCount;
+
+    @Benchmark
+    public String getFirstValue() {
+        return ShibbolethAttributeParser.getFirstValue(_entitlement);
+    }
+
+    @Setup
+    public void setUp() {
+        _entitlement = ShibbolethBenchmarkData.createEntitlement(valueCount, 0);
+    }
+
+    @Benchmark
+    public String[] split() {
+        return ShibbolethAttributeParser.split(_entitlement, false);
+    }
+
+    @Benchmark
+    public String[] splitTruncate() {
+        return ShibbolethAttributeParser.split(_entitlement, true);
+    }
+
+    @Benchmark
+    public String toScreenName() {
+        return ShibbolethAttributeParser.toScreenName(_LOGIN);
+    }
+
+    private static final String _LOGIN = "first_last@example.org";
+
+    private String _entitlement;
+
+}
@@ -0,0 +1,46 @@
+package com.liferay.portal.security.shibboleth.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Synthetic SP attributes for the benchmarks.
+ */
+public class ShibbolethBenchmarkData {
+
+    /**
+     * Returns an eduPersonEntitlement style value with the given number of
+     * URNs ending in <code>role-0</code>, <code>role-1</code>, ...
+     */
+    public static String createEntitlement(int valueCount, int offset) {
+        StringBuilder sb = new StringBuilder(valueCount * 48);
+
+        for (int i = 0; i < valueCount; i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+
+            sb.append("urn:mace:example.org:entitlement:portal:role-");
+            sb.append(offset + i);
+        }
+
+        return sb.toString();
+    }
+
+    public static Map<String, String> createHeaders(String login, String entitlement) {
+        Map<String, String> headers = new HashMap<>();
+
+        headers.put("entitlement", entitlement);
+        headers.put("eppn", login);
+        headers.put("givenName", "Given");
+        headers.put("mail", login + ";" + login.replace('@', '.') + "@alias.example.org");
+        headers.put("sn", "Surname");
+
+        return headers;
+    }
+
+    public static String getRoleName(int index) {
+        return "role-" + index;
+    }
+
+}
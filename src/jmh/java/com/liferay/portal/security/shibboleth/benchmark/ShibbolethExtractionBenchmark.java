@@ -0,0 +1,84 @@
+package com.liferay.portal.security.shibboleth.benchmark;
+
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFakes;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFixture;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributeMappingPlan;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the SP attributes into the session by the filter.
+ * <p/>
+ * <code>extractData</code> only extracts into a session without a login, so
+ * every invocation includes creating a fresh fake session.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class ShibbolethExtractionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean affiliationTruncateEnabled;
+
+    @Param({"1", "10", "100", "500"})
+    public int entitlementCount;
+
+    @Benchmark
+    public boolean extractData() throws Exception {
+        return _filter.extract(_fixture.createSession(), ShibbolethFixture.COMPANY_ID, _request);
+    }
+
+    @Benchmark
+    public ShibbolethAttributes extractPlan() {
+        return _plan.extract((name, header) -> _filter.header(name, _request, header));
+    }
+
+    @Benchmark
+    public String getHeader() {
+        return _filter.header("entitlement", _request, true);
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Object> configurationValues = ShibbolethFixture.createConfigurationValues();
+
+        configurationValues.put("affiliationTruncateEnabled", affiliationTruncateEnabled);
+
+        _fixture = new ShibbolethFixture(configurationValues, true);
+
+        _filter = ShibbolethFakes.inject(
+                new ExposedShibbolethFilter(), _fixture.getShibbolethConfigurationCache(),
+                _fixture.getShibbolethMetrics());
+
+        _plan = _fixture.getShibbolethConfigurationCache().getConfiguration(
+                ShibbolethFixture.COMPANY_ID).getAttributeMappingPlan();
+
+        _request = _fixture.createRequest(
+                _fixture.createSession(),
+                ShibbolethBenchmarkData.createHeaders(
+                        "first_last@example.org", ShibbolethBenchmarkData.createEntitlement(entitlementCount, 0)));
+    }
+
+    private ExposedShibbolethFilter _filter;
+    private ShibbolethFixture _fixture;
+    private ShibbolethAttributeMappingPlan _plan;
+    private HttpServletRequest _request;
+
+}
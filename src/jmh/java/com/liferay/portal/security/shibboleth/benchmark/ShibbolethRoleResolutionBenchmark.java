@@ -0,0 +1,84 @@
+package com.liferay.portal.security.shibboleth.benchmark;
+
+import com.liferay.portal.security.shibboleth.fixtures.FakeRoleLocalService;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login of a returning user whose roles are derived from the entitlements,
+ * through the filter and the auto login.
+ * <p/>
+ * Attribute fingerprints are not stored, so every login resolves the role
+ * names and reconciles the assignments. <code>login</code> keeps the
+ * entitlements stable, so the reconciliation writes nothing;
+ * <code>loginChangedRoles</code> alternates between two disjoint entitlement
+ * sets, so every login adds and removes all roles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class ShibbolethRoleResolutionBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int entitlementCount;
+
+    @Param({"10", "1000", "10000"})
+    public int roleCount;
+
+    @Benchmark
+    public String[] login() throws Exception {
+        return _fixture.login(_fixture.createSession(), _headers);
+    }
+
+    @Benchmark
+    public String[] loginChangedRoles() throws Exception {
+        _changedRoles = !_changedRoles;
+
+        return _fixture.login(_fixture.createSession(), _changedRoles ? _changedHeaders : _headers);
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        _fixture = new ShibbolethFixture(ShibbolethFixture.createConfigurationValues(), false);
+
+        FakeRoleLocalService fakeRoleLocalService = _fixture.getFakeRoleLocalService();
+
+        for (int i = 0; i < roleCount; i++) {
+            fakeRoleLocalService.addRole(
+                    ShibbolethFixture.COMPANY_ID, ShibbolethBenchmarkData.getRoleName(i),
+                    (i % 2 == 0) ? ShibbolethFixture.ROLE_SUBTYPE : "other");
+        }
+
+        _headers = ShibbolethBenchmarkData.createHeaders(
+                "returning@example.org", ShibbolethBenchmarkData.createEntitlement(entitlementCount, 0));
+        _changedHeaders = ShibbolethBenchmarkData.createHeaders(
+                "returning@example.org",
+                ShibbolethBenchmarkData.createEntitlement(entitlementCount, entitlementCount));
+
+        if (_fixture.login(_fixture.createSession(), _headers) == null) {
+            throw new IllegalStateException("Unable to provision the benchmark user");
+        }
+    }
+
+    private Map<String, String> _changedHeaders;
+    private boolean _changedRoles;
+    private ShibbolethFixture _fixture;
+    private Map<String, String> _headers;
+
+}
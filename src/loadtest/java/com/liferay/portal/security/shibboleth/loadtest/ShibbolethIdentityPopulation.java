@@ -0,0 +1,87 @@
+package com.liferay.portal.security.shibboleth.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Synthetic identities as an SP would release them.
+ * <p/>
+ * Identities below the population size are the existing users, identities
+ * above it are handed out to first logins. Every identity has a version;
+ * changing an identity bumps its version, which changes its surname and
+ * entitlements.
+ */
+public class ShibbolethIdentityPopulation {
+
+    public static String getRoleName(int index) {
+        return "role-" + index;
+    }
+
+    public ShibbolethIdentityPopulation(int size, int roleCount, int entitlementCount) {
+        _size = size;
+        _roleCount = roleCount;
+        _entitlementCount = Math.min(entitlementCount, roleCount);
+        _nextIndex = new AtomicInteger(size);
+        _versions = new AtomicIntegerArray(size);
+    }
+
+    /**
+     * Changes an existing identity
+     *
+     * @return the attributes of the new version
+     */
+    public Map<String, String> change(int index) {
+        return getAttributes(index, _versions.incrementAndGet(index));
+    }
+
+    public Map<String, String> get(int index) {
+        return getAttributes(index, _versions.get(index));
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    /**
+     * Returns the attributes of an identity that has never logged in
+     */
+    public Map<String, String> next() {
+        return getAttributes(_nextIndex.getAndIncrement(), 0);
+    }
+
+    private Map<String, String> getAttributes(int index, int version) {
+        String login = "user-" + index + "@example.org";
+
+        StringBuilder sb = new StringBuilder(_entitlementCount * 48);
+
+        int offset = (index * 31) + (version * 7);
+
+        for (int i = 0; i < _entitlementCount; i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+
+            sb.append("urn:mace:example.org:entitlement:portal:");
+            sb.append(getRoleName((offset + i) % _roleCount));
+        }
+
+        Map<String, String> attributes = new HashMap<>();
+
+        attributes.put("entitlement", sb.toString());
+        attributes.put("eppn", login);
+        attributes.put("givenName", "Given" + index);
+        attributes.put("mail", login);
+        attributes.put("sn", "Surname" + index + "v" + version);
+
+        return attributes;
+    }
+
+    private final int _entitlementCount;
+    private final AtomicInteger _nextIndex;
+    private final int _roleCount;
+    private final int _size;
+    private final AtomicIntegerArray _versions;
+
+}
@@ -0,0 +1,74 @@
+package com.liferay.portal.security.shibboleth.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A weighted mix of login kinds.
+ */
+public class ShibbolethLoadScenario {
+
+    /**
+     * Parses a scenario name: <code>first-login</code>,
+     * <code>returning</code>, <code>changed</code> or <code>mixed</code>. The
+     * mixed scenario uses the given weights of first, returning and changed
+     * logins.
+     */
+    public static ShibbolethLoadScenario parse(String name, int[] mixWeights) {
+        switch (name) {
+            case "changed":
+                return new ShibbolethLoadScenario(name, 0, 0, 1);
+            case "first-login":
+                return new ShibbolethLoadScenario(name, 1, 0, 0);
+            case "mixed":
+                return new ShibbolethLoadScenario(name, mixWeights[0], mixWeights[1], mixWeights[2]);
+            case "returning":
+                return new ShibbolethLoadScenario(name, 0, 1, 0);
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + name);
+        }
+    }
+
+    public ShibbolethLoadScenario(String name, int firstLoginWeight, int returningWeight, int changedWeight) {
+        if ((firstLoginWeight < 0) || (returningWeight < 0) || (changedWeight < 0) ||
+                ((firstLoginWeight + returningWeight + changedWeight) == 0)) {
+
+            throw new IllegalArgumentException("Invalid weights of scenario " + name);
+        }
+
+        _name = name;
+        _firstLoginWeight = firstLoginWeight;
+        _returningWeight = returningWeight;
+        _changedWeight = changedWeight;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Whether the scenario logs in users that have to exist beforehand
+     */
+    public boolean isPopulated() {
+        return (_returningWeight + _changedWeight) > 0;
+    }
+
+    public ShibbolethLoginKind nextLoginKind() {
+        int value = ThreadLocalRandom.current().nextInt(_firstLoginWeight + _returningWeight + _changedWeight);
+
+        if (value < _firstLoginWeight) {
+            return ShibbolethLoginKind.FIRST_LOGIN;
+        }
+
+        if (value < (_firstLoginWeight + _returningWeight)) {
+            return ShibbolethLoginKind.RETURNING;
+        }
+
+        return ShibbolethLoginKind.CHANGED_ATTRIBUTES;
+    }
+
+    private final int _changedWeight;
+    private final int _firstLoginWeight;
+    private final String _name;
+    private final int _returningWeight;
+
+}
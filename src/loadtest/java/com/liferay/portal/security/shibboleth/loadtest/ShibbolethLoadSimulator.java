@@ -0,0 +1,310 @@
+package com.liferay.portal.security.shibboleth.loadtest;
+
+import com.liferay.portal.security.shibboleth.fixtures.FakeRoleLocalService;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFixture;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethServiceCalls;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethLatencyHistogram;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethMetrics;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethStage;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives the Shibboleth filter and auto login with concurrent logins of a
+ * synthetic identity population, against fake portal services with simulated
+ * database latency.
+ * <p/>
+ * Every scenario runs on a fresh fixture. Scenarios with returning users first
+ * provision the population; that warm-up is not measured. For every scenario
+ * the throughput, the latency percentiles per login kind and stage, and the
+ * number of service calls are reported.
+ * <p/>
+ * Options (all optional), as <code>--name=value</code>:
+ * <ul>
+ * <li><code>scenarios</code>: comma separated, out of first-login, returning,
+ * changed and mixed (default: all)</li>
+ * <li><code>mix</code>: weights of first, returning and changed logins in the
+ * mixed scenario (default: 5,85,10)</li>
+ * <li><code>threads</code>: concurrent logins (default: 200)</li>
+ * <li><code>logins</code>: logins per scenario (default: 20000)</li>
+ * <li><code>population</code>: existing users (default: 5000)</li>
+ * <li><code>roles</code>: roles of the company (default: 200)</li>
+ * <li><code>entitlements</code>: entitlements per identity (default: 20)</li>
+ * <li><code>read-latency</code> / <code>write-latency</code>: simulated
+ * database latency in microseconds (default: 200 / 1000)</li>
+ * <li><code>source</code>: header or attribute (default: header)</li>
+ * <li><code>verbose</code>: keep the plugin's logging (default: false)</li>
+ * </ul>
+ */
+public class ShibbolethLoadSimulator {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        if (!Boolean.parseBoolean(getOption(options, "verbose", "false"))) {
+            Logger.getLogger("").setLevel(Level.OFF);
+        }
+
+        int[] mixWeights = parseInts(getOption(options, "mix", "5,85,10"));
+
+        ShibbolethLoadSimulator shibbolethLoadSimulator = new ShibbolethLoadSimulator(
+                Integer.parseInt(getOption(options, "threads", "200")),
+                Integer.parseInt(getOption(options, "logins", "20000")),
+                Integer.parseInt(getOption(options, "population", "5000")),
+                Integer.parseInt(getOption(options, "roles", "200")),
+                Integer.parseInt(getOption(options, "entitlements", "20")),
+                Long.parseLong(getOption(options, "read-latency", "200")),
+                Long.parseLong(getOption(options, "write-latency", "1000")),
+                "header".equals(getOption(options, "source", "header")));
+
+        for (String scenarioName : getOption(options, "scenarios", "first-login,returning,changed,mixed").split(",")) {
+            shibbolethLoadSimulator.run(ShibbolethLoadScenario.parse(scenarioName.trim(), mixWeights), System.out);
+        }
+    }
+
+    public ShibbolethLoadSimulator(
+            int threadCount, int loginCount, int populationSize, int roleCount, int entitlementCount,
+            long readLatencyMicros, long writeLatencyMicros, boolean headersEnabled) {
+
+        _threadCount = threadCount;
+        _loginCount = loginCount;
+        _populationSize = populationSize;
+        _roleCount = roleCount;
+        _entitlementCount = entitlementCount;
+        _readLatencyMicros = readLatencyMicros;
+        _writeLatencyMicros = writeLatencyMicros;
+        _headersEnabled = headersEnabled;
+    }
+
+    public void run(ShibbolethLoadScenario scenario, PrintStream out) throws Exception {
+        Map<String, Object> configurationValues = ShibbolethFixture.createConfigurationValues();
+
+        configurationValues.put("headersEnabled", _headersEnabled);
+
+        ShibbolethServiceCalls serviceCalls = new ShibbolethServiceCalls(_readLatencyMicros, _writeLatencyMicros);
+
+        ShibbolethFixture fixture = new ShibbolethFixture(configurationValues, true, serviceCalls);
+
+        FakeRoleLocalService fakeRoleLocalService = fixture.getFakeRoleLocalService();
+
+        for (int i = 0; i < _roleCount; i++) {
+            fakeRoleLocalService.addRole(
+                    ShibbolethFixture.COMPANY_ID, ShibbolethIdentityPopulation.getRoleName(i),
+                    ShibbolethFixture.ROLE_SUBTYPE);
+        }
+
+        ShibbolethIdentityPopulation population = new ShibbolethIdentityPopulation(
+                _populationSize, _roleCount, _entitlementCount);
+
+        if (scenario.isPopulated()) {
+            AtomicInteger nextIndex = new AtomicInteger();
+
+            runConcurrently(() -> {
+                int index;
+
+                while ((index = nextIndex.getAndIncrement()) < population.getSize()) {
+                    fixture.login(fixture.createSession(), population.get(index));
+                }
+            });
+        }
+
+        serviceCalls.reset();
+        fixture.getShibbolethMetrics().reset();
+
+        Map<ShibbolethLoginKind, ShibbolethLatencyHistogram> histograms = new EnumMap<>(ShibbolethLoginKind.class);
+
+        for (ShibbolethLoginKind loginKind : ShibbolethLoginKind.values()) {
+            histograms.put(loginKind, new ShibbolethLatencyHistogram());
+        }
+
+        AtomicInteger remainingLogins = new AtomicInteger(_loginCount);
+
+        long startNanos = System.nanoTime();
+
+        runConcurrently(() -> {
+            while (remainingLogins.getAndDecrement() > 0) {
+                ShibbolethLoginKind loginKind = scenario.nextLoginKind();
+
+                Map<String, String> attributes;
+
+                if (loginKind == ShibbolethLoginKind.FIRST_LOGIN) {
+                    attributes = population.next();
+                } else {
+                    int index = ThreadLocalRandom.current().nextInt(population.getSize());
+
+                    if (loginKind == ShibbolethLoginKind.CHANGED_ATTRIBUTES) {
+                        attributes = population.change(index);
+                    } else {
+                        attributes = population.get(index);
+                    }
+                }
+
+                long loginStartNanos = System.nanoTime();
+                boolean success = false;
+
+                try {
+                    success = (fixture.login(fixture.createSession(), attributes) != null);
+                } catch (Exception e) {
+                    success = false;
+                } finally {
+                    histograms.get(loginKind).record(System.nanoTime() - loginStartNanos, success);
+                }
+            }
+        });
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        report(scenario, elapsedNanos, histograms, fixture.getShibbolethMetrics(), serviceCalls, out);
+    }
+
+    private static String getOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return value;
+    }
+
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected three weights: " + value);
+        }
+
+        int[] values = new int[parts.length];
+
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+
+        return values;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+
+            int index = arg.indexOf('=');
+
+            if (index < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, index), arg.substring(index + 1));
+            }
+        }
+
+        return options;
+    }
+
+    private static void printLatencies(String name, ShibbolethLatencyHistogram histogram, PrintStream out) {
+        out.printf(
+                "  %-12s %9d %9d %10.2f %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getCount(),
+                histogram.getFailureCount(), histogram.getMeanMillis(), histogram.getPercentileMillis(50),
+                histogram.getPercentileMillis(90), histogram.getPercentileMillis(99), histogram.getMaxMillis());
+    }
+
+    private void report(
+            ShibbolethLoadScenario scenario, long elapsedNanos,
+            Map<ShibbolethLoginKind, ShibbolethLatencyHistogram> histograms, ShibbolethMetrics shibbolethMetrics,
+            ShibbolethServiceCalls serviceCalls, PrintStream out) {
+
+        double elapsedSeconds = elapsedNanos / 1e9;
+
+        out.printf(
+                "%nScenario %s: %d logins by %d threads in %.2f s, %.1f logins/s%n", scenario.getName(), _loginCount,
+                _threadCount, elapsedSeconds, _loginCount / elapsedSeconds);
+
+        out.printf(
+                "  %-12s %9s %9s %10s %10s %10s %10s %10s%n", "", "count", "failures", "mean ms", "p50 ms", "p90 ms",
+                "p99 ms", "max ms");
+
+        for (Map.Entry<ShibbolethLoginKind, ShibbolethLatencyHistogram> entry : histograms.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                printLatencies(entry.getKey().getName(), entry.getValue(), out);
+            }
+        }
+
+        for (ShibbolethStage stage : ShibbolethStage.values()) {
+            ShibbolethLatencyHistogram histogram = shibbolethMetrics.getHistogram(
+                    ShibbolethFixture.COMPANY_ID, stage);
+
+            if ((histogram != null) && (histogram.getCount() > 0)) {
+                printLatencies("[" + stage.getName() + "]", histogram, out);
+            }
+        }
+
+        out.printf("  %-48s %10s %10s%n", "service call", "count", "per login");
+
+        for (Map.Entry<String, Long> entry : serviceCalls.getCounts().entrySet()) {
+            out.printf(
+                    "  %-48s %10d %10.2f%n", entry.getKey(), entry.getValue(),
+                    entry.getValue() / (double) _loginCount);
+        }
+    }
+
+    private void runConcurrently(Worker worker) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(_threadCount);
+
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (int i = 0; i < _threadCount; i++) {
+                futures.add(executorService.submit(() -> {
+                    startLatch.await();
+
+                    worker.run();
+
+                    return null;
+                }));
+            }
+
+            startLatch.countDown();
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private interface Worker {
+
+        public void run() throws Exception;
+
+    }
+
+    private final int _entitlementCount;
+    private final boolean _headersEnabled;
+    private final int _loginCount;
+    private final int _populationSize;
+    private final long _readLatencyMicros;
+    private final int _roleCount;
+    private final int _threadCount;
+    private final long _writeLatencyMicros;
+
+}
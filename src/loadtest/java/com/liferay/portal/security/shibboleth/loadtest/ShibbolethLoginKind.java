@@ -0,0 +1,20 @@
+package com.liferay.portal.security.shibboleth.loadtest;
+
+/**
+ * The kinds of logins a scenario mixes.
+ */
+public enum ShibbolethLoginKind {
+
+    CHANGED_ATTRIBUTES("changed"), FIRST_LOGIN("first-login"), RETURNING("returning");
+
+    public String getName() {
+        return _name;
+    }
+
+    private ShibbolethLoginKind(String name) {
+        _name = name;
+    }
+
+    private final String _name;
+
+}
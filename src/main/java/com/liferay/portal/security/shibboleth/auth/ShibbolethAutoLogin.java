@@ -6,20 +6,44 @@ import com.liferay.portal.kernel.exception.SystemException;
 import com.liferay.portal.kernel.log.Log;
 import com.liferay.portal.kernel.log.LogFactoryUtil;
 import com.liferay.portal.kernel.model.CompanyConstants;
-import com.liferay.portal.kernel.model.Role;
 import com.liferay.portal.kernel.model.User;
 import com.liferay.portal.kernel.module.configuration.ConfigurationException;
-import com.liferay.portal.kernel.module.configuration.ConfigurationProvider;
+import com.liferay.portal.kernel.security.auth.CompanyThreadLocal;
 import com.liferay.portal.kernel.security.auto.login.AutoLogin;
 import com.liferay.portal.kernel.security.auto.login.AutoLoginException;
 import com.liferay.portal.kernel.service.RoleLocalService;
 import com.liferay.portal.kernel.service.ServiceContext;
 import com.liferay.portal.kernel.service.UserLocalService;
-import com.liferay.portal.kernel.settings.CompanyServiceSettingsLocator;
 import com.liferay.portal.kernel.util.*;
 import com.liferay.portal.security.exportimport.UserImporter;
 import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
-import com.liferay.portal.security.shibboleth.constants.ShibbolethConstants;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributesFingerprintStore;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethMappedAttributesUpdater;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationSnapshot;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityMappingStore;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityTokenCodec;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityRevocations;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethResolvedIdentity;
+import com.liferay.portal.security.shibboleth.internal.membership.ShibbolethMembershipSynchronizer;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethFlightRecorder;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethLoginPath;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethLoginRecording;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethMetrics;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethStage;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethStageTimer;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethLdapImportCache;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethProvisioningBulkhead;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethProvisioningCoordinator;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethProvisioningRejectedException;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethReadStageExecutor;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethUserUpdateQueue;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleCreator;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleIndex;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleNameCache;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleReconciler;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleResolution;
 import com.liferay.portal.shibboleth.util.ShibbolethPropsKeys;
 import com.liferay.portal.util.PropsValues;
 import org.osgi.service.component.annotations.Component;
@@ -29,6 +53,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Performs autologin based on the header values passed by Shibboleth.
@@ -42,7 +69,7 @@ import java.util.*;
  */
 @Component(immediate = true,
            configurationPid = "com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration",
-           service = AutoLogin.class)
+           service = {AutoLogin.class, ShibbolethAutoLogin.class})
 public class ShibbolethAutoLogin implements AutoLogin {
 
 
@@ -72,26 +99,72 @@ public class ShibbolethAutoLogin implements AutoLogin {
         long companyId = PortalUtil.getCompanyId(req);
 
         try {
-            ShibbolethConfiguration configuration = getShibbolethConfiguration(companyId);
-            _log.info("Shibboleth Autologin [modified 2]");
+            ShibbolethConfigurationSnapshot configuration = getShibbolethConfiguration(companyId);
+            if (_log.isDebugEnabled()) {
+                _log.debug("Shibboleth Autologin");
+            }
 
             if (!configuration.enabled()) {
                 return credentials;
             }
 
-            user = loginFromSession(companyId, session);
+            ShibbolethAttributes attributes = getAttributes(req, session, configuration);
+            if (attributes == null) {
+                return credentials;
+            }
+
+            User resolvedUser = getResolvedUser(companyId, session, attributes);
+            if (resolvedUser != null) {
+                return getCredentials(resolvedUser);
+            }
+
+            // take the time before the lookup so that a revocation racing with
+            // this login invalidates the identity stored below
+
+            long createTime = System.currentTimeMillis();
+
+            ShibbolethLoginRecording recording = ShibbolethFlightRecorder.beginLogin(companyId, attributes);
+
+            ShibbolethStageTimer timer = _shibbolethMetrics.start(companyId, ShibbolethStage.LOGIN);
+            boolean success = false;
+
+            try {
+                user = loginFromAttributes(companyId, attributes, configuration, true, recording);
+
+                success = (user != null);
+            } finally {
+                _shibbolethMetrics.record(timer, success);
+
+                if (recording != null) {
+                    recording.commit(success);
+                }
+            }
+
             if (Validator.isNull(user)) {
                 return credentials;
             }
 
-            credentials = new String[3];
-            credentials[0] = String.valueOf(user.getUserId());
-            credentials[1] = user.getPassword();
-            credentials[2] = Boolean.TRUE.toString();
+            credentials = getCredentials(user);
+
+            if (user.isActive() && (session != null)) {
+                ShibbolethResolvedIdentity resolvedIdentity = new ShibbolethResolvedIdentity(
+                        companyId, user.getUserId(), attributes.getFingerprint(), createTime);
+
+                resolvedIdentity.toSession(session);
+            }
+
             return credentials;
 
         } catch (NoSuchUserException e) {
             logError(e);
+        } catch (ShibbolethProvisioningRejectedException e) {
+            _log.warn("Unable to provision the user of this login, asking for a retry: " + e.getMessage());
+
+            String retryUrl = getProvisioningRetryUrl(companyId);
+
+            if (Validator.isNotNull(retryUrl)) {
+                req.setAttribute(AutoLogin.AUTO_LOGIN_REDIRECT, retryUrl);
+            }
         } catch (Exception e) {
             logError(e);
             throw new AutoLoginException(e);
@@ -100,109 +173,652 @@ public class ShibbolethAutoLogin implements AutoLogin {
         return credentials;
     }
 
-    private User loginFromSession(long companyId, HttpSession session) throws Exception {
+    /**
+     * Creates or synchronizes the user of the attributes the same way a login
+     * does, but always in the calling thread. Used to provision users ahead of
+     * their first login.
+     *
+     * @return the user or <code>null</code> if the attributes do not lead to a
+     *         user, e.g. because users are not auto-created or a value the
+     *         user cannot be created without is missing
+     */
+    public User importUser(long companyId, ShibbolethAttributes attributes) throws Exception {
+        ShibbolethConfigurationSnapshot configuration = getShibbolethConfiguration(companyId);
+
+        if (!configuration.enabled()) {
+            return null;
+        }
+
+        try {
+            return loginFromAttributes(companyId, attributes, configuration, false, null);
+        } catch (NoSuchUserException nsue) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the Shibboleth attributes extracted by the filter, from the
+     * session or, if the identity token is enabled, from the request or the
+     * identity token cookie
+     */
+    private ShibbolethAttributes getAttributes(
+            HttpServletRequest request, HttpSession session, ShibbolethConfigurationSnapshot configuration) {
+
+        ShibbolethIdentityTokenCodec identityTokenCodec = configuration.getIdentityTokenCodec();
+
+        if (identityTokenCodec == null) {
+            return ShibbolethAttributes.fromSession(session);
+        }
+
+        Object attributes = request.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_ATTRIBUTES);
+
+        if (attributes instanceof ShibbolethAttributes) {
+            return (ShibbolethAttributes) attributes;
+        }
+
+        return identityTokenCodec.decode(
+                ShibbolethIdentityTokenCodec.getToken(request), System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the user of the identity resolved earlier in this session, as
+     * long as the identity still matches the company and the Shibboleth
+     * attributes, has not been revoked and the user is still active
+     */
+    private User getResolvedUser(long companyId, HttpSession session, ShibbolethAttributes attributes) {
+        if (session == null) {
+            return null;
+        }
+
+        ShibbolethResolvedIdentity resolvedIdentity = ShibbolethResolvedIdentity.fromSession(session);
+
+        if (resolvedIdentity == null) {
+            return null;
+        }
+
+        if ((resolvedIdentity.getCompanyId() == companyId) &&
+                resolvedIdentity.getFingerprint().equals(attributes.getFingerprint()) &&
+                _shibbolethIdentityRevocations.isValid(resolvedIdentity)) {
+
+            // the user is entity cached, reading it catches the changes no
+            // revocation reached this node for, e.g. after a failover
+
+            User user = userLocalService.fetchUser(resolvedIdentity.getUserId());
+
+            if ((user != null) && user.isActive() && !user.isLockout()) {
+                return user;
+            }
+        }
+
+        ShibbolethResolvedIdentity.removeFromSession(session);
+
+        return null;
+    }
+
+    private static String[] getCredentials(User user) {
+        return new String[] {String.valueOf(user.getUserId()), user.getPassword(), Boolean.TRUE.toString()};
+    }
+
+    /**
+     * Logs the user in. If concurrent reads are enabled, the roles of the
+     * attributes are looked up on the read stage executor while the user is
+     * looked up; the lookups are cancelled if the login does not synchronize
+     * the roles in the end.
+     *
+     * @param recording the flight recorder event of the login or
+     *        <code>null</code> if it is not recorded
+     */
+    private User loginFromAttributes(
+            long companyId, ShibbolethAttributes attributes, ShibbolethConfiguration configuration,
+            boolean loginRequest, ShibbolethLoginRecording recording)
+            throws Exception {
+
+        ShibbolethRoleResolution roleResolution = null;
+
+        if (configuration.concurrentReadsEnabled() && configuration.autoAssignUserRole() &&
+                Validator.isNotNull(attributes.getLogin())) {
+
+            roleResolution = startRoleResolution(
+                    companyId, attributes, configuration, _shibbolethReadStageExecutor,
+                    _shibbolethReadStageExecutor.getParallelism());
+        }
+
+        try {
+            return loginFromAttributes(
+                    companyId, attributes, configuration, loginRequest, roleResolution, recording);
+        } finally {
+            if (roleResolution != null) {
+                roleResolution.cancel();
+            }
+        }
+    }
+
+    private User loginFromAttributes(
+            long companyId, ShibbolethAttributes attributes, ShibbolethConfiguration configuration,
+            boolean loginRequest, ShibbolethRoleResolution roleResolution, ShibbolethLoginRecording recording)
+            throws Exception {
         String login;
         User user = null;
+        boolean existingUser = false;
+        boolean provisioned = false;
+        boolean synchronize = true;
+        String fingerprint = getSynchronizationFingerprint(attributes, configuration);
 
-        login = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_LOGIN);
+        login = attributes.getLogin();
         if (Validator.isNull(login)) {
             return null;
         }
-        ShibbolethConfiguration configuration = getShibbolethConfiguration(companyId);
         String authType = PrefsPropsUtil.getString(
                 companyId, PropsKeys.COMPANY_SECURITY_AUTH_TYPE,
                 PropsValues.COMPANY_SECURITY_AUTH_TYPE);
 
+        if (recording != null) {
+            recording.setAuthType(authType);
+        }
+
         try {
-            if (authType.equals(CompanyConstants.AUTH_TYPE_SN)) {
-                _log.info("Trying to find user with screen name: " + login);
-                user = userLocalService.getUserByScreenName(companyId, login);
-            } else if (authType.equals(CompanyConstants.AUTH_TYPE_EA)) {
+            user = getUser(companyId, authType, attributes, configuration);
 
-                String emailAddress = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_EMAIL);
-                if (Validator.isNull(emailAddress)) {
-                    return null;
+            if (user == null) {
+                if (recording != null) {
+                    recording.setPath(ShibbolethLoginPath.NOT_FOUND);
                 }
 
-                _log.info("Trying to find user with email: " + emailAddress);
-                user = userLocalService.getUserByEmailAddress(companyId, emailAddress);
-            } else {
-                throw new NoSuchUserException();
+                return null;
             }
 
-            _log.info("User found: " + user.getScreenName() + " (" + user.getEmailAddress() + ")");
+            if (_log.isDebugEnabled()) {
+                _log.debug("User found: " + user.getScreenName() + " (" + user.getEmailAddress() + ")");
+            }
 
-            if (configuration.autoUpdateUsers()) {
-                _log.info("Auto-updating user...");
-                updateUserFromSession(user, session);
+            existingUser = true;
+            synchronize = !fingerprint.equals(getStoredFingerprint(user, configuration));
+
+            if (recording != null) {
+                recording.setPath(ShibbolethLoginPath.FOUND);
+            }
+
+            if (!synchronize) {
+                _log.debug("Shibboleth attributes of user " + user.getScreenName() + " are unchanged");
             }
 
         } catch (NoSuchUserException e) {
             _log.error("User " + login + " not found");
 
             if (configuration.autoCreateUsers()) {
-                _log.info("Importing user from session...");
-                user = createUserFromSession(companyId, session);
-                _log.info("Created user with ID: " + user.getUserId());
+                _log.debug("Importing user from session...");
+
+                if (loginRequest) {
+
+                    // the user is mapped and synchronized by the request that
+                    // creates it, the requests that waited for it or found it
+                    // created by another node only log it in
+
+                    user = _shibbolethProvisioningCoordinator.provision(
+                            companyId, login, configuration.clusterProvisioningLockEnabled(),
+                            () -> fetchUser(companyId, authType, attributes),
+                            () -> provisionUser(
+                                    companyId, attributes, configuration, fingerprint, loginRequest,
+                                    roleResolution));
+                } else {
+
+                    // an import runs in the transaction of its chunk, which
+                    // commits only after the coordinator would have let other
+                    // requests and nodes look the user up; a concurrent login
+                    // of the same user fails the chunk instead, which is then
+                    // imported user by user
+
+                    user = provisionUser(
+                            companyId, attributes, configuration, fingerprint, loginRequest, roleResolution);
+                }
+
+                provisioned = true;
+
+                if ((recording != null) && (user != null)) {
+                    recording.setPath(ShibbolethLoginPath.CREATED);
+                }
             } else if (configuration.importFromLDAP()) {
-                _log.info("Importing user from LDAP...");
+                _log.debug("Importing user from LDAP...");
+
+                ShibbolethStageTimer timer = _shibbolethMetrics.start(companyId, ShibbolethStage.LDAP_IMPORT);
+
                 try {
-                    if (authType.equals(CompanyConstants.AUTH_TYPE_SN)) {
-                        user = userImporter.importUser(
-                                companyId, StringPool.BLANK, login);
-                    }
-                    else {
-                        user = userImporter.importUser(
-                                companyId, login, StringPool.BLANK);
-                    }
+
+                    // failed imports are not repeated on every request of
+                    // the session, see ShibbolethLdapImportCache
+
+                    user = _shibbolethLdapImportCache.importUser(companyId, login, () -> {
+                        if (authType.equals(CompanyConstants.AUTH_TYPE_SN)) {
+                            return throttle(loginRequest, () -> userImporter.importUser(
+                                    companyId, StringPool.BLANK, login));
+                        }
+
+                        return throttle(loginRequest, () -> userImporter.importUser(
+                                companyId, login, StringPool.BLANK));
+                    });
                 }
                 catch (SystemException se) {
                     _log.error("Exception while importing user from ldap: " + se.getMessage());
                 }
+                finally {
+                    _shibbolethMetrics.record(timer, user != null);
+                }
+
+                if ((recording != null) && (user != null)) {
+                    recording.setPath(ShibbolethLoginPath.LDAP_IMPORT);
+                }
+            }
+
+            if ((recording != null) && (user == null)) {
+                recording.setPath(ShibbolethLoginPath.NOT_FOUND);
+            }
+        }
+
+        if (recording != null) {
+            recording.setAttributesChanged(synchronize);
+        }
+
+        if ((user == null) || provisioned) {
+            return user;
+        }
+
+        if (!existingUser) {
+            addIdentityMapping(companyId, attributes, configuration, user);
+        }
+
+        if (!synchronize) {
+            return user;
+        }
+
+        // users imported from LDAP are synchronized right away, like created
+        // users, so that their roles are in place for the first page
+
+        if (existingUser && loginRequest && configuration.asyncUserUpdatesEnabled()) {
+            final long userId = user.getUserId();
+
+            Callable<Void> update = () -> {
+                Long previousCompanyId = CompanyThreadLocal.getCompanyId();
+
+                CompanyThreadLocal.setCompanyId(companyId);
+
+                try {
+                    synchronizeUser(
+                            companyId, userLocalService.getUser(userId), attributes, configuration, fingerprint,
+                            true, false, false, null);
+                } finally {
+                    CompanyThreadLocal.setCompanyId(previousCompanyId);
+                }
+
+                return null;
+            };
+
+            if (_shibbolethUserUpdateQueue.offer(userId, update)) {
+                _log.debug("Queued the update of user " + user.getScreenName());
+
+                if (recording != null) {
+                    recording.setUpdateQueued(true);
+                }
+
+                return user;
             }
+
+            _log.warn("User update queue is full, updating user " + user.getScreenName() + " synchronously");
         }
 
+        // an import fails instead of committing a partially synchronized user
+
+        synchronizeUser(
+                companyId, user, attributes, configuration, fingerprint, existingUser, loginRequest, !loginRequest,
+                roleResolution);
+
+        return user;
+    }
+
+    /**
+     * Creates the user of the attributes, maps it to the persistent ID of the
+     * login and synchronizes it. New users are synchronized right away so that
+     * their roles are in place for the first page. Runs as the provisioner of
+     * {@link ShibbolethProvisioningCoordinator}, so only the request that
+     * creates the user writes its roles, memberships and custom fields; the
+     * concurrent requests of the same user wait for it to finish.
+     *
+     * @return the user or <code>null</code> if the attributes lack a value the
+     *         user cannot be created without
+     */
+    private User provisionUser(
+            long companyId, ShibbolethAttributes attributes, ShibbolethConfiguration configuration,
+            String fingerprint, boolean loginRequest, ShibbolethRoleResolution roleResolution)
+            throws Exception {
+
+        ShibbolethStageTimer timer = _shibbolethMetrics.start(companyId, ShibbolethStage.CREATE);
+        User user = null;
+
         try {
-            updateUserRolesFromSession(companyId, user, session,configuration);
+            user = throttle(loginRequest, () -> createUserFromAttributes(companyId, attributes));
+        } finally {
+            _shibbolethMetrics.record(timer, user != null);
+        }
+
+        if (user == null) {
+            return null;
+        }
+
+        _log.info("Created user with ID: " + user.getUserId());
+
+        addIdentityMapping(companyId, attributes, configuration, user);
+
+        // an import fails instead of committing a partially synchronized user
+
+        synchronizeUser(
+                companyId, user, attributes, configuration, fingerprint, false, loginRequest, !loginRequest,
+                roleResolution);
+
+        return user;
+    }
+
+    /**
+     * Applies the Shibboleth attributes to the user, its roles and its site,
+     * user group and organization memberships and records the fingerprint
+     * they were applied with. If the creation of missing roles
+     * is turned away by the provisioning bulkhead, the fingerprint is not
+     * recorded, so the roles are synchronized again on the next login.
+     *
+     * @param propagateErrors whether to throw the exceptions of the mapped
+     *        attribute, role and membership updates instead of logging them,
+     *        so a surrounding transaction they marked rollback-only fails as a
+     *        whole
+     * @param roleResolution the role lookups started by the login or
+     *        <code>null</code> to look the roles up now
+     */
+    private void synchronizeUser(
+            long companyId, User user, ShibbolethAttributes attributes, ShibbolethConfiguration configuration,
+            String fingerprint, boolean updateUser, boolean throttled, boolean propagateErrors,
+            ShibbolethRoleResolution roleResolution)
+            throws Exception {
+
+        ShibbolethStageTimer timer = _shibbolethMetrics.start(companyId, ShibbolethStage.UPDATE);
+        boolean success = false;
+
+        try {
+            if (updateUser && configuration.autoUpdateUsers()) {
+                _log.debug("Auto-updating user...");
+                updateUserFromAttributes(user, attributes);
+            }
+
+            try {
+                _shibbolethMappedAttributesUpdater.update(user, attributes);
+            } catch (Exception e) {
+                if (propagateErrors) {
+                    throw e;
+                }
+
+                _log.error("Exception while updating mapped attributes of user " + user.getScreenName() + ": " +
+                        e.getMessage());
+            }
+
+            success = true;
+        } finally {
+            _shibbolethMetrics.record(timer, success);
+        }
+
+        timer = _shibbolethMetrics.start(companyId, ShibbolethStage.ROLE_SYNC);
+        success = false;
+
+        boolean complete = false;
+
+        try {
+            complete = updateUserRolesFromAttributes(
+                    companyId, user, attributes, configuration, throttled, roleResolution);
+
+            success = true;
         } catch (Exception e) {
+            if (propagateErrors) {
+                throw e;
+            }
+
             _log.error("Exception while updating user roles from session: " + e.getMessage());
+        } finally {
+            _shibbolethMetrics.record(timer, success);
         }
 
-        return user;
+        timer = _shibbolethMetrics.start(companyId, ShibbolethStage.MEMBERSHIP_SYNC);
+        success = false;
+
+        try {
+            complete &= _shibbolethMembershipSynchronizer.synchronize(user, attributes);
+
+            // a role or membership that does not exist yet is retried on the
+            // next login instead of waiting for the attributes to change
+
+            if (complete) {
+                _shibbolethAttributesFingerprintStore.setFingerprint(user, fingerprint);
+            } else {
+                _log.debug("Not all roles and memberships of user " + user.getScreenName() +
+                        " exist, synchronizing again on the next login");
+            }
+
+            success = true;
+        } catch (Exception e) {
+            if (propagateErrors) {
+                throw e;
+            }
+
+            _log.error("Exception while updating user memberships from session: " + e.getMessage());
+        } finally {
+            _shibbolethMetrics.record(timer, success);
+        }
+    }
+
+    /**
+     * Looks up the user by the identity mapping of the login or, if the login
+     * is not mapped yet, by screen name or email address, depending on the
+     * authentication type of the company. A user found by screen name or email
+     * address is mapped to the login.
+     *
+     * @return the user or <code>null</code> if the attributes do not include
+     *         the email address to look the user up by
+     */
+    private User getUser(
+            long companyId, String authType, ShibbolethAttributes attributes,
+            ShibbolethConfiguration configuration)
+            throws PortalException {
+
+        ShibbolethStageTimer timer = _shibbolethMetrics.start(companyId, ShibbolethStage.LOOKUP);
+        boolean success = false;
+
+        try {
+            User user;
+
+            if (isIdentityMappingEnabled(attributes, configuration)) {
+                user = fetchMappedUser(companyId, attributes);
+
+                if (user != null) {
+                    success = true;
+
+                    return user;
+                }
+            }
+
+            if (authType.equals(CompanyConstants.AUTH_TYPE_SN)) {
+                if (_log.isDebugEnabled()) {
+                    _log.debug("Trying to find user with screen name: " + attributes.getLogin());
+                }
+
+                user = userLocalService.getUserByScreenName(companyId, attributes.getLogin());
+            } else if (authType.equals(CompanyConstants.AUTH_TYPE_EA)) {
+                String emailAddress = attributes.getEmailAddress();
+                if (Validator.isNull(emailAddress)) {
+                    return null;
+                }
+
+                if (_log.isDebugEnabled()) {
+                    _log.debug("Trying to find user with email: " + emailAddress);
+                }
+
+                user = userLocalService.getUserByEmailAddress(companyId, emailAddress);
+            } else {
+                throw new NoSuchUserException();
+            }
+
+            addIdentityMapping(companyId, attributes, configuration, user);
+
+            success = true;
+
+            return user;
+        } catch (NoSuchUserException nsue) {
+
+            // not finding the user is a regular outcome of the lookup
+
+            success = true;
+
+            throw nsue;
+        } finally {
+            _shibbolethMetrics.record(timer, success);
+        }
+    }
+
+    /**
+     * Returns the user the identity provider and persistent ID of the login
+     * are mapped to. A mapping to a user that no longer exists is removed.
+     *
+     * @return the user or <code>null</code> if the login is not mapped or the
+     *         mapping cannot be read
+     */
+    private User fetchMappedUser(long companyId, ShibbolethAttributes attributes) {
+        String identityProvider = attributes.getIdentityProvider();
+        String persistentId = attributes.getPersistentId();
+
+        try {
+            long userId = _shibbolethIdentityMappingStore.getUserId(companyId, identityProvider, persistentId);
+
+            if (userId == 0) {
+                return null;
+            }
+
+            User user = userLocalService.fetchUser(userId);
+
+            if (user == null) {
+                _shibbolethIdentityMappingStore.removeUserId(companyId, identityProvider, persistentId);
+
+                return null;
+            }
+
+            if (_log.isDebugEnabled()) {
+                _log.debug("Persistent ID " + persistentId + " of " + identityProvider + " is mapped to user " +
+                        userId);
+            }
+
+            return user;
+        } catch (Exception e) {
+            _log.error("Unable to read the identity mapping of persistent ID " + persistentId + ": " +
+                    e.getMessage());
+
+            return null;
+        }
+    }
+
+    private void addIdentityMapping(
+            long companyId, ShibbolethAttributes attributes, ShibbolethConfiguration configuration, User user) {
+
+        if (!isIdentityMappingEnabled(attributes, configuration)) {
+            return;
+        }
+
+        try {
+            _shibbolethIdentityMappingStore.addUserId(
+                    companyId, attributes.getIdentityProvider(), attributes.getPersistentId(), user.getUserId());
+        } catch (Exception e) {
+            _log.error("Unable to map persistent ID " + attributes.getPersistentId() + " to user " +
+                    user.getUserId() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isIdentityMappingEnabled(ShibbolethAttributes attributes, ShibbolethConfiguration configuration) {
+        return configuration.identityMappingEnabled() && Validator.isNotNull(attributes.getIdentityProvider()) &&
+                Validator.isNotNull(attributes.getPersistentId());
+    }
+
+    private User fetchUser(long companyId, String authType, ShibbolethAttributes attributes) {
+        if (authType.equals(CompanyConstants.AUTH_TYPE_SN)) {
+            return userLocalService.fetchUserByScreenName(companyId, attributes.getLogin());
+        } else if (authType.equals(CompanyConstants.AUTH_TYPE_EA)) {
+            return userLocalService.fetchUserByEmailAddress(companyId, attributes.getEmailAddress());
+        }
+
+        return null;
+    }
+
+    /**
+     * The fingerprint of what the last synchronization of a user was based
+     * on. Besides the attributes it covers the settings that decide what gets
+     * written, so changing them synchronizes every user again on the next
+     * login.
+     */
+    private String getSynchronizationFingerprint(
+            ShibbolethAttributes attributes, ShibbolethConfiguration configuration) {
+
+        StringBundler sb = new StringBundler(6);
+
+        sb.append(attributes.getFingerprint());
+        sb.append(StringPool.SLASH);
+        sb.append(configuration.autoUpdateUsers());
+        sb.append(StringPool.SLASH);
+
+        if (configuration.autoAssignUserRole()) {
+            sb.append(configuration.autoCreateRole());
+            sb.append(configuration.autoAssignUserRoleSubType());
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the fingerprint the user was last synchronized with, unless it
+     * is older than the maximum synchronization age of the configuration
+     */
+    private String getStoredFingerprint(User user, ShibbolethConfiguration configuration) {
+        try {
+            return _shibbolethAttributesFingerprintStore.getFingerprint(
+                    user, TimeUnit.SECONDS.toMillis(configuration.synchronizationMaxAge()));
+        } catch (Exception e) {
+            _log.error("Unable to read the Shibboleth attributes fingerprint of user " + user.getUserId() + ": " +
+                    e.getMessage());
+
+            return null;
+        }
     }
 
-    private ShibbolethConfiguration getShibbolethConfiguration(long companyId) throws ConfigurationException {
-        return _configurationProvider.getConfiguration(
-                ShibbolethConfiguration.class,
-                new CompanyServiceSettingsLocator(
-                        companyId, ShibbolethConstants.SERVICE_NAME));
+    private ShibbolethConfigurationSnapshot getShibbolethConfiguration(long companyId)
+            throws ConfigurationException {
+
+        return _shibbolethConfigurationCache.getConfiguration(companyId);
     }
 
     /**
-     * Create user from session
+     * Create user from the Shibboleth attributes
      */
-    protected User createUserFromSession(long companyId, HttpSession session) throws Exception {
+    protected User createUserFromAttributes(long companyId, ShibbolethAttributes attributes) throws Exception {
         User user = null;
 
-        String screenName = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_LOGIN);
+        String screenName = attributes.getLogin();
         if (Validator.isNull(screenName)) {
             _log.error("Cannot create user - missing screen name");
             return user;
         }
 
-        String emailAddress = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_EMAIL);
+        String emailAddress = attributes.getEmailAddress();
         if (Validator.isNull(emailAddress)) {
             _log.error("Cannot create user - missing email");
             return user;
         }
 
-        String firstname = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_FIRSTNAME);
+        String firstname = attributes.getFirstName();
         if (Validator.isNull(firstname)) {
             _log.error("Cannot create user - missing firstname");
             return user;
         }
 
-        String surname = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_SURNAME);
+        String surname = attributes.getLastName();
         if (Validator.isNull(surname)) {
             _log.error("Cannot create user - missing surname");
             return user;
@@ -251,10 +867,10 @@ public class ShibbolethAutoLogin implements AutoLogin {
                 organizationIds, roleIds, userGroupIds, sendEmail, serviceContext);
     }
 
-    protected void updateUserFromSession(User user, HttpSession session) throws Exception {
+    protected void updateUserFromAttributes(User user, ShibbolethAttributes attributes) throws Exception {
         boolean modified = false;
 
-        String emailAddress = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_EMAIL);
+        String emailAddress = attributes.getEmailAddress();
         if (Validator.isNotNull(emailAddress) && !user.getEmailAddress().equals(emailAddress)) {
             _log.info("User [" + user.getScreenName() + "]: update email address [" + user.getEmailAddress()
                     + "] --> [" + emailAddress + "]");
@@ -262,7 +878,7 @@ public class ShibbolethAutoLogin implements AutoLogin {
             modified = true;
         }
 
-        String firstname = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_FIRSTNAME);
+        String firstname = attributes.getFirstName();
         if (Validator.isNotNull(firstname) && !user.getFirstName().equals(firstname)) {
             _log.info("User [" + user.getScreenName() + "]: update first name [" + user.getFirstName() + "] --> ["
                     + firstname + "]");
@@ -270,7 +886,7 @@ public class ShibbolethAutoLogin implements AutoLogin {
             modified = true;
         }
 
-        String surname = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_SURNAME);
+        String surname = attributes.getLastName();
         if (Validator.isNotNull(surname) && !user.getLastName().equals(surname)) {
             _log.info("User [" + user.getScreenName() + "]: update last name [" + user.getLastName() + "] --> ["
                     + surname + "]");
@@ -283,88 +899,120 @@ public class ShibbolethAutoLogin implements AutoLogin {
         }
     }
 
-    private void updateUserRolesFromSession(long companyId, User user, HttpSession session, ShibbolethConfiguration configuration) throws Exception {
+    /**
+     * @return whether every role named by the attributes exists
+     */
+    private boolean updateUserRolesFromAttributes(
+            long companyId, User user, ShibbolethAttributes attributes, ShibbolethConfiguration configuration,
+            boolean throttled, ShibbolethRoleResolution roleResolution)
+            throws Exception {
 
         if (!configuration.autoAssignUserRole()) {
-            return;
+            return true;
         }
 
-        List<Role> currentFelRoles = getRolesFromSession(companyId, session,configuration);
-        long[] currentFelRoleIds = roleListToLongArray(currentFelRoles);
+        if (roleResolution == null) {
+            roleResolution = startRoleResolution(companyId, attributes, configuration, Runnable::run, 1);
+        }
 
-        List<Role> felRoles = getAllRolesWithConfiguredSubtype(configuration);
-        long[] felRoleIds = roleListToLongArray(felRoles);
+        Set<String> missingRoleNames = new HashSet<>();
 
-        roleLocalService.unsetUserRoles(user.getUserId(), felRoleIds);
-        roleLocalService.addUserRoles(user.getUserId(), currentFelRoleIds);
+        long[] currentFelRoleIds = getRoleIdsFromAttributes(
+                companyId, roleResolution, configuration, throttled, missingRoleNames);
 
-        _log.info("User '" + user.getScreenName() + "' has been assigned " + currentFelRoleIds.length + " role(s): "
-                + Arrays.toString(currentFelRoleIds));
-    }
+        long[] felRoleIds = roleResolution.getSubtypeRoleIds();
 
-    private long[] roleListToLongArray(List<Role> roles) {
-        long[] roleIds = new long[roles.size()];
+        boolean modified = _shibbolethRoleReconciler.reconcile(user.getUserId(), felRoleIds, currentFelRoleIds);
 
-        for (int i = 0; i < roles.size(); i++) {
-            roleIds[i] = roles.get(i).getRoleId();
+        if (modified) {
+            _log.info("User '" + user.getScreenName() + "' has been assigned " + currentFelRoleIds.length
+                    + " role(s): " + Arrays.toString(currentFelRoleIds));
         }
 
-        return roleIds;
+        return missingRoleNames.isEmpty();
     }
 
-    private List<Role> getAllRolesWithConfiguredSubtype(ShibbolethConfiguration configuration) throws Exception {
-        String roleSubtype = configuration.autoAssignUserRoleSubType();
-        return roleLocalService.getSubtypeRoles(roleSubtype);
+    /**
+     * Starts looking up the roles named by the attributes and the roles of the
+     * configured subtype on the executor
+     */
+    private ShibbolethRoleResolution startRoleResolution(
+            long companyId, ShibbolethAttributes attributes, ShibbolethConfiguration configuration,
+            Executor executor, int parallelism) {
+
+        return ShibbolethRoleResolution.start(
+                companyId, attributes.getAffiliations(), configuration.autoAssignUserRoleSubType(),
+                _shibbolethRoleIndex, _shibbolethRoleNameCache, executor, parallelism);
     }
 
-    private List<Role> getRolesFromSession(long companyId, HttpSession session,ShibbolethConfiguration configuration) throws SystemException {
-        List<Role> currentFelRoles = new ArrayList<Role>();
-        String affiliation = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_AFFILIATION);
+    /**
+     * @param missingRoleNames receives the names of the roles that neither
+     *        exist nor could be created
+     */
+    private long[] getRoleIdsFromAttributes(
+            long companyId, ShibbolethRoleResolution roleResolution, ShibbolethConfiguration configuration,
+            boolean throttled, Set<String> missingRoleNames)
+            throws Exception {
 
-        if (Validator.isNull(affiliation)) {
-            return currentFelRoles;
+        long[] currentFelRoleIds = roleResolution.getRoleIds();
+        Set<String> unknownRoleNames = roleResolution.getUnknownRoleNames();
+
+        if (unknownRoleNames.isEmpty()) {
+            return currentFelRoleIds;
         }
 
-        String[] affiliationList = affiliation.split(";");
-        for (String roleName : affiliationList) {
-            Role role;
+        if (_log.isDebugEnabled()) {
+            _log.debug("No roles with names " + unknownRoleNames);
+        }
+
+        missingRoleNames.addAll(unknownRoleNames);
+
+        if (configuration.autoCreateRole()) {
+            int count = currentFelRoleIds.length;
+
+            currentFelRoleIds = Arrays.copyOf(currentFelRoleIds, count + unknownRoleNames.size());
+
             try {
-                role = roleLocalService.getRole(companyId, roleName);
-            } catch (PortalException e) {
-                _log.info("Exception while getting role with name '" + roleName + "': " + e.getMessage());
-                try {
-                    if (configuration.autoCreateRole()) {
-                        List<Role> roleList = roleLocalService.getRoles(companyId);
-                        long[] roleIds = roleListToLongArray(roleList);
-                        Arrays.sort(roleIds);
-                        long newId = roleIds[roleIds.length - 1];
-                        newId = newId + 1;
-                        role = roleLocalService.createRole(newId);
-
-                        long classNameId = 0;
-                        try {
-                            classNameId = roleLocalService.getRole(roleIds[roleIds.length - 1]).getClassNameId();
-                        } catch (PortalException ex) {
-                            _log.info("classname error");
-                        }
-                        role.setClassNameId(classNameId);
-                        role.setCompanyId(companyId);
-                        role.setClassPK(newId);
-                        role.setDescription(null);
-                        role.setTitleMap(null);
-                        role.setName(roleName);
-                        role.setType(1);
-                        roleLocalService.addRole(role);
-                    } else continue;
-                } catch (Exception exc) {
-                    continue;
+                Map<String, Long> createdRoleIds = throttle(
+                        throttled, () -> _shibbolethRoleCreator.addRoles(companyId, unknownRoleNames));
+
+                for (long roleId : createdRoleIds.values()) {
+                    currentFelRoleIds[count++] = roleId;
                 }
+
+                missingRoleNames.removeAll(createdRoleIds.keySet());
+            } catch (ShibbolethProvisioningRejectedException e) {
+                throw e;
+            } catch (Exception e) {
+                _log.error("Unable to create roles " + unknownRoleNames + ": " + e.getMessage());
             }
 
-            currentFelRoles.add(role);
+            currentFelRoleIds = Arrays.copyOf(currentFelRoleIds, count);
+        }
+
+        return currentFelRoleIds;
+    }
+
+    /**
+     * Runs the provisioning operation through the provisioning bulkhead, if it
+     * is part of a login request
+     */
+    private <T> T throttle(boolean throttled, Callable<T> callable) throws Exception {
+        if (!throttled) {
+            return callable.call();
         }
 
-        return currentFelRoles;
+        return _shibbolethProvisioningBulkhead.execute(callable);
+    }
+
+    private String getProvisioningRetryUrl(long companyId) {
+        try {
+            return getShibbolethConfiguration(companyId).provisioningRetryUrl();
+        } catch (ConfigurationException ce) {
+            _log.error("Unable to read the provisioning retry URL of company " + companyId + ": " + ce.getMessage());
+
+            return null;
+        }
     }
 
     private void logError(Exception e) {
@@ -392,13 +1040,113 @@ public class ShibbolethAutoLogin implements AutoLogin {
 
 
     @Reference(unbind = "-")
-    protected void setConfigurationProvider(
-            ConfigurationProvider configurationProvider) {
+    protected void setShibbolethConfigurationCache(
+            ShibbolethConfigurationCache shibbolethConfigurationCache) {
 
-        _configurationProvider = configurationProvider;
+        _shibbolethConfigurationCache = shibbolethConfigurationCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethAttributesFingerprintStore(
+            ShibbolethAttributesFingerprintStore shibbolethAttributesFingerprintStore) {
+
+        _shibbolethAttributesFingerprintStore = shibbolethAttributesFingerprintStore;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethIdentityRevocations(
+            ShibbolethIdentityRevocations shibbolethIdentityRevocations) {
+
+        _shibbolethIdentityRevocations = shibbolethIdentityRevocations;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethIdentityMappingStore(ShibbolethIdentityMappingStore shibbolethIdentityMappingStore) {
+        _shibbolethIdentityMappingStore = shibbolethIdentityMappingStore;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethLdapImportCache(ShibbolethLdapImportCache shibbolethLdapImportCache) {
+        _shibbolethLdapImportCache = shibbolethLdapImportCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethMappedAttributesUpdater(
+            ShibbolethMappedAttributesUpdater shibbolethMappedAttributesUpdater) {
+
+        _shibbolethMappedAttributesUpdater = shibbolethMappedAttributesUpdater;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethMembershipSynchronizer(
+            ShibbolethMembershipSynchronizer shibbolethMembershipSynchronizer) {
+
+        _shibbolethMembershipSynchronizer = shibbolethMembershipSynchronizer;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethMetrics(ShibbolethMetrics shibbolethMetrics) {
+        _shibbolethMetrics = shibbolethMetrics;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethProvisioningBulkhead(ShibbolethProvisioningBulkhead shibbolethProvisioningBulkhead) {
+        _shibbolethProvisioningBulkhead = shibbolethProvisioningBulkhead;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethProvisioningCoordinator(
+            ShibbolethProvisioningCoordinator shibbolethProvisioningCoordinator) {
+
+        _shibbolethProvisioningCoordinator = shibbolethProvisioningCoordinator;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethReadStageExecutor(ShibbolethReadStageExecutor shibbolethReadStageExecutor) {
+        _shibbolethReadStageExecutor = shibbolethReadStageExecutor;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleCreator(ShibbolethRoleCreator shibbolethRoleCreator) {
+        _shibbolethRoleCreator = shibbolethRoleCreator;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleIndex(ShibbolethRoleIndex shibbolethRoleIndex) {
+        _shibbolethRoleIndex = shibbolethRoleIndex;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleNameCache(ShibbolethRoleNameCache shibbolethRoleNameCache) {
+        _shibbolethRoleNameCache = shibbolethRoleNameCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleReconciler(ShibbolethRoleReconciler shibbolethRoleReconciler) {
+        _shibbolethRoleReconciler = shibbolethRoleReconciler;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethUserUpdateQueue(ShibbolethUserUpdateQueue shibbolethUserUpdateQueue) {
+        _shibbolethUserUpdateQueue = shibbolethUserUpdateQueue;
     }
 
-    private ConfigurationProvider _configurationProvider;
+    private ShibbolethAttributesFingerprintStore _shibbolethAttributesFingerprintStore;
+    private ShibbolethConfigurationCache _shibbolethConfigurationCache;
+    private ShibbolethIdentityMappingStore _shibbolethIdentityMappingStore;
+    private ShibbolethIdentityRevocations _shibbolethIdentityRevocations;
+    private ShibbolethLdapImportCache _shibbolethLdapImportCache;
+    private ShibbolethMappedAttributesUpdater _shibbolethMappedAttributesUpdater;
+    private ShibbolethMembershipSynchronizer _shibbolethMembershipSynchronizer;
+    private ShibbolethMetrics _shibbolethMetrics;
+    private ShibbolethProvisioningBulkhead _shibbolethProvisioningBulkhead;
+    private ShibbolethProvisioningCoordinator _shibbolethProvisioningCoordinator;
+    private ShibbolethReadStageExecutor _shibbolethReadStageExecutor;
+    private ShibbolethRoleCreator _shibbolethRoleCreator;
+    private ShibbolethRoleIndex _shibbolethRoleIndex;
+    private ShibbolethRoleNameCache _shibbolethRoleNameCache;
+    private ShibbolethRoleReconciler _shibbolethRoleReconciler;
+    private ShibbolethUserUpdateQueue _shibbolethUserUpdateQueue;
     private UserImporter userImporter;
 
 }
\ No newline at end of file
@@ -56,6 +56,18 @@ public interface ShibbolethConfiguration{
     @Meta.AD(deflt = "", description = "shibboleth-user-header-affiliation", required = false)
     public String userHeaderAffiliation();
 
+    @Meta.AD(deflt = "Shib-Identity-Provider", description = "shibboleth-identity-provider-header", required = false)
+    public String identityProviderHeader();
+
+    @Meta.AD(deflt = "", description = "shibboleth-persistent-id-header", required = false)
+    public String persistentIdHeader();
+
+    @Meta.AD(deflt = "", description = "shibboleth-attribute-mappings", required = false)
+    public String[] attributeMappings();
+
+    @Meta.AD(deflt = "", description = "shibboleth-entitlement-rules", required = false)
+    public String[] entitlementRules();
+
     @Meta.AD(deflt = "false", description = "auto-create-users", required = false)
     public boolean autoCreateUsers();
     @Meta.AD(deflt = "false", description = "auto-update-users", required = false)
@@ -66,12 +78,32 @@ public interface ShibbolethConfiguration{
     public boolean autoAssignUserRole();
     @Meta.AD(deflt = "", description = "auto-assign-user-role-subtype", required = false)
     public String autoAssignUserRoleSubType();
+    @Meta.AD(deflt = "false", description = "cluster-provisioning-lock-enabled", required = false)
+    public boolean clusterProvisioningLockEnabled();
+    @Meta.AD(deflt = "false", description = "async-user-updates-enabled", required = false)
+    public boolean asyncUserUpdatesEnabled();
+    @Meta.AD(deflt = "false", description = "concurrent-reads-enabled", required = false)
+    public boolean concurrentReadsEnabled();
+    @Meta.AD(deflt = "86400", description = "synchronization-max-age", required = false)
+    public int synchronizationMaxAge();
+    @Meta.AD(deflt = "", description = "provisioning-retry-url", required = false)
+    public String provisioningRetryUrl();
+    @Meta.AD(deflt = "false", description = "identity-token-enabled", required = false)
+    public boolean identityTokenEnabled();
+    @Meta.AD(deflt = "", description = "identity-token-secret", required = false, type = Meta.Type.Password)
+    public String identityTokenSecret();
+    @Meta.AD(deflt = "3600", description = "identity-token-max-age", required = false)
+    public int identityTokenMaxAge();
+    @Meta.AD(deflt = "false", description = "identity-mapping-enabled", required = false)
+    public boolean identityMappingEnabled();
 
 
     @Meta.AD(deflt = "/Shibboleth.sso/Logout?return=/", required = false)
     public String logoutUrl();
     @Meta.AD(deflt = "/c/portal/login/shibboleth",  required = false)
     public String loginUrl();
+    @Meta.AD(deflt = "", description = "shibboleth-identity-providers", required = false)
+    public String[] identityProviders();
 
 
 
@@ -0,0 +1,25 @@
+package com.liferay.portal.security.shibboleth.configuration;
+
+import aQute.bnd.annotation.metatype.Meta;
+import com.liferay.portal.configuration.metatype.annotations.ExtendedObjectClassDefinition;
+
+/**
+ * Node-level settings of the invalidations of the plugin caches sent to the
+ * other cluster nodes.
+ */
+@ExtendedObjectClassDefinition(
+        category = "foundation", scope = ExtendedObjectClassDefinition.Scope.SYSTEM
+)
+@Meta.OCD(
+        id = "com.liferay.portal.security.shibboleth.configuration.ShibbolethInvalidationBusConfiguration",
+        localization = "content/Language", name = "shibboleth.invalidation.bus.configuration.name"
+)
+public interface ShibbolethInvalidationBusConfiguration {
+
+    @Meta.AD(deflt = "100", description = "invalidation-bus-flush-interval", required = false)
+    public int flushInterval();
+
+    @Meta.AD(deflt = "500", description = "invalidation-bus-max-batch-size", required = false)
+    public int maxBatchSize();
+
+}
@@ -0,0 +1,31 @@
+package com.liferay.portal.security.shibboleth.configuration;
+
+import aQute.bnd.annotation.metatype.Meta;
+import com.liferay.portal.configuration.metatype.annotations.ExtendedObjectClassDefinition;
+
+/**
+ * Node-level limits of the expensive provisioning operations of a login:
+ * creating users, importing users from LDAP and creating roles.
+ */
+@ExtendedObjectClassDefinition(
+        category = "foundation", scope = ExtendedObjectClassDefinition.Scope.SYSTEM
+)
+@Meta.OCD(
+        id = "com.liferay.portal.security.shibboleth.configuration.ShibbolethProvisioningBulkheadConfiguration",
+        localization = "content/Language", name = "shibboleth.provisioning.bulkhead.configuration.name"
+)
+public interface ShibbolethProvisioningBulkheadConfiguration {
+
+    @Meta.AD(deflt = "false", description = "provisioning-bulkhead-enabled", required = false)
+    public boolean enabled();
+
+    @Meta.AD(deflt = "10", description = "provisioning-bulkhead-max-concurrent", required = false)
+    public int maxConcurrent();
+
+    @Meta.AD(deflt = "100", description = "provisioning-bulkhead-max-waiting", required = false)
+    public int maxWaiting();
+
+    @Meta.AD(deflt = "5000", description = "provisioning-bulkhead-wait-timeout", required = false)
+    public int waitTimeout();
+
+}
@@ -0,0 +1,28 @@
+package com.liferay.portal.security.shibboleth.configuration;
+
+import aQute.bnd.annotation.metatype.Meta;
+import com.liferay.portal.configuration.metatype.annotations.ExtendedObjectClassDefinition;
+
+/**
+ * Node-level settings of the threads that run the read stages of logins
+ * concurrently.
+ */
+@ExtendedObjectClassDefinition(
+        category = "foundation", scope = ExtendedObjectClassDefinition.Scope.SYSTEM
+)
+@Meta.OCD(
+        id = "com.liferay.portal.security.shibboleth.configuration.ShibbolethReadStageExecutorConfiguration",
+        localization = "content/Language", name = "shibboleth.read.stage.executor.configuration.name"
+)
+public interface ShibbolethReadStageExecutorConfiguration {
+
+    @Meta.AD(deflt = "8", description = "read-stage-executor-thread-count", required = false)
+    public int threadCount();
+
+    @Meta.AD(deflt = "1000", description = "read-stage-executor-queue-capacity", required = false)
+    public int queueCapacity();
+
+    @Meta.AD(deflt = "true", description = "read-stage-executor-virtual-threads-enabled", required = false)
+    public boolean virtualThreadsEnabled();
+
+}
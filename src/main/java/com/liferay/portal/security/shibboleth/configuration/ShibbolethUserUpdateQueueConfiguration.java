@@ -0,0 +1,32 @@
+package com.liferay.portal.security.shibboleth.configuration;
+
+import aQute.bnd.annotation.metatype.Meta;
+import com.liferay.portal.configuration.metatype.annotations.ExtendedObjectClassDefinition;
+
+/**
+ * Node-level settings of the queue that applies user updates and role
+ * synchronizations in the background, for companies that enable
+ * {@link ShibbolethConfiguration#asyncUserUpdatesEnabled()}.
+ */
+@ExtendedObjectClassDefinition(
+        category = "foundation", scope = ExtendedObjectClassDefinition.Scope.SYSTEM
+)
+@Meta.OCD(
+        id = "com.liferay.portal.security.shibboleth.configuration.ShibbolethUserUpdateQueueConfiguration",
+        localization = "content/Language", name = "shibboleth.user.update.queue.configuration.name"
+)
+public interface ShibbolethUserUpdateQueueConfiguration {
+
+    @Meta.AD(deflt = "1000", description = "user-update-queue-capacity", required = false)
+    public int queueCapacity();
+
+    @Meta.AD(deflt = "2", description = "user-update-queue-worker-count", required = false)
+    public int workerCount();
+
+    @Meta.AD(deflt = "50", description = "user-update-queue-batch-size", required = false)
+    public int batchSize();
+
+    @Meta.AD(deflt = "30", description = "user-update-queue-shutdown-timeout", required = false)
+    public int shutdownTimeout();
+
+}
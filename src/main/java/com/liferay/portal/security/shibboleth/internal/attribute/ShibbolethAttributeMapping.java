@@ -0,0 +1,204 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import com.liferay.portal.kernel.util.Validator;
+
+/**
+ * One compiled attribute mapping: a source attribute, the transforms applied to
+ * its values and the target the values are written to.
+ * <p/>
+ * A mapping is declared as
+ * <code>[header:|attribute:]source [| transform ...] -&gt; target[:name]</code>,
+ * for example <code>Shib-EP-Entitlement | truncate -&gt; role</code> or
+ * <code>Shib-Identity-Provider -&gt; expando:identityProvider</code>. The
+ * transforms are <code>first</code>, <code>truncate</code>,
+ * <code>screenName</code>, <code>lowercase</code> and <code>trim</code>. They
+ * are always applied in that order, after a multi-valued source has been
+ * split.
+ */
+public final class ShibbolethAttributeMapping {
+
+    /**
+     * Parses a mapping declaration
+     *
+     * @throws IllegalArgumentException if the declaration is invalid
+     */
+    public static ShibbolethAttributeMapping parse(String declaration, boolean headersEnabled) {
+        int index = declaration.indexOf("->");
+
+        if (index < 0) {
+            throw new IllegalArgumentException("Missing '->' in attribute mapping " + declaration);
+        }
+
+        String[] sourceParts = declaration.substring(0, index).split("\\|");
+        String targetPart = declaration.substring(index + 2).trim();
+
+        if ((sourceParts.length == 0) || Validator.isNull(sourceParts[0].trim())) {
+            throw new IllegalArgumentException("Missing source in attribute mapping " + declaration);
+        }
+
+        String sourceName = sourceParts[0].trim();
+        boolean header = headersEnabled;
+
+        if (sourceName.startsWith(_HEADER_PREFIX)) {
+            sourceName = sourceName.substring(_HEADER_PREFIX.length()).trim();
+            header = true;
+        } else if (sourceName.startsWith(_ATTRIBUTE_PREFIX)) {
+            sourceName = sourceName.substring(_ATTRIBUTE_PREFIX.length()).trim();
+            header = false;
+        }
+
+        String targetName = null;
+
+        index = targetPart.indexOf(StringPool.COLON);
+
+        if (index >= 0) {
+            targetName = targetPart.substring(index + 1).trim();
+            targetPart = targetPart.substring(0, index).trim();
+        }
+
+        ShibbolethAttributeTarget target = ShibbolethAttributeTarget.parse(targetPart);
+
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown target '" + targetPart + "' in attribute mapping " +
+                    declaration);
+        }
+
+        if (target == ShibbolethAttributeTarget.EXPANDO) {
+            if (Validator.isNull(targetName)) {
+                throw new IllegalArgumentException("Missing expando name in attribute mapping " + declaration);
+            }
+        } else if (Validator.isNotNull(targetName)) {
+            throw new IllegalArgumentException("Only expando targets take a name in attribute mapping " +
+                    declaration);
+        }
+
+        boolean first = false;
+        boolean truncate = false;
+        boolean screenName = false;
+        boolean lowerCase = false;
+        boolean trim = false;
+
+        for (int i = 1; i < sourceParts.length; i++) {
+            String transform = sourceParts[i].trim();
+
+            if (transform.isEmpty()) {
+                continue;
+            } else if ("first".equals(transform)) {
+                first = true;
+            } else if ("truncate".equals(transform)) {
+                truncate = true;
+            } else if ("screenName".equals(transform)) {
+                screenName = true;
+            } else if ("lowercase".equals(transform)) {
+                lowerCase = true;
+            } else if ("trim".equals(transform)) {
+                trim = true;
+            } else {
+                throw new IllegalArgumentException("Unknown transform '" + transform + "' in attribute mapping " +
+                        declaration);
+            }
+        }
+
+        return new ShibbolethAttributeMapping(
+                sourceName, header, target, targetName, first, truncate, screenName, lowerCase, trim);
+    }
+
+    public ShibbolethAttributeMapping(
+            String sourceName, boolean header, ShibbolethAttributeTarget target, String targetName) {
+
+        this(sourceName, header, target, targetName, false, false, false, false, false);
+    }
+
+    public ShibbolethAttributeMapping(
+            String sourceName, boolean header, ShibbolethAttributeTarget target, String targetName, boolean first,
+            boolean truncate, boolean screenName, boolean lowerCase, boolean trim) {
+
+        _sourceName = sourceName;
+        _header = header;
+        _target = target;
+        _targetName = targetName;
+        _first = first;
+        _truncate = truncate;
+        _screenName = screenName;
+        _lowerCase = lowerCase;
+        _trim = trim;
+    }
+
+    /**
+     * Applies the transforms to the raw value of the source
+     *
+     * @return the values, empty if the raw value is <code>null</code>
+     */
+    public String[] apply(String value) {
+        if (value == null) {
+            return ShibbolethAttributeParser.EMPTY_VALUES;
+        }
+
+        String[] values;
+
+        if (_target.isMultiValued() || _first || _truncate) {
+            values = ShibbolethAttributeParser.split(value, _truncate);
+        } else {
+            values = new String[] {value};
+        }
+
+        if (_first && (values.length > 1)) {
+            values = new String[] {values[0]};
+        }
+
+        if (_trim || _lowerCase || _screenName) {
+            for (int i = 0; i < values.length; i++) {
+                String transformedValue = values[i];
+
+                if (_trim) {
+                    transformedValue = transformedValue.trim();
+                }
+
+                if (_lowerCase) {
+                    transformedValue = StringUtil.toLowerCase(transformedValue);
+                }
+
+                if (_screenName) {
+                    transformedValue = ShibbolethAttributeParser.toScreenName(transformedValue);
+                }
+
+                values[i] = transformedValue;
+            }
+        }
+
+        return values;
+    }
+
+    public String getSourceName() {
+        return _sourceName;
+    }
+
+    public ShibbolethAttributeTarget getTarget() {
+        return _target;
+    }
+
+    public String getTargetName() {
+        return _targetName;
+    }
+
+    public boolean isHeader() {
+        return _header;
+    }
+
+    private static final String _ATTRIBUTE_PREFIX = "attribute:";
+
+    private static final String _HEADER_PREFIX = "header:";
+
+    private final boolean _first;
+    private final boolean _header;
+    private final boolean _lowerCase;
+    private final boolean _screenName;
+    private final String _sourceName;
+    private final ShibbolethAttributeTarget _target;
+    private final String _targetName;
+    private final boolean _trim;
+    private final boolean _truncate;
+
+}
@@ -0,0 +1,427 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.Validator;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The attribute mappings of a company, compiled into an immutable extraction
+ * plan.
+ * <p/>
+ * The plan is built once per configuration change from the configured
+ * attribute mappings. Targets without an explicit mapping fall back to the
+ * legacy header settings, so existing configurations keep working unchanged.
+ * Every distinct source is read exactly once per extraction, however many
+ * mappings use it. Entitlements are mapped to roles and sites by the
+ * entitlement rules of the company; with rules configured, the legacy
+ * affiliation header is matched against them instead of naming roles itself.
+ */
+public final class ShibbolethAttributeMappingPlan {
+
+    public static final String DEFAULT_FIRST_NAME = "MissingFirstName";
+
+    public static final String DEFAULT_LAST_NAME = "MissingSurname";
+
+    public static ShibbolethAttributeMappingPlan compile(ShibbolethConfiguration configuration) {
+        boolean headersEnabled = configuration.headersEnabled();
+
+        List<ShibbolethAttributeMapping> mappings = new ArrayList<>();
+
+        String[] declarations = configuration.attributeMappings();
+
+        if (declarations != null) {
+            for (String declaration : declarations) {
+                if (Validator.isNull(declaration) || declaration.trim().isEmpty()) {
+                    continue;
+                }
+
+                try {
+                    mappings.add(ShibbolethAttributeMapping.parse(declaration.trim(), headersEnabled));
+                } catch (IllegalArgumentException iae) {
+                    _log.warn(iae.getMessage() + ", ignoring it");
+                }
+            }
+        }
+
+        ShibbolethEntitlementMatcher entitlementMatcher = ShibbolethEntitlementMatcher.compile(
+                configuration.entitlementRules());
+
+        Set<ShibbolethAttributeTarget> mappedTargets = EnumSet.noneOf(ShibbolethAttributeTarget.class);
+
+        for (ShibbolethAttributeMapping mapping : mappings) {
+            mappedTargets.add(mapping.getTarget());
+        }
+
+        // legacy header settings
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.LOGIN) &&
+                Validator.isNotNull(configuration.userHeader())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.userHeader(), headersEnabled, ShibbolethAttributeTarget.LOGIN, null, false, false,
+                    configuration.screenameTransformEnabled(), false, false));
+        }
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.EMAIL_ADDRESS) &&
+                Validator.isNotNull(configuration.userEmailHeader())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.userEmailHeader(), headersEnabled, ShibbolethAttributeTarget.EMAIL_ADDRESS, null,
+                    true, false, false, false, false));
+        }
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.FIRST_NAME) &&
+                Validator.isNotNull(configuration.firstname())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.firstname(), headersEnabled, ShibbolethAttributeTarget.FIRST_NAME, null));
+        }
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.LAST_NAME) &&
+                Validator.isNotNull(configuration.surname())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.surname(), headersEnabled, ShibbolethAttributeTarget.LAST_NAME, null));
+        }
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.AFFILIATION) &&
+                !mappedTargets.contains(ShibbolethAttributeTarget.ENTITLEMENT) &&
+                Validator.isNotNull(configuration.userHeaderAffiliation()) && !entitlementMatcher.isEmpty()) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.userHeaderAffiliation(), headersEnabled, ShibbolethAttributeTarget.ENTITLEMENT,
+                    null));
+        } else if (!mappedTargets.contains(ShibbolethAttributeTarget.AFFILIATION) &&
+                Validator.isNotNull(configuration.userHeaderAffiliation())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.userHeaderAffiliation(), headersEnabled, ShibbolethAttributeTarget.AFFILIATION,
+                    null, false, configuration.affiliationTruncateEnabled(), false, false, false));
+        }
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.IDENTITY_PROVIDER) &&
+                Validator.isNotNull(configuration.identityProviderHeader())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.identityProviderHeader(), headersEnabled,
+                    ShibbolethAttributeTarget.IDENTITY_PROVIDER, null));
+        }
+
+        if (!mappedTargets.contains(ShibbolethAttributeTarget.PERSISTENT_ID) &&
+                Validator.isNotNull(configuration.persistentIdHeader())) {
+
+            mappings.add(new ShibbolethAttributeMapping(
+                    configuration.persistentIdHeader(), headersEnabled, ShibbolethAttributeTarget.PERSISTENT_ID,
+                    null));
+        }
+
+        if (mappedTargets.contains(ShibbolethAttributeTarget.ENTITLEMENT) && entitlementMatcher.isEmpty()) {
+            _log.warn("Entitlements are mapped but no entitlement rules are configured");
+        }
+
+        return new ShibbolethAttributeMappingPlan(mappings, entitlementMatcher);
+    }
+
+    /**
+     * Extracts the attributes in a single pass over the sources. Without a
+     * persistent ID the first untransformed value of the login source
+     * identifies the user.
+     *
+     * @return the attributes or <code>null</code> if no login is provided
+     */
+    public ShibbolethAttributes extract(ShibbolethAttributeSource source) {
+        String[] rawValues = new String[_sourceNames.length];
+
+        for (int i = 0; i < _sourceNames.length; i++) {
+            rawValues[i] = source.getValue(_sourceNames[i], _sourceHeaders[i]);
+        }
+
+        String login = null;
+        String emailAddress = null;
+        String firstName = null;
+        String lastName = null;
+        List<String> affiliations = null;
+        List<String> entitlements = null;
+        Map<String, List<String>> expandoValues = null;
+        Set<String> groupNames = null;
+        Set<String> userGroupNames = null;
+        Set<String> organizationNames = null;
+        String identityProvider = null;
+        String persistentId = null;
+        String rawLogin = null;
+
+        for (int i = 0; i < _mappings.length; i++) {
+            ShibbolethAttributeMapping mapping = _mappings[i];
+
+            String[] values = mapping.apply(rawValues[_sourceIndexes[i]]);
+
+            if (values.length == 0) {
+                continue;
+            }
+
+            switch (mapping.getTarget()) {
+                case AFFILIATION:
+                    if (affiliations == null) {
+                        affiliations = new ArrayList<>();
+                    }
+
+                    Collections.addAll(affiliations, values);
+
+                    break;
+                case EMAIL_ADDRESS:
+                    if (emailAddress == null) {
+                        emailAddress = values[0];
+                    }
+
+                    break;
+                case ENTITLEMENT:
+                    if (entitlements == null) {
+                        entitlements = new ArrayList<>();
+                    }
+
+                    Collections.addAll(entitlements, values);
+
+                    break;
+                case EXPANDO:
+                    if (expandoValues == null) {
+                        expandoValues = new TreeMap<>();
+                    }
+
+                    Collections.addAll(
+                            expandoValues.computeIfAbsent(mapping.getTargetName(), key -> new ArrayList<>()), values);
+
+                    break;
+                case FIRST_NAME:
+                    if (firstName == null) {
+                        firstName = values[0];
+                    }
+
+                    break;
+                case GROUP:
+                    if (groupNames == null) {
+                        groupNames = new LinkedHashSet<>();
+                    }
+
+                    Collections.addAll(groupNames, values);
+
+                    break;
+                case IDENTITY_PROVIDER:
+                    if (identityProvider == null) {
+                        identityProvider = values[0];
+                    }
+
+                    break;
+                case LAST_NAME:
+                    if (lastName == null) {
+                        lastName = values[0];
+                    }
+
+                    break;
+                case LOGIN:
+                    if (login == null) {
+                        login = values[0];
+                        rawLogin = ShibbolethAttributeParser.getFirstValue(rawValues[_sourceIndexes[i]]);
+                    }
+
+                    break;
+                case ORGANIZATION:
+                    if (organizationNames == null) {
+                        organizationNames = new LinkedHashSet<>();
+                    }
+
+                    Collections.addAll(organizationNames, values);
+
+                    break;
+                case PERSISTENT_ID:
+                    if (persistentId == null) {
+                        persistentId = values[0];
+                    }
+
+                    break;
+                case USER_GROUP:
+                    if (userGroupNames == null) {
+                        userGroupNames = new LinkedHashSet<>();
+                    }
+
+                    Collections.addAll(userGroupNames, values);
+
+                    break;
+            }
+        }
+
+        if (Validator.isNull(login)) {
+            return null;
+        }
+
+        if (entitlements != null) {
+            Map<ShibbolethAttributeTarget, Set<String>> names = new EnumMap<>(ShibbolethAttributeTarget.class);
+
+            for (String entitlement : entitlements) {
+                boolean matched = _entitlementMatcher.match(
+                        entitlement,
+                        (target, name) -> names.computeIfAbsent(target, key -> new LinkedHashSet<>()).add(name));
+
+                if (!matched && _log.isDebugEnabled()) {
+                    _log.debug("No entitlement rule matches " + entitlement);
+                }
+            }
+
+            if (names.containsKey(ShibbolethAttributeTarget.AFFILIATION)) {
+                if (affiliations == null) {
+                    affiliations = new ArrayList<>();
+                }
+
+                affiliations.addAll(names.get(ShibbolethAttributeTarget.AFFILIATION));
+            }
+
+            groupNames = addAll(groupNames, names.get(ShibbolethAttributeTarget.GROUP));
+            organizationNames = addAll(organizationNames, names.get(ShibbolethAttributeTarget.ORGANIZATION));
+            userGroupNames = addAll(userGroupNames, names.get(ShibbolethAttributeTarget.USER_GROUP));
+        }
+
+        if (Validator.isNull(persistentId)) {
+            persistentId = rawLogin;
+        }
+
+        if (Validator.isNull(firstName)) {
+            firstName = DEFAULT_FIRST_NAME;
+        }
+
+        if (Validator.isNull(lastName)) {
+            lastName = DEFAULT_LAST_NAME;
+        }
+
+        return new ShibbolethAttributes(
+                login, emailAddress, firstName, lastName, toArray(affiliations), toArrays(expandoValues),
+                toArray(groupNames), toArray(userGroupNames), toArray(organizationNames), identityProvider,
+                persistentId);
+    }
+
+    public ShibbolethEntitlementMatcher getEntitlementMatcher() {
+        return _entitlementMatcher;
+    }
+
+    public List<ShibbolethAttributeMapping> getMappings() {
+        return Collections.unmodifiableList(Arrays.asList(_mappings));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append('[');
+
+        for (ShibbolethAttributeMapping mapping : _mappings) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+
+            sb.append(mapping.getSourceName());
+            sb.append(" -> ");
+            sb.append(mapping.getTarget().getName());
+
+            if (mapping.getTargetName() != null) {
+                sb.append(':');
+                sb.append(mapping.getTargetName());
+            }
+        }
+
+        sb.append(']');
+
+        return sb.toString();
+    }
+
+    private static Set<String> addAll(Set<String> values, Set<String> addedValues) {
+        if (addedValues == null) {
+            return values;
+        }
+
+        if (values == null) {
+            return addedValues;
+        }
+
+        values.addAll(addedValues);
+
+        return values;
+    }
+
+    private static String[] toArray(Collection<String> values) {
+        if (values == null) {
+            return ShibbolethAttributeParser.EMPTY_VALUES;
+        }
+
+        return values.toArray(new String[values.size()]);
+    }
+
+    private static Map<String, String[]> toArrays(Map<String, List<String>> values) {
+        if (values == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String[]> arrays = new TreeMap<>();
+
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            arrays.put(entry.getKey(), toArray(entry.getValue()));
+        }
+
+        return arrays;
+    }
+
+    private ShibbolethAttributeMappingPlan(
+            List<ShibbolethAttributeMapping> mappings, ShibbolethEntitlementMatcher entitlementMatcher) {
+
+        Map<String, Integer> sourceIndexes = new LinkedHashMap<>();
+
+        _entitlementMatcher = entitlementMatcher;
+
+        _mappings = mappings.toArray(new ShibbolethAttributeMapping[mappings.size()]);
+        _sourceIndexes = new int[_mappings.length];
+
+        for (int i = 0; i < _mappings.length; i++) {
+            ShibbolethAttributeMapping mapping = _mappings[i];
+
+            String key = (mapping.isHeader() ? "header:" : "attribute:") + mapping.getSourceName();
+
+            Integer index = sourceIndexes.get(key);
+
+            if (index == null) {
+                index = sourceIndexes.size();
+
+                sourceIndexes.put(key, index);
+            }
+
+            _sourceIndexes[i] = index;
+        }
+
+        _sourceNames = new String[sourceIndexes.size()];
+        _sourceHeaders = new boolean[sourceIndexes.size()];
+
+        for (int i = 0; i < _mappings.length; i++) {
+            _sourceNames[_sourceIndexes[i]] = _mappings[i].getSourceName();
+            _sourceHeaders[_sourceIndexes[i]] = _mappings[i].isHeader();
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethAttributeMappingPlan.class);
+
+    private final ShibbolethEntitlementMatcher _entitlementMatcher;
+    private final ShibbolethAttributeMapping[] _mappings;
+    private final boolean[] _sourceHeaders;
+    private final int[] _sourceIndexes;
+    private final String[] _sourceNames;
+
+}
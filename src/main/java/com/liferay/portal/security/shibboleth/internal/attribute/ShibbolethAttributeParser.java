@@ -0,0 +1,156 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the values of Shibboleth attributes without regular expressions or
+ * intermediate arrays.
+ * <p/>
+ * The Shibboleth SP joins the values of a multi-valued attribute with
+ * <code>;</code> and escapes a <code>;</code> inside a value as
+ * <code>\;</code>. Empty values are dropped.
+ */
+public class ShibbolethAttributeParser {
+
+    public static final String[] EMPTY_VALUES = new String[0];
+
+    /**
+     * Returns the first value of a multi-valued attribute
+     */
+    public static String getFirstValue(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String[] values = split(value, false, 1);
+
+        if (values.length == 0) {
+            return value;
+        }
+
+        return values[0];
+    }
+
+    /**
+     * Splits a multi-valued attribute into its values
+     */
+    public static String[] split(String value) {
+        return split(value, false, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Splits a multi-valued attribute into its values, optionally keeping only
+     * the segment after the last <code>:</code> of every value (e.g. the role
+     * name of an eduPersonEntitlement URN)
+     */
+    public static String[] split(String value, boolean truncate) {
+        return split(value, truncate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Makes a login a valid screen name by replacing <code>@</code> with
+     * <code>.at.</code> and <code>_</code> with <code>-</code>
+     */
+    public static String toScreenName(String login) {
+        if (login == null) {
+            return null;
+        }
+
+        StringBuilder sb = null;
+
+        for (int i = 0; i < login.length(); i++) {
+            char c = login.charAt(i);
+
+            if ((c == '@') || (c == '_')) {
+                if (sb == null) {
+                    sb = new StringBuilder(login.length() + 8);
+
+                    sb.append(login, 0, i);
+                }
+
+                if (c == '@') {
+                    sb.append(".at.");
+                } else {
+                    sb.append('-');
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+
+        if (sb == null) {
+            return login;
+        }
+
+        return sb.toString();
+    }
+
+    private static void addValue(
+            List<String> values, String value, int start, int end, StringBuilder sb, boolean escaped) {
+
+        if (escaped) {
+            sb.append(value, start, end);
+
+            if (sb.length() > 0) {
+                values.add(sb.toString());
+            }
+        } else if (end > start) {
+            values.add(value.substring(start, end));
+        }
+    }
+
+    private static String[] split(String value, boolean truncate, int limit) {
+        if ((value == null) || value.isEmpty()) {
+            return EMPTY_VALUES;
+        }
+
+        List<String> values = new ArrayList<>();
+
+        StringBuilder sb = null;
+        boolean escaped = false;
+        int start = 0;
+
+        for (int i = 0; (i < value.length()) && (values.size() < limit); i++) {
+            char c = value.charAt(i);
+
+            if ((c == '\\') && ((i + 1) < value.length()) && (value.charAt(i + 1) == ';')) {
+                if (sb == null) {
+                    sb = new StringBuilder();
+                }
+
+                sb.append(value, start, i);
+                sb.append(';');
+
+                escaped = true;
+
+                i++;
+
+                start = i + 1;
+            } else if ((c == ':') && truncate) {
+                if (escaped) {
+                    sb.setLength(0);
+                }
+
+                start = i + 1;
+            } else if (c == ';') {
+                addValue(values, value, start, i, sb, escaped);
+
+                if (escaped) {
+                    sb.setLength(0);
+
+                    escaped = false;
+                }
+
+                start = i + 1;
+            }
+        }
+
+        if (values.size() < limit) {
+            addValue(values, value, start, value.length(), sb, escaped);
+        }
+
+        return values.toArray(new String[values.size()]);
+    }
+
+}
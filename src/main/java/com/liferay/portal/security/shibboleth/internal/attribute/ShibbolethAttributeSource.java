@@ -0,0 +1,17 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+/**
+ * Provides the raw values of Shibboleth attributes, for example from the
+ * headers or the attributes of a request.
+ */
+public interface ShibbolethAttributeSource {
+
+    /**
+     * @param  name the name of the attribute
+     * @param  header whether the attribute is an HTTP header rather than a
+     *         request attribute (environment variable)
+     * @return the raw value or <code>null</code>
+     */
+    public String getValue(String name, boolean header);
+
+}
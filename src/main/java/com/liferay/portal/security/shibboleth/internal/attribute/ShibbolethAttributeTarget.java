@@ -0,0 +1,50 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+/**
+ * What an attribute mapping writes to.
+ */
+public enum ShibbolethAttributeTarget {
+
+    AFFILIATION("affiliation", true), EMAIL_ADDRESS("emailAddress", false), ENTITLEMENT("entitlement", true),
+    EXPANDO("expando", true), FIRST_NAME("firstName", false), GROUP("group", true),
+    IDENTITY_PROVIDER("identityProvider", false), LAST_NAME("lastName", false), LOGIN("login", false),
+    ORGANIZATION("organization", true), PERSISTENT_ID("persistentId", false), USER_GROUP("userGroup", true);
+
+    public static ShibbolethAttributeTarget parse(String name) {
+        if ("role".equals(name)) {
+            return AFFILIATION;
+        }
+
+        if ("site".equals(name)) {
+            return GROUP;
+        }
+
+        for (ShibbolethAttributeTarget target : values()) {
+            if (target._name.equals(name)) {
+                return target;
+            }
+        }
+
+        return null;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Whether the target takes all values of a multi-valued attribute
+     */
+    public boolean isMultiValued() {
+        return _multiValued;
+    }
+
+    private ShibbolethAttributeTarget(String name, boolean multiValued) {
+        _name = name;
+        _multiValued = multiValued;
+    }
+
+    private final boolean _multiValued;
+    private final String _name;
+
+}
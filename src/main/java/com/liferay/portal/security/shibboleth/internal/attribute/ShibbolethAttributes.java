@@ -0,0 +1,353 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.portal.shibboleth.util.ShibbolethPropsKeys;
+
+import javax.servlet.http.HttpSession;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The user attributes provided by Shibboleth, as extracted by the filter.
+ * <p/>
+ * The fingerprint is a stable 64-bit hash of all mapped values and changes
+ * whenever the identity provider sends a different attribute set. The entity
+ * ID of the identity provider and the persistent ID identify the user rather
+ * than describe it and are not part of the fingerprint.
+ */
+public final class ShibbolethAttributes implements Serializable {
+
+    /**
+     * Returns the attributes stored in the session by
+     * {@link #toSession(HttpSession)} or by an earlier version of the filter
+     *
+     * @return the attributes or <code>null</code> if the session holds none
+     */
+    public static ShibbolethAttributes fromSession(HttpSession session) {
+        if (session == null) {
+            return null;
+        }
+
+        String login = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_LOGIN);
+
+        if (login == null) {
+            return null;
+        }
+
+        // earlier versions of the filter stored the affiliation header as it
+        // was
+
+        Object affiliations = session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_AFFILIATION);
+
+        if (affiliations instanceof String) {
+            affiliations = ShibbolethAttributeParser.split((String) affiliations);
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, String[]> expandoValues = (Map<String, String[]>) session.getAttribute(
+                ShibbolethPropsKeys.SHIBBOLETH_EXPANDO_VALUES);
+
+        return new ShibbolethAttributes(
+                login, (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_EMAIL),
+                (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_FIRSTNAME),
+                (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_SURNAME),
+                (String[]) affiliations, expandoValues,
+                (String[]) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_GROUP_NAMES),
+                (String[]) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_USER_GROUP_NAMES),
+                (String[]) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_ORGANIZATION_NAMES),
+                (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_IDENTITY_PROVIDER),
+                (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_PERSISTENT_ID));
+    }
+
+    public ShibbolethAttributes(
+            String login, String emailAddress, String firstName, String lastName, String[] affiliations) {
+
+        this(login, emailAddress, firstName, lastName, affiliations, null, null);
+    }
+
+    public ShibbolethAttributes(
+            String login, String emailAddress, String firstName, String lastName, String[] affiliations,
+            Map<String, String[]> expandoValues, String[] groupNames) {
+
+        this(login, emailAddress, firstName, lastName, affiliations, expandoValues, groupNames, null, null);
+    }
+
+    public ShibbolethAttributes(
+            String login, String emailAddress, String firstName, String lastName, String[] affiliations,
+            Map<String, String[]> expandoValues, String[] groupNames, String identityProvider,
+            String persistentId) {
+
+        this(
+                login, emailAddress, firstName, lastName, affiliations, expandoValues, groupNames, null, null,
+                identityProvider, persistentId);
+    }
+
+    public ShibbolethAttributes(
+            String login, String emailAddress, String firstName, String lastName, String[] affiliations,
+            Map<String, String[]> expandoValues, String[] groupNames, String[] userGroupNames,
+            String[] organizationNames, String identityProvider, String persistentId) {
+
+        if (affiliations == null) {
+            affiliations = ShibbolethAttributeParser.EMPTY_VALUES;
+        }
+
+        if ((expandoValues == null) || expandoValues.isEmpty()) {
+            expandoValues = Collections.emptyMap();
+        } else {
+            expandoValues = Collections.unmodifiableMap(new TreeMap<>(expandoValues));
+        }
+
+        if (groupNames == null) {
+            groupNames = ShibbolethAttributeParser.EMPTY_VALUES;
+        }
+
+        if (userGroupNames == null) {
+            userGroupNames = ShibbolethAttributeParser.EMPTY_VALUES;
+        }
+
+        if (organizationNames == null) {
+            organizationNames = ShibbolethAttributeParser.EMPTY_VALUES;
+        }
+
+        _login = login;
+        _emailAddress = emailAddress;
+        _firstName = firstName;
+        _lastName = lastName;
+        _affiliations = affiliations;
+        _expandoValues = expandoValues;
+        _groupNames = groupNames;
+        _userGroupNames = userGroupNames;
+        _organizationNames = organizationNames;
+        _identityProvider = identityProvider;
+        _persistentId = persistentId;
+    }
+
+    /**
+     * Returns the affiliation values. The returned array must not be modified.
+     */
+    public String[] getAffiliations() {
+        return _affiliations;
+    }
+
+    public String getEmailAddress() {
+        return _emailAddress;
+    }
+
+    /**
+     * Returns the values mapped to custom fields, keyed by the name of the
+     * custom field. The returned arrays must not be modified.
+     */
+    public Map<String, String[]> getExpandoValues() {
+        return _expandoValues;
+    }
+
+    public String getFingerprint() {
+        String fingerprint = _fingerprint;
+
+        if (fingerprint == null) {
+            long hash = _FNV_OFFSET_BASIS;
+
+            hash = hash(hash, _login);
+            hash = hash(hash, _emailAddress);
+            hash = hash(hash, _firstName);
+            hash = hash(hash, _lastName);
+
+            for (String affiliation : _affiliations) {
+                hash = hash(hash, affiliation);
+            }
+
+            hash = hash(hash, null);
+
+            for (Map.Entry<String, String[]> entry : _expandoValues.entrySet()) {
+                hash = hash(hash, entry.getKey());
+
+                for (String value : entry.getValue()) {
+                    hash = hash(hash, value);
+                }
+
+                hash = hash(hash, null);
+            }
+
+            hash = hash(hash, null);
+
+            for (String groupName : _groupNames) {
+                hash = hash(hash, groupName);
+            }
+
+            // user groups and organizations only change the fingerprint if
+            // mapped, so fingerprints recorded before they were supported
+            // stay valid
+
+            if ((_userGroupNames.length > 0) || (_organizationNames.length > 0)) {
+                hash = hash(hash, null);
+
+                for (String userGroupName : _userGroupNames) {
+                    hash = hash(hash, userGroupName);
+                }
+
+                hash = hash(hash, null);
+
+                for (String organizationName : _organizationNames) {
+                    hash = hash(hash, organizationName);
+                }
+            }
+
+            fingerprint = Long.toHexString(hash);
+
+            _fingerprint = fingerprint;
+        }
+
+        return fingerprint;
+    }
+
+    public String getFirstName() {
+        return _firstName;
+    }
+
+    /**
+     * Returns the names of the sites the user is a member of. The returned
+     * array must not be modified.
+     */
+    public String[] getGroupNames() {
+        return _groupNames;
+    }
+
+    /**
+     * Returns the entity ID of the identity provider the user logged in with
+     */
+    public String getIdentityProvider() {
+        return _identityProvider;
+    }
+
+    public String getLastName() {
+        return _lastName;
+    }
+
+    public String getLogin() {
+        return _login;
+    }
+
+    /**
+     * Returns the names of the organizations the user is a member of. The
+     * returned array must not be modified.
+     */
+    public String[] getOrganizationNames() {
+        return _organizationNames;
+    }
+
+    /**
+     * Returns the persistent (targeted) ID of the user or, without one, the
+     * untransformed login value
+     */
+    public String getPersistentId() {
+        return _persistentId;
+    }
+
+    /**
+     * Returns the names of the user groups the user is a member of. The
+     * returned array must not be modified.
+     */
+    public String[] getUserGroupNames() {
+        return _userGroupNames;
+    }
+
+    /**
+     * Stores the attributes in the session, see
+     * {@link #fromSession(HttpSession)}. The values are stored as strings,
+     * string arrays and a hash map of them under separate keys, so the
+     * session can be replicated to nodes that cannot load the classes of this
+     * bundle.
+     */
+    public void toSession(HttpSession session) {
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_EMAIL, _emailAddress);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_FIRSTNAME, _firstName);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_SURNAME, _lastName);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_AFFILIATION, _affiliations.clone());
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_EXPANDO_VALUES, new HashMap<>(_expandoValues));
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_GROUP_NAMES, _groupNames.clone());
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_USER_GROUP_NAMES, _userGroupNames.clone());
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_ORGANIZATION_NAMES, _organizationNames.clone());
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_IDENTITY_PROVIDER, _identityProvider);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_PERSISTENT_ID, _persistentId);
+
+        // the login is stored last, the filter and the auto login take the
+        // attributes as complete once it is there
+
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_LOGIN, _login);
+    }
+
+    @Override
+    public String toString() {
+        return "{login=" + _login + ", emailAddress=" + _emailAddress + ", firstName=" + _firstName +
+                ", lastName=" + _lastName + ", affiliations=" + Arrays.toString(_affiliations) +
+                ", expandoValues=" + toString(_expandoValues) + ", groupNames=" + Arrays.toString(_groupNames) +
+                ", userGroupNames=" + Arrays.toString(_userGroupNames) + ", organizationNames=" +
+                Arrays.toString(_organizationNames) + ", identityProvider=" + _identityProvider +
+                ", persistentId=" + _persistentId + "}";
+    }
+
+    private static long hash(long hash, String value) {
+
+        // FNV-1a over the UTF-16 code units, every value is terminated by a
+        // separator that cannot be confused with content and null is hashed
+        // differently from an empty string
+
+        if (value == null) {
+            hash ^= 0xFFFF;
+            hash *= _FNV_PRIME;
+        } else {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= _FNV_PRIME;
+            }
+        }
+
+        hash ^= 0xFFFE;
+        hash *= _FNV_PRIME;
+
+        return hash;
+    }
+
+    private static String toString(Map<String, String[]> values) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append('{');
+
+        for (Map.Entry<String, String[]> entry : values.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+
+            sb.append(entry.getKey());
+            sb.append('=');
+            sb.append(Arrays.toString(entry.getValue()));
+        }
+
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+    private static final long _FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long _FNV_PRIME = 0x100000001b3L;
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] _affiliations;
+    private final String _emailAddress;
+    private final Map<String, String[]> _expandoValues;
+    private transient volatile String _fingerprint;
+    private final String _firstName;
+    private final String[] _groupNames;
+    private final String _identityProvider;
+    private final String _lastName;
+    private final String _login;
+    private final String[] _organizationNames;
+    private final String _persistentId;
+    private final String[] _userGroupNames;
+
+}
@@ -0,0 +1,155 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.expando.kernel.model.ExpandoColumn;
+import com.liferay.expando.kernel.model.ExpandoColumnConstants;
+import com.liferay.expando.kernel.model.ExpandoTable;
+import com.liferay.expando.kernel.model.ExpandoTableConstants;
+import com.liferay.expando.kernel.service.ExpandoColumnLocalService;
+import com.liferay.expando.kernel.service.ExpandoTableLocalService;
+import com.liferay.expando.kernel.service.ExpandoValueLocalService;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.util.GetterUtil;
+import com.liferay.portal.kernel.util.UnicodeProperties;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persists the synchronization state of a user in hidden expando columns of
+ * the user: the fingerprint of the attribute set the user was last
+ * synchronized with and the memberships added by the synchronization.
+ * <p/>
+ * The fingerprint is stored with the time it was written at, so a
+ * synchronization can be repeated after a while even if the attributes did
+ * not change, to repair roles and memberships changed by an administrator.
+ */
+@Component(immediate = true, service = ShibbolethAttributesFingerprintStore.class)
+public class ShibbolethAttributesFingerprintStore {
+
+    public static final String COLUMN_NAME = "shibbolethAttributesFingerprint";
+
+    public static final String MANAGED_MEMBERSHIPS_COLUMN_NAME = "shibbolethManagedMemberships";
+
+    /**
+     * Returns the fingerprint the user was last synchronized with
+     *
+     * @param maxAge the age in milliseconds after which the fingerprint is
+     *        ignored, <code>0</code> or less to never ignore it
+     * @return the fingerprint or <code>null</code> if there is none or it is
+     *         older than the maximum age
+     */
+    public String getFingerprint(User user, long maxAge) throws PortalException {
+        String value = _expandoValueLocalService.getData(
+                user.getCompanyId(), User.class.getName(), ExpandoTableConstants.DEFAULT_TABLE_NAME, COLUMN_NAME,
+                user.getUserId(), (String) null);
+
+        if (value == null) {
+            return null;
+        }
+
+        int index = value.lastIndexOf(_TIME_SEPARATOR);
+
+        if (index < 0) {
+
+            // written before the time was recorded
+
+            return (maxAge > 0) ? null : value;
+        }
+
+        if (maxAge > 0) {
+            long time = GetterUtil.getLong(value.substring(index + 1));
+
+            if ((System.currentTimeMillis() - time) > maxAge) {
+                return null;
+            }
+        }
+
+        return value.substring(0, index);
+    }
+
+    /**
+     * Returns the memberships added by the synchronization, as encoded by
+     * the membership synchronizer
+     */
+    public String getManagedMemberships(User user) throws PortalException {
+        return _expandoValueLocalService.getData(
+                user.getCompanyId(), User.class.getName(), ExpandoTableConstants.DEFAULT_TABLE_NAME,
+                MANAGED_MEMBERSHIPS_COLUMN_NAME, user.getUserId(), (String) null);
+    }
+
+    public void setFingerprint(User user, String fingerprint) throws PortalException {
+        checkColumn(user.getCompanyId());
+
+        _expandoValueLocalService.addValue(
+                user.getCompanyId(), User.class.getName(), ExpandoTableConstants.DEFAULT_TABLE_NAME, COLUMN_NAME,
+                user.getUserId(), fingerprint + _TIME_SEPARATOR + System.currentTimeMillis());
+    }
+
+    public void setManagedMemberships(User user, String managedMemberships) throws PortalException {
+        checkColumn(user.getCompanyId());
+
+        _expandoValueLocalService.addValue(
+                user.getCompanyId(), User.class.getName(), ExpandoTableConstants.DEFAULT_TABLE_NAME,
+                MANAGED_MEMBERSHIPS_COLUMN_NAME, user.getUserId(), managedMemberships);
+    }
+
+    protected void checkColumn(long companyId) throws PortalException {
+        if (_checkedCompanyIds.contains(companyId)) {
+            return;
+        }
+
+        ExpandoTable expandoTable = _expandoTableLocalService.fetchDefaultTable(companyId, User.class.getName());
+
+        if (expandoTable == null) {
+            expandoTable = _expandoTableLocalService.addDefaultTable(companyId, User.class.getName());
+        }
+
+        checkColumn(expandoTable, COLUMN_NAME);
+        checkColumn(expandoTable, MANAGED_MEMBERSHIPS_COLUMN_NAME);
+
+        _checkedCompanyIds.add(companyId);
+    }
+
+    @Reference(unbind = "-")
+    protected void setExpandoColumnLocalService(ExpandoColumnLocalService expandoColumnLocalService) {
+        _expandoColumnLocalService = expandoColumnLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setExpandoTableLocalService(ExpandoTableLocalService expandoTableLocalService) {
+        _expandoTableLocalService = expandoTableLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setExpandoValueLocalService(ExpandoValueLocalService expandoValueLocalService) {
+        _expandoValueLocalService = expandoValueLocalService;
+    }
+
+    private void checkColumn(ExpandoTable expandoTable, String name) throws PortalException {
+        ExpandoColumn expandoColumn = _expandoColumnLocalService.getColumn(expandoTable.getTableId(), name);
+
+        if (expandoColumn != null) {
+            return;
+        }
+
+        expandoColumn = _expandoColumnLocalService.addColumn(
+                expandoTable.getTableId(), name, ExpandoColumnConstants.STRING);
+
+        UnicodeProperties typeSettingsProperties = expandoColumn.getTypeSettingsProperties();
+
+        typeSettingsProperties.setProperty(ExpandoColumnConstants.PROPERTY_HIDDEN, Boolean.TRUE.toString());
+
+        _expandoColumnLocalService.updateTypeSettings(expandoColumn.getColumnId(), typeSettingsProperties.toString());
+    }
+
+    private static final char _TIME_SEPARATOR = '@';
+
+    private final Set<Long> _checkedCompanyIds = ConcurrentHashMap.newKeySet();
+    private ExpandoColumnLocalService _expandoColumnLocalService;
+    private ExpandoTableLocalService _expandoTableLocalService;
+    private ExpandoValueLocalService _expandoValueLocalService;
+
+}
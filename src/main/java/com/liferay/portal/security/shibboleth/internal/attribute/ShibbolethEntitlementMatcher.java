@@ -0,0 +1,212 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.Validator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The entitlement rules of a company, compiled into a trie of URN segments.
+ * <p/>
+ * Every node of the trie stands for a pattern prefix and holds the rules whose
+ * pattern ends there. Matching an entitlement walks the trie segment by
+ * segment, following the child of the segment and the <code>*</code> child of
+ * every node reached so far, so the cost depends on the number of segments of
+ * the entitlement and not on the number of rules. The rules are matched in
+ * declaration order within a node.
+ */
+public final class ShibbolethEntitlementMatcher {
+
+    public static final ShibbolethEntitlementMatcher EMPTY = new ShibbolethEntitlementMatcher(
+            Collections.<ShibbolethEntitlementRule>emptyList());
+
+    /**
+     * Compiles the rule declarations, ignoring invalid ones
+     */
+    public static ShibbolethEntitlementMatcher compile(String[] declarations) {
+        if ((declarations == null) || (declarations.length == 0)) {
+            return EMPTY;
+        }
+
+        List<ShibbolethEntitlementRule> rules = new ArrayList<>(declarations.length);
+
+        for (String declaration : declarations) {
+            if (Validator.isNull(declaration) || declaration.trim().isEmpty()) {
+                continue;
+            }
+
+            try {
+                rules.add(ShibbolethEntitlementRule.parse(declaration.trim()));
+            } catch (IllegalArgumentException iae) {
+                _log.warn(iae.getMessage() + ", ignoring it");
+            }
+        }
+
+        if (rules.isEmpty()) {
+            return EMPTY;
+        }
+
+        return new ShibbolethEntitlementMatcher(rules);
+    }
+
+    public List<ShibbolethEntitlementRule> getRules() {
+        return Collections.unmodifiableList(Arrays.asList(_rules));
+    }
+
+    public boolean isEmpty() {
+        return _rules.length == 0;
+    }
+
+    /**
+     * Passes the target and name of every rule matching the entitlement to the
+     * consumer
+     *
+     * @return whether any rule matched
+     */
+    public boolean match(String entitlement, BiConsumer<ShibbolethAttributeTarget, String> consumer) {
+        if (_rules.length == 0) {
+            return false;
+        }
+
+        String[] segments = ShibbolethEntitlementRule.split(entitlement);
+
+        List<Node> nodes = Collections.singletonList(_root);
+
+        boolean matched = false;
+
+        for (String segment : segments) {
+            List<Node> nextNodes = new ArrayList<>(2);
+
+            for (Node node : nodes) {
+
+                // at least this segment is left for the trailing **
+
+                matched |= accept(node._prefixRules, entitlement, consumer);
+
+                if (node._children != null) {
+                    Node child = node._children.get(segment);
+
+                    if (child != null) {
+                        nextNodes.add(child);
+                    }
+                }
+
+                if (node._wildcardChild != null) {
+                    nextNodes.add(node._wildcardChild);
+                }
+            }
+
+            if (nextNodes.isEmpty()) {
+                return matched;
+            }
+
+            nodes = nextNodes;
+        }
+
+        for (Node node : nodes) {
+            matched |= accept(node._exactRules, entitlement, consumer);
+        }
+
+        return matched;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(_rules);
+    }
+
+    private static boolean accept(
+            ShibbolethEntitlementRule[] rules, String entitlement,
+            BiConsumer<ShibbolethAttributeTarget, String> consumer) {
+
+        boolean matched = false;
+
+        for (ShibbolethEntitlementRule rule : rules) {
+            String name = rule.getName(entitlement);
+
+            if (name != null) {
+                consumer.accept(rule.getTarget(), name);
+
+                matched = true;
+            }
+        }
+
+        return matched;
+    }
+
+    private ShibbolethEntitlementMatcher(List<ShibbolethEntitlementRule> rules) {
+        _rules = rules.toArray(new ShibbolethEntitlementRule[rules.size()]);
+
+        for (ShibbolethEntitlementRule rule : _rules) {
+            String[] segments = rule.getSegments();
+
+            int length = segments.length;
+
+            if (rule.isPrefix()) {
+                length--;
+            }
+
+            Node node = _root;
+
+            for (int i = 0; i < length; i++) {
+                node = node.getChild(segments[i]);
+            }
+
+            if (rule.isPrefix()) {
+                node._prefixRules = append(node._prefixRules, rule);
+            } else {
+                node._exactRules = append(node._exactRules, rule);
+            }
+        }
+    }
+
+    private static ShibbolethEntitlementRule[] append(
+            ShibbolethEntitlementRule[] rules, ShibbolethEntitlementRule rule) {
+
+        rules = Arrays.copyOf(rules, rules.length + 1);
+
+        rules[rules.length - 1] = rule;
+
+        return rules;
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethEntitlementMatcher.class);
+
+    private static final ShibbolethEntitlementRule[] _NO_RULES = new ShibbolethEntitlementRule[0];
+
+    private final Node _root = new Node();
+    private final ShibbolethEntitlementRule[] _rules;
+
+    private static final class Node {
+
+        public Node getChild(String segment) {
+            if (ShibbolethEntitlementRule.SEGMENT_WILDCARD.equals(segment)) {
+                if (_wildcardChild == null) {
+                    _wildcardChild = new Node();
+                }
+
+                return _wildcardChild;
+            }
+
+            if (_children == null) {
+                _children = new HashMap<>();
+            }
+
+            return _children.computeIfAbsent(segment, key -> new Node());
+        }
+
+        private Map<String, Node> _children;
+        private ShibbolethEntitlementRule[] _exactRules = _NO_RULES;
+        private ShibbolethEntitlementRule[] _prefixRules = _NO_RULES;
+        private Node _wildcardChild;
+
+    }
+
+}
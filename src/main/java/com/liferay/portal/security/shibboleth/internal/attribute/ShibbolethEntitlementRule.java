@@ -0,0 +1,189 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import com.liferay.portal.kernel.util.Validator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entitlement rule: a URN pattern and the role, site, user group or
+ * organization an entitlement matching it maps to.
+ * <p/>
+ * A rule is declared as <code>pattern -&gt; target[:name]</code>, for example
+ * <code>urn:mace:example.org:staff -&gt; role:Staff</code>. The segments of
+ * the pattern are separated by <code>:</code>; a <code>*</code> segment
+ * matches any one segment and a trailing <code>**</code> segment matches one
+ * or more segments, so <code>urn:mace:example.org:course:**</code> matches
+ * every entitlement below <code>urn:mace:example.org:course</code>. The target
+ * is <code>role</code>, <code>site</code>, <code>userGroup</code> or
+ * <code>organization</code>. Without a name the last segment
+ * of the matching entitlement is used, like the <code>truncate</code>
+ * transform does.
+ */
+public final class ShibbolethEntitlementRule {
+
+    public static final String PREFIX_WILDCARD = "**";
+
+    public static final String SEGMENT_WILDCARD = "*";
+
+    /**
+     * Parses a rule declaration
+     *
+     * @throws IllegalArgumentException if the declaration is invalid
+     */
+    public static ShibbolethEntitlementRule parse(String declaration) {
+        int index = declaration.indexOf("->");
+
+        if (index < 0) {
+            throw new IllegalArgumentException("Missing '->' in entitlement rule " + declaration);
+        }
+
+        String pattern = declaration.substring(0, index).trim();
+        String targetPart = declaration.substring(index + 2).trim();
+
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("Missing pattern in entitlement rule " + declaration);
+        }
+
+        String[] segments = split(pattern);
+
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].isEmpty()) {
+                throw new IllegalArgumentException("Empty segment in entitlement rule " + declaration);
+            }
+
+            if (PREFIX_WILDCARD.equals(segments[i]) && (i < (segments.length - 1))) {
+                throw new IllegalArgumentException("'**' is not the last segment in entitlement rule " +
+                        declaration);
+            }
+        }
+
+        String targetName = null;
+
+        index = targetPart.indexOf(StringPool.COLON);
+
+        if (index >= 0) {
+            targetName = targetPart.substring(index + 1).trim();
+            targetPart = targetPart.substring(0, index).trim();
+
+            if (targetName.isEmpty()) {
+                targetName = null;
+            }
+        }
+
+        ShibbolethAttributeTarget target = ShibbolethAttributeTarget.parse(targetPart);
+
+        if ((target != ShibbolethAttributeTarget.AFFILIATION) && (target != ShibbolethAttributeTarget.GROUP) &&
+                (target != ShibbolethAttributeTarget.ORGANIZATION) &&
+                (target != ShibbolethAttributeTarget.USER_GROUP)) {
+
+            throw new IllegalArgumentException("Unknown target '" + targetPart + "' in entitlement rule " +
+                    declaration);
+        }
+
+        return new ShibbolethEntitlementRule(pattern, segments, target, targetName);
+    }
+
+    /**
+     * Splits an entitlement or pattern into its segments. The scheme and the
+     * namespace ID of a URN are case insensitive and are returned in lower
+     * case.
+     */
+    public static String[] split(String value) {
+        List<String> segments = new ArrayList<>();
+
+        int start = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == ':') {
+                segments.add(value.substring(start, i));
+
+                start = i + 1;
+            }
+        }
+
+        segments.add(value.substring(start));
+
+        if ((segments.size() > 1) && "urn".equalsIgnoreCase(segments.get(0))) {
+            segments.set(0, "urn");
+            segments.set(1, StringUtil.toLowerCase(segments.get(1)));
+        }
+
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * Returns the name of the role, site, user group or organization the
+     * entitlement maps to
+     */
+    public String getName(String entitlement) {
+        if (_targetName != null) {
+            return _targetName;
+        }
+
+        String name = entitlement.substring(entitlement.lastIndexOf(':') + 1);
+
+        if (Validator.isNull(name)) {
+            return null;
+        }
+
+        return name;
+    }
+
+    public String getPattern() {
+        return _pattern;
+    }
+
+    public ShibbolethAttributeTarget getTarget() {
+        return _target;
+    }
+
+    public String getTargetName() {
+        return _targetName;
+    }
+
+    /**
+     * Whether the pattern ends with <code>**</code>
+     */
+    public boolean isPrefix() {
+        return PREFIX_WILDCARD.equals(_segments[_segments.length - 1]);
+    }
+
+    @Override
+    public String toString() {
+        String target = _target.getName();
+
+        if (_target == ShibbolethAttributeTarget.AFFILIATION) {
+            target = "role";
+        } else if (_target == ShibbolethAttributeTarget.GROUP) {
+            target = "site";
+        }
+
+        if (_targetName == null) {
+            return _pattern + " -> " + target;
+        }
+
+        return _pattern + " -> " + target + ':' + _targetName;
+    }
+
+    String[] getSegments() {
+        return _segments;
+    }
+
+    private ShibbolethEntitlementRule(
+            String pattern, String[] segments, ShibbolethAttributeTarget target, String targetName) {
+
+        _pattern = pattern;
+        _segments = segments;
+        _target = target;
+        _targetName = targetName;
+    }
+
+    private final String _pattern;
+    private final String[] _segments;
+    private final ShibbolethAttributeTarget _target;
+    private final String _targetName;
+
+}
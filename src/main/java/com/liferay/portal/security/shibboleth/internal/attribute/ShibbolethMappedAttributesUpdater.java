@@ -0,0 +1,74 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.expando.kernel.model.ExpandoBridge;
+import com.liferay.expando.kernel.model.ExpandoColumnConstants;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import org.osgi.service.component.annotations.Component;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Applies the attributes mapped to custom fields to a user.
+ * <p/>
+ * Custom fields must exist on the user; values are only written when they
+ * differ from the stored ones. Site memberships are synchronized by the
+ * membership synchronizer.
+ */
+@Component(immediate = true, service = ShibbolethMappedAttributesUpdater.class)
+public class ShibbolethMappedAttributesUpdater {
+
+    public void update(User user, ShibbolethAttributes attributes) throws Exception {
+        updateExpandoValues(user, attributes.getExpandoValues());
+    }
+
+    private void updateExpandoValues(User user, Map<String, String[]> expandoValues) {
+        if (expandoValues.isEmpty()) {
+            return;
+        }
+
+        ExpandoBridge expandoBridge = user.getExpandoBridge();
+
+        for (Map.Entry<String, String[]> entry : expandoValues.entrySet()) {
+            String name = entry.getKey();
+
+            if (!expandoBridge.hasAttribute(name)) {
+                _log.warn("Custom field '" + name + "' of users does not exist");
+
+                continue;
+            }
+
+            String[] values = entry.getValue();
+
+            Serializable value;
+
+            if (expandoBridge.getAttributeType(name) == ExpandoColumnConstants.STRING_ARRAY) {
+                value = values;
+            } else {
+                value = StringUtil.merge(values, StringPool.COMMA);
+            }
+
+            Serializable currentValue = expandoBridge.getAttribute(name, false);
+
+            if ((currentValue instanceof String[]) && (value instanceof String[])) {
+                if (Arrays.equals((String[]) currentValue, (String[]) value)) {
+                    continue;
+                }
+            } else if (value.equals(currentValue)) {
+                continue;
+            }
+
+            _log.debug("User [" + user.getScreenName() + "]: update custom field " + name);
+
+            expandoBridge.setAttribute(name, value, false);
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethMappedAttributesUpdater.class);
+
+}
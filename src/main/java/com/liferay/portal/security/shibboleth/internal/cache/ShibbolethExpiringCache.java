@@ -0,0 +1,116 @@
+package com.liferay.portal.security.shibboleth.internal.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * A small concurrent cache with an upper bound on its size and an optional
+ * time to live per entry.
+ * <p/>
+ * When the bound is exceeded, expired entries are purged first and then
+ * arbitrary entries are dropped until the cache is back below 90% of its
+ * capacity. That is good enough for the lookup caches of this plugin, which
+ * are rebuilt cheaply from the database.
+ */
+public class ShibbolethExpiringCache<K, V> {
+
+    public ShibbolethExpiringCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+
+        _maxSize = maxSize;
+    }
+
+    public void clear() {
+        _entries.clear();
+    }
+
+    public V get(K key) {
+        Entry<V> entry = _entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.isExpired(System.currentTimeMillis())) {
+            _entries.remove(key, entry);
+
+            return null;
+        }
+
+        return entry._value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, 0);
+    }
+
+    /**
+     * @param ttl the time to live in milliseconds, <code>0</code> or less keeps
+     *            the entry until it is removed or evicted
+     */
+    public void put(K key, V value, long ttl) {
+        long expirationTime = Long.MAX_VALUE;
+
+        if (ttl > 0) {
+            expirationTime = System.currentTimeMillis() + ttl;
+        }
+
+        _entries.put(key, new Entry<>(value, expirationTime));
+
+        if (_entries.size() > _maxSize) {
+            evict();
+        }
+    }
+
+    public void remove(K key) {
+        _entries.remove(key);
+    }
+
+    public void removeIf(Predicate<? super K> predicate) {
+        _entries.keySet().removeIf(predicate);
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    protected void evict() {
+        long now = System.currentTimeMillis();
+
+        _entries.values().removeIf(entry -> entry.isExpired(now));
+
+        int targetSize = _maxSize - (_maxSize / 10);
+
+        Iterator<Map.Entry<K, Entry<V>>> iterator = _entries.entrySet().iterator();
+
+        while ((_entries.size() > targetSize) && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private final ConcurrentMap<K, Entry<V>> _entries = new ConcurrentHashMap<>();
+    private final int _maxSize;
+
+    private static class Entry<V> {
+
+        public Entry(V value, long expirationTime) {
+            _value = value;
+            _expirationTime = expirationTime;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= _expirationTime;
+        }
+
+        private final long _expirationTime;
+        private final V _value;
+
+    }
+
+}
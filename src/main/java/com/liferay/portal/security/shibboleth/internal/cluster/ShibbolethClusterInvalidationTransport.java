@@ -0,0 +1,92 @@
+package com.liferay.portal.security.shibboleth.internal.cluster;
+
+import com.liferay.portal.kernel.cluster.ClusterExecutor;
+import com.liferay.portal.kernel.cluster.ClusterRequest;
+import com.liferay.portal.kernel.util.MethodHandler;
+import com.liferay.portal.kernel.util.MethodKey;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sends the invalidations through the portal's cluster link as a fire and
+ * forget multicast request that calls {@link #receive} on the other nodes.
+ * <p/>
+ * The request carries the invalidations as plain arrays, so the other nodes
+ * do not need to resolve any plugin class other than this one to read it.
+ * Nothing is sent while the cluster link is disabled.
+ */
+@Component(immediate = true, service = ShibbolethInvalidationTransport.class)
+public class ShibbolethClusterInvalidationTransport implements ShibbolethInvalidationTransport {
+
+    /**
+     * Passes the invalidations sent by another node to the receiver of this
+     * node. Called by the cluster link.
+     */
+    public static void receive(String nodeId, String[] types, long[] ids, long[] sequences) {
+        Consumer<List<ShibbolethInvalidation>> receiver = _receiver;
+
+        if (receiver == null) {
+            return;
+        }
+
+        List<ShibbolethInvalidation> invalidations = new ArrayList<>(types.length);
+
+        for (int i = 0; i < types.length; i++) {
+            invalidations.add(new ShibbolethInvalidation(
+                    ShibbolethInvalidationType.valueOf(types[i]), ids[i], nodeId, sequences[i]));
+        }
+
+        receiver.accept(invalidations);
+    }
+
+    @Override
+    public void send(List<ShibbolethInvalidation> invalidations) throws Exception {
+        if (invalidations.isEmpty() || !_clusterExecutor.isEnabled()) {
+            return;
+        }
+
+        String[] types = new String[invalidations.size()];
+        long[] ids = new long[invalidations.size()];
+        long[] sequences = new long[invalidations.size()];
+
+        for (int i = 0; i < types.length; i++) {
+            ShibbolethInvalidation invalidation = invalidations.get(i);
+
+            types[i] = invalidation.getType().name();
+            ids[i] = invalidation.getId();
+            sequences[i] = invalidation.getSequence();
+        }
+
+        MethodHandler methodHandler = new MethodHandler(
+                _receiveMethodKey, invalidations.get(0).getNodeId(), types, ids, sequences);
+
+        ClusterRequest clusterRequest = ClusterRequest.createMulticastRequest(methodHandler, true);
+
+        clusterRequest.setFireAndForget(true);
+
+        _clusterExecutor.execute(clusterRequest);
+    }
+
+    @Override
+    public void setReceiver(Consumer<List<ShibbolethInvalidation>> receiver) {
+        _receiver = receiver;
+    }
+
+    @Reference(unbind = "-")
+    protected void setClusterExecutor(ClusterExecutor clusterExecutor) {
+        _clusterExecutor = clusterExecutor;
+    }
+
+    private static final MethodKey _receiveMethodKey = new MethodKey(
+            ShibbolethClusterInvalidationTransport.class, "receive", String.class, String[].class, long[].class,
+            long[].class);
+
+    private static volatile Consumer<List<ShibbolethInvalidation>> _receiver;
+
+    private ClusterExecutor _clusterExecutor;
+
+}
@@ -0,0 +1,56 @@
+package com.liferay.portal.security.shibboleth.internal.cluster;
+
+import com.liferay.portal.kernel.util.StringPool;
+
+/**
+ * An invalidation of the cached entries of a company or user, versioned by
+ * the node that published it.
+ * <p/>
+ * The sequence grows with every invalidation a node publishes, so a receiving
+ * node applies an invalidation only if it has not seen the same or a later
+ * one of that node for the same key yet.
+ */
+public final class ShibbolethInvalidation {
+
+    public ShibbolethInvalidation(ShibbolethInvalidationType type, long id, String nodeId, long sequence) {
+        _type = type;
+        _id = id;
+        _nodeId = nodeId;
+        _sequence = sequence;
+    }
+
+    public long getId() {
+        return _id;
+    }
+
+    /**
+     * Returns the key of the invalidated entries, the same for all
+     * invalidations of a company's or user's entries of one type
+     */
+    public String getKey() {
+        return _type.name() + StringPool.POUND + _id;
+    }
+
+    public String getNodeId() {
+        return _nodeId;
+    }
+
+    public long getSequence() {
+        return _sequence;
+    }
+
+    public ShibbolethInvalidationType getType() {
+        return _type;
+    }
+
+    @Override
+    public String toString() {
+        return getKey() + StringPool.AT + _nodeId + StringPool.COLON + _sequence;
+    }
+
+    private final long _id;
+    private final String _nodeId;
+    private final long _sequence;
+    private final ShibbolethInvalidationType _type;
+
+}
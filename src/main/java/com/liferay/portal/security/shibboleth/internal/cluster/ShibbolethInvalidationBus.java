@@ -0,0 +1,309 @@
+package com.liferay.portal.security.shibboleth.internal.cluster;
+
+import com.liferay.portal.configuration.metatype.bnd.util.ConfigurableUtil;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.transaction.TransactionCommitCallbackUtil;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethInvalidationBusConfiguration;
+import com.liferay.portal.security.shibboleth.internal.cache.ShibbolethExpiringCache;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityRevocations;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethLdapImportCache;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleIndex;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleNameCache;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the configuration, LDAP import, role and identity caches of the plugin
+ * consistent across the cluster nodes.
+ * <p/>
+ * An invalidation is applied to the caches of this node right away and again
+ * when the current transaction commits, so a concurrent request cannot cache
+ * the uncommitted state for good. After the commit it is queued for the other
+ * nodes. Queued invalidations of the same key are coalesced into the latest
+ * one, and the queue is sent in batches every flush interval or as soon as a
+ * batch is full. Every node stamps its invalidations with its own sequence, so
+ * the receiving nodes skip duplicated and overtaken ones.
+ */
+@Component(
+        immediate = true,
+        configurationPid = "com.liferay.portal.security.shibboleth.configuration.ShibbolethInvalidationBusConfiguration",
+        service = ShibbolethInvalidationBus.class
+)
+public class ShibbolethInvalidationBus {
+
+    public long getCoalescedCount() {
+        return _coalescedCount.sum();
+    }
+
+    public String getNodeId() {
+        return _nodeId;
+    }
+
+    public int getPendingCount() {
+        return _pendingInvalidations.size();
+    }
+
+    public long getReceivedCount() {
+        return _receivedCount.sum();
+    }
+
+    public long getSentCount() {
+        return _sentCount.sum();
+    }
+
+    public long getStaleCount() {
+        return _staleCount.sum();
+    }
+
+    /**
+     * Invalidates the cached entries of the company or user on this node and,
+     * once the current transaction commits, on the other nodes
+     */
+    public void invalidate(ShibbolethInvalidationType type, long id) {
+        apply(type, id);
+
+        TransactionCommitCallbackUtil.registerCallback(() -> {
+            apply(type, id);
+            publish(type, id);
+
+            return null;
+        });
+    }
+
+    /**
+     * Applies the invalidations sent by another node, skipping the ones that
+     * are not newer than the last applied invalidation of the same node and key
+     */
+    public void receive(List<ShibbolethInvalidation> invalidations) {
+        for (ShibbolethInvalidation invalidation : invalidations) {
+            if (_nodeId.equals(invalidation.getNodeId())) {
+                continue;
+            }
+
+            String versionKey = invalidation.getNodeId() + invalidation.getKey();
+
+            Long appliedSequence = _appliedSequences.get(versionKey);
+
+            if ((appliedSequence != null) && (appliedSequence >= invalidation.getSequence())) {
+                _staleCount.increment();
+
+                continue;
+            }
+
+            _appliedSequences.put(versionKey, invalidation.getSequence(), _APPLIED_SEQUENCE_TTL);
+
+            apply(invalidation.getType(), invalidation.getId());
+
+            _receivedCount.increment();
+        }
+    }
+
+    @Activate
+    @Modified
+    protected void activate(Map<String, Object> properties) {
+        deactivate();
+
+        ShibbolethInvalidationBusConfiguration configuration = ConfigurableUtil.createConfigurable(
+                ShibbolethInvalidationBusConfiguration.class, properties);
+
+        _maxBatchSize = Math.max(1, configuration.maxBatchSize());
+
+        long flushInterval = Math.max(1, configuration.flushInterval());
+
+        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Shibboleth Invalidation Bus");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                });
+
+        scheduledExecutorService.scheduleWithFixedDelay(
+                this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        _scheduledExecutorService = scheduledExecutorService;
+
+        _shibbolethInvalidationTransport.setReceiver(this::receive);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ScheduledExecutorService scheduledExecutorService = _scheduledExecutorService;
+
+        if (scheduledExecutorService == null) {
+            return;
+        }
+
+        _scheduledExecutorService = null;
+
+        _shibbolethInvalidationTransport.setReceiver(null);
+
+        scheduledExecutorService.shutdown();
+
+        try {
+            scheduledExecutorService.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethConfigurationCache(ShibbolethConfigurationCache shibbolethConfigurationCache) {
+        _shibbolethConfigurationCache = shibbolethConfigurationCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethIdentityRevocations(
+            ShibbolethIdentityRevocations shibbolethIdentityRevocations) {
+
+        _shibbolethIdentityRevocations = shibbolethIdentityRevocations;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethInvalidationTransport(
+            ShibbolethInvalidationTransport shibbolethInvalidationTransport) {
+
+        _shibbolethInvalidationTransport = shibbolethInvalidationTransport;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethLdapImportCache(ShibbolethLdapImportCache shibbolethLdapImportCache) {
+        _shibbolethLdapImportCache = shibbolethLdapImportCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleIndex(ShibbolethRoleIndex shibbolethRoleIndex) {
+        _shibbolethRoleIndex = shibbolethRoleIndex;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleNameCache(ShibbolethRoleNameCache shibbolethRoleNameCache) {
+        _shibbolethRoleNameCache = shibbolethRoleNameCache;
+    }
+
+    private void apply(ShibbolethInvalidationType type, long id) {
+        switch (type) {
+            case COMPANY_CONFIGURATION:
+                _shibbolethConfigurationCache.invalidate(id);
+                _shibbolethLdapImportCache.invalidate(id);
+
+                break;
+            case COMPANY_ROLES:
+                _shibbolethRoleIndex.invalidate(id);
+                _shibbolethRoleNameCache.invalidate(id);
+
+                break;
+            case USER:
+                _shibbolethIdentityRevocations.revoke(id);
+
+                break;
+        }
+    }
+
+    private synchronized void flush() {
+        List<ShibbolethInvalidation> batch = new ArrayList<>(Math.min(_maxBatchSize, _pendingInvalidations.size()));
+
+        Iterator<ShibbolethInvalidation> iterator = _pendingInvalidations.values().iterator();
+
+        while (iterator.hasNext()) {
+            ShibbolethInvalidation invalidation = iterator.next();
+
+            // an invalidation replaced in the meantime stays queued for the
+            // next batch
+
+            if (_pendingInvalidations.remove(invalidation.getKey(), invalidation)) {
+                batch.add(invalidation);
+            }
+
+            if ((batch.size() >= _maxBatchSize) || !iterator.hasNext()) {
+                send(batch);
+
+                batch.clear();
+            }
+        }
+    }
+
+    private void publish(ShibbolethInvalidationType type, long id) {
+        ShibbolethInvalidation invalidation = new ShibbolethInvalidation(
+                type, id, _nodeId, _sequence.incrementAndGet());
+
+        if (_pendingInvalidations.put(invalidation.getKey(), invalidation) != null) {
+
+            // the key is still queued, the replaced invalidation is covered
+            // by this one
+
+            _coalescedCount.increment();
+        }
+
+        if (_pendingInvalidations.size() < _maxBatchSize) {
+            return;
+        }
+
+        ScheduledExecutorService scheduledExecutorService = _scheduledExecutorService;
+
+        if (scheduledExecutorService == null) {
+            flush();
+
+            return;
+        }
+
+        scheduledExecutorService.execute(this::flush);
+    }
+
+    private void send(List<ShibbolethInvalidation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            _shibbolethInvalidationTransport.send(new ArrayList<>(batch));
+
+            _sentCount.add(batch.size());
+        } catch (Exception e) {
+            _log.error("Unable to send " + batch.size() + " invalidations to the other cluster nodes", e);
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethInvalidationBus.class);
+
+    private static final long _APPLIED_SEQUENCE_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private final ShibbolethExpiringCache<String, Long> _appliedSequences = new ShibbolethExpiringCache<>(10000);
+    private final LongAdder _coalescedCount = new LongAdder();
+    private volatile int _maxBatchSize = 500;
+    private final String _nodeId = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, ShibbolethInvalidation> _pendingInvalidations = new ConcurrentHashMap<>();
+    private final LongAdder _receivedCount = new LongAdder();
+    private volatile ScheduledExecutorService _scheduledExecutorService;
+    private final AtomicLong _sequence = new AtomicLong();
+    private final LongAdder _sentCount = new LongAdder();
+    private ShibbolethConfigurationCache _shibbolethConfigurationCache;
+    private ShibbolethIdentityRevocations _shibbolethIdentityRevocations;
+    private ShibbolethInvalidationTransport _shibbolethInvalidationTransport;
+    private ShibbolethLdapImportCache _shibbolethLdapImportCache;
+    private ShibbolethRoleIndex _shibbolethRoleIndex;
+    private ShibbolethRoleNameCache _shibbolethRoleNameCache;
+    private final LongAdder _staleCount = new LongAdder();
+
+}
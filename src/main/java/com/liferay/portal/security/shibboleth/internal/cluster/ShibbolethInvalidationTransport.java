@@ -0,0 +1,28 @@
+package com.liferay.portal.security.shibboleth.internal.cluster;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Carries batches of invalidations from the {@link ShibbolethInvalidationBus}
+ * of a node to the buses of the other nodes.
+ * <p/>
+ * Delivery is best effort: a batch may be lost, delivered twice or overtaken
+ * by a later one. The bus tolerates all of that, since applying an
+ * invalidation again only evicts entries that are loaded again.
+ */
+public interface ShibbolethInvalidationTransport {
+
+    /**
+     * Sends the invalidations published by this node to the other nodes
+     */
+    public void send(List<ShibbolethInvalidation> invalidations) throws Exception;
+
+    /**
+     * Sets the receiver of the batches sent by the other nodes
+     *
+     * @param receiver the receiver or <code>null</code> to stop receiving
+     */
+    public void setReceiver(Consumer<List<ShibbolethInvalidation>> receiver);
+
+}
@@ -0,0 +1,25 @@
+package com.liferay.portal.security.shibboleth.internal.cluster;
+
+/**
+ * The plugin caches an invalidation evicts entries from, with the kind of ID
+ * that selects the entries.
+ */
+public enum ShibbolethInvalidationType {
+
+    /**
+     * The cached Shibboleth configuration and LDAP import outcomes of the
+     * company with the ID
+     */
+    COMPANY_CONFIGURATION,
+
+    /**
+     * The cached role IDs and role names of the company with the ID
+     */
+    COMPANY_ROLES,
+
+    /**
+     * The resolved identities of the user with the ID
+     */
+    USER
+
+}
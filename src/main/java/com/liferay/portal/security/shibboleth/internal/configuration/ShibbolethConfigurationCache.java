@@ -0,0 +1,109 @@
+package com.liferay.portal.security.shibboleth.internal.configuration;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.module.configuration.ConfigurationException;
+import com.liferay.portal.kernel.module.configuration.ConfigurationProvider;
+import com.liferay.portal.kernel.settings.CompanyServiceSettingsLocator;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
+import com.liferay.portal.security.shibboleth.constants.ShibbolethConstants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one {@link ShibbolethConfigurationSnapshot} per company.
+ * <p/>
+ * A snapshot is resolved through the {@link ConfigurationProvider} the first
+ * time a company asks for it and is then served from memory. System-wide
+ * configuration changes clear every snapshot ({@link #activate()} is also the
+ * modified callback), company-level changes are evicted by
+ * {@link com.liferay.portal.security.shibboleth.internal.model.listener.ShibbolethPortletPreferencesModelListener}.
+ */
+@Component(
+        immediate = true,
+        configurationPid = "com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration",
+        service = ShibbolethConfigurationCache.class
+)
+public class ShibbolethConfigurationCache {
+
+    public ShibbolethConfigurationSnapshot getConfiguration(long companyId) throws ConfigurationException {
+        ShibbolethConfigurationSnapshot snapshot = _snapshots.get(companyId);
+
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        try {
+            // computeIfAbsent blocks a concurrent invalidate() of the same
+            // company until the snapshot is stored, so a stale value is never
+            // left behind
+
+            return _snapshots.computeIfAbsent(companyId, this::loadSnapshot);
+        } catch (ConfigurationLoadException e) {
+            throw e.getConfigurationException();
+        }
+    }
+
+    public void invalidate(long companyId) {
+        if ((_snapshots.remove(companyId) != null) && _log.isDebugEnabled()) {
+            _log.debug("Invalidated Shibboleth configuration of company " + companyId);
+        }
+    }
+
+    public void invalidateAll() {
+        _snapshots.clear();
+    }
+
+    @Activate
+    @Modified
+    protected void activate() {
+        invalidateAll();
+    }
+
+    @Reference(unbind = "-")
+    protected void setConfigurationProvider(
+            ConfigurationProvider configurationProvider) {
+
+        _configurationProvider = configurationProvider;
+    }
+
+    private ShibbolethConfigurationSnapshot loadSnapshot(long companyId) {
+        try {
+            ShibbolethConfiguration configuration = _configurationProvider.getConfiguration(
+                    ShibbolethConfiguration.class,
+                    new CompanyServiceSettingsLocator(
+                            companyId, ShibbolethConstants.SERVICE_NAME));
+
+            return new ShibbolethConfigurationSnapshot(companyId, configuration);
+        } catch (ConfigurationException e) {
+            throw new ConfigurationLoadException(e);
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethConfigurationCache.class);
+
+    private ConfigurationProvider _configurationProvider;
+    private final ConcurrentMap<Long, ShibbolethConfigurationSnapshot> _snapshots = new ConcurrentHashMap<>();
+
+    private static class ConfigurationLoadException extends RuntimeException {
+
+        public ConfigurationLoadException(ConfigurationException configurationException) {
+            super(configurationException);
+
+            _configurationException = configurationException;
+        }
+
+        public ConfigurationException getConfigurationException() {
+            return _configurationException;
+        }
+
+        private final ConfigurationException _configurationException;
+
+    }
+
+}
@@ -0,0 +1,321 @@
+package com.liferay.portal.security.shibboleth.internal.configuration;
+
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.Validator;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributeMappingPlan;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityTokenCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of a company's {@link ShibbolethConfiguration}.
+ * <p/>
+ * Values are read once from the configuration proxy and normalized: header
+ * names and the role subtype are trimmed, missing strings become blank and
+ * empty login/logout URLs fall back to their defaults. Consumers can therefore
+ * use the values as-is on every request. The attribute mappings are compiled
+ * into their extraction plan and the identity token secret into its codec here
+ * as well.
+ */
+public final class ShibbolethConfigurationSnapshot implements ShibbolethConfiguration {
+
+    public static final String DEFAULT_LOGIN_URL = "/c/portal/login/shibboleth";
+
+    public static final String DEFAULT_LOGOUT_URL = "/Shibboleth.sso/Logout?return=/";
+
+    public ShibbolethConfigurationSnapshot(long companyId, ShibbolethConfiguration configuration) {
+        _companyId = companyId;
+        _enabled = configuration.enabled();
+        _logoutEnabled = configuration.logoutEnabled();
+        _headersEnabled = configuration.headersEnabled();
+        _affiliationTruncateEnabled = configuration.affiliationTruncateEnabled();
+        _screenameTransformEnabled = configuration.screenameTransformEnabled();
+        _importFromLDAP = configuration.importFromLDAP();
+        _userHeader = normalize(configuration.userHeader());
+        _userEmailHeader = normalize(configuration.userEmailHeader());
+        _firstname = normalize(configuration.firstname());
+        _surname = normalize(configuration.surname());
+        _userHeaderAffiliation = normalize(configuration.userHeaderAffiliation());
+        _identityProviderHeader = normalize(configuration.identityProviderHeader());
+        _persistentIdHeader = normalize(configuration.persistentIdHeader());
+        _attributeMappings = normalize(configuration.attributeMappings());
+        _entitlementRules = normalize(configuration.entitlementRules());
+        _autoCreateUsers = configuration.autoCreateUsers();
+        _autoUpdateUsers = configuration.autoUpdateUsers();
+        _autoCreateRole = configuration.autoCreateRole();
+        _autoAssignUserRole = configuration.autoAssignUserRole();
+        _autoAssignUserRoleSubType = normalize(configuration.autoAssignUserRoleSubType());
+        _clusterProvisioningLockEnabled = configuration.clusterProvisioningLockEnabled();
+        _asyncUserUpdatesEnabled = configuration.asyncUserUpdatesEnabled();
+        _concurrentReadsEnabled = configuration.concurrentReadsEnabled();
+        _synchronizationMaxAge = configuration.synchronizationMaxAge();
+        _provisioningRetryUrl = normalize(configuration.provisioningRetryUrl());
+        _identityTokenEnabled = configuration.identityTokenEnabled();
+        _identityTokenSecret = normalize(configuration.identityTokenSecret());
+        _identityTokenMaxAge = configuration.identityTokenMaxAge();
+        _identityMappingEnabled = configuration.identityMappingEnabled();
+        _logoutUrl = normalize(configuration.logoutUrl(), DEFAULT_LOGOUT_URL);
+        _loginUrl = normalize(configuration.loginUrl(), DEFAULT_LOGIN_URL);
+        _identityProviders = normalize(configuration.identityProviders());
+        _attributeMappingPlan = ShibbolethAttributeMappingPlan.compile(this);
+
+        if (_identityTokenEnabled && !_identityTokenSecret.isEmpty() && (_identityTokenMaxAge > 0)) {
+            _identityTokenCodec = new ShibbolethIdentityTokenCodec(
+                    companyId, _identityTokenSecret, _identityTokenMaxAge);
+        } else {
+            _identityTokenCodec = null;
+        }
+    }
+
+    public ShibbolethAttributeMappingPlan getAttributeMappingPlan() {
+        return _attributeMappingPlan;
+    }
+
+    public long getCompanyId() {
+        return _companyId;
+    }
+
+    /**
+     * Returns the codec of the identity tokens
+     *
+     * @return the codec or <code>null</code> if the attributes are stored in
+     *         the session, because the identity token is disabled or has no
+     *         secret
+     */
+    public ShibbolethIdentityTokenCodec getIdentityTokenCodec() {
+        return _identityTokenCodec;
+    }
+
+    @Override
+    public boolean enabled() {
+        return _enabled;
+    }
+
+    @Override
+    public boolean logoutEnabled() {
+        return _logoutEnabled;
+    }
+
+    @Override
+    public boolean headersEnabled() {
+        return _headersEnabled;
+    }
+
+    @Override
+    public boolean affiliationTruncateEnabled() {
+        return _affiliationTruncateEnabled;
+    }
+
+    @Override
+    public boolean screenameTransformEnabled() {
+        return _screenameTransformEnabled;
+    }
+
+    @Override
+    public boolean importFromLDAP() {
+        return _importFromLDAP;
+    }
+
+    @Override
+    public String userHeader() {
+        return _userHeader;
+    }
+
+    @Override
+    public String userEmailHeader() {
+        return _userEmailHeader;
+    }
+
+    @Override
+    public String firstname() {
+        return _firstname;
+    }
+
+    @Override
+    public String surname() {
+        return _surname;
+    }
+
+    @Override
+    public String userHeaderAffiliation() {
+        return _userHeaderAffiliation;
+    }
+
+    @Override
+    public String identityProviderHeader() {
+        return _identityProviderHeader;
+    }
+
+    @Override
+    public String persistentIdHeader() {
+        return _persistentIdHeader;
+    }
+
+    @Override
+    public String[] attributeMappings() {
+        return _attributeMappings.clone();
+    }
+
+    @Override
+    public String[] entitlementRules() {
+        return _entitlementRules.clone();
+    }
+
+    @Override
+    public boolean autoCreateUsers() {
+        return _autoCreateUsers;
+    }
+
+    @Override
+    public boolean autoUpdateUsers() {
+        return _autoUpdateUsers;
+    }
+
+    @Override
+    public boolean autoCreateRole() {
+        return _autoCreateRole;
+    }
+
+    @Override
+    public boolean autoAssignUserRole() {
+        return _autoAssignUserRole;
+    }
+
+    @Override
+    public String autoAssignUserRoleSubType() {
+        return _autoAssignUserRoleSubType;
+    }
+
+    @Override
+    public boolean clusterProvisioningLockEnabled() {
+        return _clusterProvisioningLockEnabled;
+    }
+
+    @Override
+    public boolean asyncUserUpdatesEnabled() {
+        return _asyncUserUpdatesEnabled;
+    }
+
+    @Override
+    public boolean concurrentReadsEnabled() {
+        return _concurrentReadsEnabled;
+    }
+
+    @Override
+    public int synchronizationMaxAge() {
+        return _synchronizationMaxAge;
+    }
+
+    @Override
+    public String provisioningRetryUrl() {
+        return _provisioningRetryUrl;
+    }
+
+    @Override
+    public boolean identityTokenEnabled() {
+        return _identityTokenEnabled;
+    }
+
+    @Override
+    public String identityTokenSecret() {
+        return _identityTokenSecret;
+    }
+
+    @Override
+    public int identityTokenMaxAge() {
+        return _identityTokenMaxAge;
+    }
+
+    @Override
+    public boolean identityMappingEnabled() {
+        return _identityMappingEnabled;
+    }
+
+    @Override
+    public String logoutUrl() {
+        return _logoutUrl;
+    }
+
+    @Override
+    public String loginUrl() {
+        return _loginUrl;
+    }
+
+    @Override
+    public String[] identityProviders() {
+        return _identityProviders.clone();
+    }
+
+    private static String[] normalize(String[] values) {
+        List<String> normalizedValues = new ArrayList<>();
+
+        if (values != null) {
+            for (String value : values) {
+                value = normalize(value);
+
+                if (!value.isEmpty()) {
+                    normalizedValues.add(value);
+                }
+            }
+        }
+
+        return normalizedValues.toArray(new String[normalizedValues.size()]);
+    }
+
+    private static String normalize(String value) {
+        return normalize(value, StringPool.BLANK);
+    }
+
+    private static String normalize(String value, String defaultValue) {
+        if (Validator.isNull(value)) {
+            return defaultValue;
+        }
+
+        value = value.trim();
+
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+
+        return value;
+    }
+
+    private final boolean _affiliationTruncateEnabled;
+    private final boolean _asyncUserUpdatesEnabled;
+    private final ShibbolethAttributeMappingPlan _attributeMappingPlan;
+    private final String[] _attributeMappings;
+    private final boolean _autoAssignUserRole;
+    private final String _autoAssignUserRoleSubType;
+    private final boolean _autoCreateRole;
+    private final boolean _autoCreateUsers;
+    private final boolean _autoUpdateUsers;
+    private final boolean _clusterProvisioningLockEnabled;
+    private final long _companyId;
+    private final boolean _concurrentReadsEnabled;
+    private final boolean _enabled;
+    private final String[] _entitlementRules;
+    private final String _firstname;
+    private final boolean _headersEnabled;
+    private final boolean _identityMappingEnabled;
+    private final String _identityProviderHeader;
+    private final String[] _identityProviders;
+    private final ShibbolethIdentityTokenCodec _identityTokenCodec;
+    private final boolean _identityTokenEnabled;
+    private final int _identityTokenMaxAge;
+    private final String _identityTokenSecret;
+    private final boolean _importFromLDAP;
+    private final String _loginUrl;
+    private final boolean _logoutEnabled;
+    private final String _logoutUrl;
+    private final String _persistentIdHeader;
+    private final String _provisioningRetryUrl;
+    private final boolean _screenameTransformEnabled;
+    private final String _surname;
+    private final int _synchronizationMaxAge;
+    private final String _userEmailHeader;
+    private final String _userHeader;
+    private final String _userHeaderAffiliation;
+
+}
@@ -0,0 +1,183 @@
+package com.liferay.portal.security.shibboleth.internal.identity;
+
+import com.liferay.portal.kernel.dao.jdbc.DataAccess;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.Release;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Maps the identity provider and persistent ID of a login to the ID of its
+ * user, in the table <code>Shibboleth_IdentityMapping</code>.
+ * <p/>
+ * The table is keyed by the company ID and a SHA-256 digest of the entity ID
+ * of the identity provider and the persistent ID, so finding a user is a
+ * single primary key read whatever the length of the IDs. The IDs themselves
+ * are stored truncated, for reference only. The table is created by
+ * {@link com.liferay.portal.security.shibboleth.internal.upgrade.v1_0_0.UpgradeIdentityMapping}
+ * when the module is deployed; the store is not activated before that upgrade
+ * has run.
+ */
+@Component(immediate = true, service = ShibbolethIdentityMappingStore.class)
+public class ShibbolethIdentityMappingStore {
+
+    public static final String TABLE_NAME = "Shibboleth_IdentityMapping";
+
+    /**
+     * Returns the primary key of the mapping of the identity provider and
+     * persistent ID in their company
+     */
+    public static String getMappingKey(String identityProvider, String persistentId) {
+        MessageDigest messageDigest;
+
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+
+        // the entity ID cannot contain the separator, so different pairs
+        // never digest the same input
+
+        messageDigest.update(identityProvider.getBytes(StandardCharsets.UTF_8));
+        messageDigest.update((byte) 0);
+        messageDigest.update(persistentId.getBytes(StandardCharsets.UTF_8));
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(messageDigest.digest());
+    }
+
+    /**
+     * Maps the identity provider and persistent ID to the user, unless they
+     * are mapped already
+     * <p/>
+     * The mapping is looked up before it is inserted rather than the failed
+     * insert caught, since a failed statement aborts the surrounding
+     * transaction on some databases, e.g. PostgreSQL. A concurrent mapping of
+     * the same IDs fails the insert.
+     */
+    public void addUserId(long companyId, String identityProvider, String persistentId, long userId)
+            throws Exception {
+
+        if (getUserId(companyId, identityProvider, persistentId) > 0) {
+            if (_log.isDebugEnabled()) {
+                _log.debug("Persistent ID " + persistentId + " of " + identityProvider + " is mapped already");
+            }
+
+            return;
+        }
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = DataAccess.getConnection();
+
+            preparedStatement = connection.prepareStatement(
+                    "insert into " + TABLE_NAME + " (companyId, mappingKey, identityProvider, persistentId, " +
+                            "userId, createDate) values (?, ?, ?, ?, ?, ?)");
+
+            preparedStatement.setLong(1, companyId);
+            preparedStatement.setString(2, getMappingKey(identityProvider, persistentId));
+            preparedStatement.setString(3, truncate(identityProvider));
+            preparedStatement.setString(4, truncate(persistentId));
+            preparedStatement.setLong(5, userId);
+            preparedStatement.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+
+            preparedStatement.executeUpdate();
+        } finally {
+            DataAccess.cleanUp(connection, preparedStatement);
+        }
+    }
+
+    /**
+     * Returns the ID of the user the identity provider and persistent ID are
+     * mapped to
+     *
+     * @return the user ID or <code>0</code> if they are not mapped
+     */
+    public long getUserId(long companyId, String identityProvider, String persistentId) throws Exception {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DataAccess.getConnection();
+
+            preparedStatement = connection.prepareStatement(
+                    "select userId from " + TABLE_NAME + " where companyId = ? and mappingKey = ?");
+
+            preparedStatement.setLong(1, companyId);
+            preparedStatement.setString(2, getMappingKey(identityProvider, persistentId));
+
+            resultSet = preparedStatement.executeQuery();
+
+            if (resultSet.next()) {
+                return resultSet.getLong(1);
+            }
+
+            return 0;
+        } finally {
+            DataAccess.cleanUp(connection, preparedStatement, resultSet);
+        }
+    }
+
+    public void removeUserId(long companyId, String identityProvider, String persistentId) throws Exception {
+        executeUpdate(
+                "delete from " + TABLE_NAME + " where companyId = ? and mappingKey = ?", companyId,
+                getMappingKey(identityProvider, persistentId));
+    }
+
+    public void removeUserIds(long userId) throws Exception {
+        executeUpdate("delete from " + TABLE_NAME + " where userId = ?", userId);
+    }
+
+    @Reference(
+            target = "(&(release.bundle.symbolic.name=liferay-shibboleth-plugin)(release.schema.version=1.0.0))",
+            unbind = "-"
+    )
+    protected void setRelease(Release release) {
+    }
+
+    private static String truncate(String value) {
+        if (value.length() <= _MAX_ID_LENGTH) {
+            return value;
+        }
+
+        return value.substring(0, _MAX_ID_LENGTH);
+    }
+
+    private void executeUpdate(String sql, Object... parameters) throws SQLException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = DataAccess.getConnection();
+
+            preparedStatement = connection.prepareStatement(sql);
+
+            for (int i = 0; i < parameters.length; i++) {
+                preparedStatement.setObject(i + 1, parameters[i]);
+            }
+
+            preparedStatement.executeUpdate();
+        } finally {
+            DataAccess.cleanUp(connection, preparedStatement);
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethIdentityMappingStore.class);
+
+    private static final int _MAX_ID_LENGTH = 255;
+
+}
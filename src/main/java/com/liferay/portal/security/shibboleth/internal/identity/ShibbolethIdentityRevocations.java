@@ -0,0 +1,44 @@
+package com.liferay.portal.security.shibboleth.internal.identity;
+
+import com.liferay.portal.security.shibboleth.internal.cache.ShibbolethExpiringCache;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the users whose resolved identities must no longer be trusted
+ * because they have been deleted or deactivated.
+ * <p/>
+ * Every revocation is stamped with the wall-clock time it was applied at on
+ * this node. An identity remembers the time its user was looked up at
+ * ({@link ShibbolethResolvedIdentity#getCreateTime()}), on whichever node
+ * that was, and stays valid only if it was created clearly after the last
+ * revocation of its user; the margin absorbs the clock skew between the nodes
+ * sharing a replicated session. Revocations are kept for an hour. Older ones no longer
+ * need to be tracked, since a resolved identity is only honored while its user
+ * is still active, which the auto login checks against the user itself.
+ */
+@Component(immediate = true, service = ShibbolethIdentityRevocations.class)
+public class ShibbolethIdentityRevocations {
+
+    public static final long CLOCK_SKEW_MARGIN = TimeUnit.SECONDS.toMillis(30);
+
+    public static final long REVOCATION_TTL = TimeUnit.HOURS.toMillis(1);
+
+    public boolean isValid(ShibbolethResolvedIdentity resolvedIdentity) {
+        Long revokeTime = _revokeTimes.get(resolvedIdentity.getUserId());
+
+        if ((revokeTime == null) || (revokeTime < (resolvedIdentity.getCreateTime() - CLOCK_SKEW_MARGIN))) {
+            return true;
+        }
+
+        return false;
+    }
+
+    public void revoke(long userId) {
+        _revokeTimes.put(userId, System.currentTimeMillis(), REVOCATION_TTL);
+    }
+
+    private final ShibbolethExpiringCache<Long, Long> _revokeTimes = new ShibbolethExpiringCache<>(100000);
+
+}
@@ -0,0 +1,381 @@
+package com.liferay.portal.security.shibboleth.internal.identity;
+
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes the Shibboleth attributes of a login into a compact, HMAC-SHA256
+ * signed token, so they can travel with the requests in a cookie instead of
+ * being stored (and replicated) in the HTTP session.
+ * <p/>
+ * The token is the URL-safe Base64 encoding of a version byte, the company ID,
+ * the issue time, the attribute values as length-prefixed UTF-8 strings and
+ * the signature over all of the above. A token is rejected when it is
+ * malformed, signed with another secret, issued for another company or older
+ * than the maximum age.
+ */
+public final class ShibbolethIdentityTokenCodec {
+
+    public static final String COOKIE_NAME = "SHIBBOLETH_IDENTITY";
+
+    /**
+     * The longest token sent as a cookie, leaving room for the cookie name and
+     * attributes within the 4 KB browsers store per cookie
+     */
+    public static final int MAX_TOKEN_LENGTH = 3900;
+
+    /**
+     * Sends the token as a session cookie, which the browser discards when it
+     * is closed. The token itself expires after the maximum age.
+     */
+    public static void addCookie(HttpServletRequest request, HttpServletResponse response, String token) {
+        addCookie(request, response, token, -1);
+    }
+
+    public static String getToken(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+
+        if (cookies == null) {
+            return null;
+        }
+
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                return cookie.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    public static void removeCookie(HttpServletRequest request, HttpServletResponse response) {
+        addCookie(request, response, "", 0);
+    }
+
+    public ShibbolethIdentityTokenCodec(long companyId, String secret, int maxAge) {
+        _companyId = companyId;
+        _key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), _ALGORITHM);
+        _maxAge = maxAge;
+    }
+
+    /**
+     * Returns the attributes carried by the token
+     *
+     * @return the attributes or <code>null</code> if the token is not valid
+     */
+    public ShibbolethAttributes decode(String token, long now) {
+        if ((token == null) || token.isEmpty()) {
+            return null;
+        }
+
+        byte[] bytes;
+
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+
+        if (bytes.length <= _SIGNATURE_LENGTH) {
+            return null;
+        }
+
+        int length = bytes.length - _SIGNATURE_LENGTH;
+
+        byte[] signature = new byte[_SIGNATURE_LENGTH];
+
+        System.arraycopy(bytes, length, signature, 0, _SIGNATURE_LENGTH);
+
+        // verify the signature before reading anything else, so unsigned
+        // content is never parsed
+
+        if (!MessageDigest.isEqual(signature, sign(bytes, length))) {
+            return null;
+        }
+
+        Reader reader = new Reader(bytes, length);
+
+        try {
+            if ((reader.readByte() != _VERSION) || (reader.readLong() != _companyId)) {
+                return null;
+            }
+
+            long issued = reader.readLong();
+
+            if ((now < issued) || ((now - issued) > (_maxAge * 1000L))) {
+                return null;
+            }
+
+            String login = reader.readString();
+            String emailAddress = reader.readString();
+            String firstName = reader.readString();
+            String lastName = reader.readString();
+            String[] affiliations = reader.readStrings();
+
+            int expandoCount = reader.readInt();
+
+            Map<String, String[]> expandoValues = new LinkedHashMap<>();
+
+            for (int i = 0; i < expandoCount; i++) {
+                expandoValues.put(reader.readString(), reader.readStrings());
+            }
+
+            String[] groupNames = reader.readStrings();
+            String[] userGroupNames = reader.readStrings();
+            String[] organizationNames = reader.readStrings();
+            String identityProvider = reader.readString();
+            String persistentId = reader.readString();
+
+            if (!reader.isDone()) {
+                return null;
+            }
+
+            return new ShibbolethAttributes(
+                    login, emailAddress, firstName, lastName, affiliations, expandoValues, groupNames,
+                    userGroupNames, organizationNames, identityProvider, persistentId);
+        } catch (IndexOutOfBoundsException ioobe) {
+            return null;
+        }
+    }
+
+    public String encode(ShibbolethAttributes attributes, long now) {
+        Writer writer = new Writer();
+
+        writer.writeByte(_VERSION);
+        writer.writeLong(_companyId);
+        writer.writeLong(now);
+        writer.writeString(attributes.getLogin());
+        writer.writeString(attributes.getEmailAddress());
+        writer.writeString(attributes.getFirstName());
+        writer.writeString(attributes.getLastName());
+        writer.writeStrings(attributes.getAffiliations());
+
+        Map<String, String[]> expandoValues = attributes.getExpandoValues();
+
+        writer.writeInt(expandoValues.size());
+
+        for (Map.Entry<String, String[]> entry : expandoValues.entrySet()) {
+            writer.writeString(entry.getKey());
+            writer.writeStrings(entry.getValue());
+        }
+
+        writer.writeStrings(attributes.getGroupNames());
+        writer.writeStrings(attributes.getUserGroupNames());
+        writer.writeStrings(attributes.getOrganizationNames());
+        writer.writeString(attributes.getIdentityProvider());
+        writer.writeString(attributes.getPersistentId());
+
+        byte[] signature = sign(writer.getBuffer(), writer.size());
+
+        writer.write(signature, 0, signature.length);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(writer.toByteArray());
+    }
+
+    private static void addCookie(
+            HttpServletRequest request, HttpServletResponse response, String token, int maxAge) {
+
+        Cookie cookie = new Cookie(COOKIE_NAME, token);
+
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge(maxAge);
+        cookie.setPath(getCookiePath(request));
+        cookie.setSecure(request.isSecure());
+
+        response.addCookie(cookie);
+    }
+
+    private static String getCookiePath(HttpServletRequest request) {
+        String contextPath = request.getContextPath();
+
+        if ((contextPath == null) || contextPath.isEmpty()) {
+            return "/";
+        }
+
+        return contextPath;
+    }
+
+    private Mac createMac() {
+        try {
+            Mac mac = Mac.getInstance(_ALGORITHM);
+
+            mac.init(_key);
+
+            return mac;
+        } catch (GeneralSecurityException gse) {
+            throw new IllegalStateException("Unable to create " + _ALGORITHM + " instance", gse);
+        }
+    }
+
+    private byte[] sign(byte[] bytes, int length) {
+        Mac mac = _mac.get();
+
+        mac.update(bytes, 0, length);
+
+        return mac.doFinal();
+    }
+
+    private static final String _ALGORITHM = "HmacSHA256";
+
+    private static final int _SIGNATURE_LENGTH = 32;
+
+    private static final byte _VERSION = 3;
+
+    private final long _companyId;
+    private final SecretKeySpec _key;
+    private final ThreadLocal<Mac> _mac = ThreadLocal.withInitial(this::createMac);
+    private final int _maxAge;
+
+    /**
+     * Reads the values in the order {@link Writer} writes them. Numbers are
+     * unsigned LEB128 variable-length integers, strings their UTF-8 length
+     * plus one (zero for <code>null</code>) followed by the bytes.
+     */
+    private static class Reader {
+
+        public Reader(byte[] bytes, int length) {
+            _bytes = bytes;
+            _length = length;
+        }
+
+        public boolean isDone() {
+            return _position == _length;
+        }
+
+        public byte readByte() {
+            if (_position >= _length) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            return _bytes[_position++];
+        }
+
+        public int readInt() {
+            long value = readLong();
+
+            if ((value < 0) || (value > (_length - _position))) {
+
+                // every counted item takes at least one byte
+
+                throw new IndexOutOfBoundsException();
+            }
+
+            return (int) value;
+        }
+
+        public long readLong() {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IndexOutOfBoundsException();
+        }
+
+        public String readString() {
+            long prefix = readLong();
+
+            if (prefix == 0) {
+                return null;
+            }
+
+            if ((prefix < 0) || ((prefix - 1) > (_length - _position))) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            int length = (int) (prefix - 1);
+
+            String value = new String(_bytes, _position, length, StandardCharsets.UTF_8);
+
+            _position += length;
+
+            return value;
+        }
+
+        public String[] readStrings() {
+            String[] values = new String[readInt()];
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readString();
+            }
+
+            return values;
+        }
+
+        private final byte[] _bytes;
+        private final int _length;
+        private int _position;
+
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+
+        public Writer() {
+            super(256);
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        public void writeByte(int value) {
+            write(value);
+        }
+
+        public void writeInt(int value) {
+            writeLong(value);
+        }
+
+        public void writeLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+
+                value >>>= 7;
+            }
+
+            write((int) value);
+        }
+
+        public void writeString(String value) {
+            if (value == null) {
+                writeInt(0);
+
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            writeInt(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+
+        public void writeStrings(String[] values) {
+            writeInt(values.length);
+
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+    }
+
+}
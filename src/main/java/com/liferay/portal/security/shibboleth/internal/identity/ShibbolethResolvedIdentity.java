@@ -0,0 +1,89 @@
+package com.liferay.portal.security.shibboleth.internal.identity;
+
+import com.liferay.portal.shibboleth.util.ShibbolethPropsKeys;
+
+import javax.servlet.http.HttpSession;
+
+/**
+ * The outcome of a successful Shibboleth auto login, kept in the HTTP session
+ * so later requests of the same session can be answered without looking the
+ * user up again. The session holds the values of the identity under separate
+ * keys, as strings and numbers, so it can be replicated to nodes that cannot
+ * load the classes of this bundle.
+ * <p/>
+ * The identity is only valid for the attribute set it was resolved from (see
+ * {@link #getFingerprint()}) and as long as its user has not been revoked
+ * since it was created (see {@link ShibbolethIdentityRevocations}). It holds
+ * no credentials; the password is read from the user whenever the identity is
+ * used, so a password reset or re-import takes effect on the next request.
+ */
+public final class ShibbolethResolvedIdentity {
+
+    /**
+     * Returns the identity stored in the session by
+     * {@link #toSession(HttpSession)}
+     *
+     * @return the identity or <code>null</code> if the session holds none
+     */
+    public static ShibbolethResolvedIdentity fromSession(HttpSession session) {
+        Object companyId = session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_COMPANY_ID);
+        Object userId = session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_USER_ID);
+        Object fingerprint = session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_FINGERPRINT);
+        Object createTime = session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_CREATE_TIME);
+
+        if (!(companyId instanceof Long) || !(userId instanceof Long) || !(fingerprint instanceof String) ||
+                !(createTime instanceof Long)) {
+
+            return null;
+        }
+
+        return new ShibbolethResolvedIdentity(
+                (Long) companyId, (Long) userId, (String) fingerprint, (Long) createTime);
+    }
+
+    public static void removeFromSession(HttpSession session) {
+        session.removeAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_COMPANY_ID);
+        session.removeAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_USER_ID);
+        session.removeAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_FINGERPRINT);
+        session.removeAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_CREATE_TIME);
+    }
+
+    /**
+     * @param createTime the wall-clock time the user was looked up at
+     */
+    public ShibbolethResolvedIdentity(long companyId, long userId, String fingerprint, long createTime) {
+        _companyId = companyId;
+        _userId = userId;
+        _fingerprint = fingerprint;
+        _createTime = createTime;
+    }
+
+    public long getCompanyId() {
+        return _companyId;
+    }
+
+    public long getCreateTime() {
+        return _createTime;
+    }
+
+    public String getFingerprint() {
+        return _fingerprint;
+    }
+
+    public long getUserId() {
+        return _userId;
+    }
+
+    public void toSession(HttpSession session) {
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_COMPANY_ID, _companyId);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_USER_ID, _userId);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_FINGERPRINT, _fingerprint);
+        session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_RESOLVED_CREATE_TIME, _createTime);
+    }
+
+    private final long _companyId;
+    private final long _createTime;
+    private final String _fingerprint;
+    private final long _userId;
+
+}
@@ -0,0 +1,426 @@
+package com.liferay.portal.security.shibboleth.internal.membership;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.Group;
+import com.liferay.portal.kernel.model.Organization;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.model.UserGroup;
+import com.liferay.portal.kernel.search.IndexerRegistryUtil;
+import com.liferay.portal.kernel.security.permission.PermissionCacheUtil;
+import com.liferay.portal.kernel.service.GroupLocalService;
+import com.liferay.portal.kernel.service.OrganizationLocalService;
+import com.liferay.portal.kernel.service.UserGroupLocalService;
+import com.liferay.portal.kernel.service.UserGroupRoleLocalService;
+import com.liferay.portal.kernel.service.UserLocalService;
+import com.liferay.portal.kernel.transaction.Propagation;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+import com.liferay.portal.kernel.util.Validator;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributesFingerprintStore;
+import com.liferay.portal.security.shibboleth.internal.util.ShibbolethSortedArrays;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Brings the site, user group and organization memberships of a user in line
+ * with the ones named by the user's attributes.
+ * <p/>
+ * The desired and current memberships are compared per type and all
+ * differences are written in a single transaction, together with the
+ * memberships the synchronization manages. Only memberships added by the
+ * synchronization are managed and may be removed again; memberships the user
+ * got otherwise, including the ones added by earlier versions of the plugin,
+ * are left alone. Removing a site or organization membership also removes
+ * the site or organization roles the user had there, in the same transaction,
+ * like leaving the site or organization in the portal does. The user is
+ * reindexed and its permissions are recomputed only if a membership was added
+ * or removed.
+ */
+@Component(immediate = true, service = ShibbolethMembershipSynchronizer.class)
+public class ShibbolethMembershipSynchronizer {
+
+    public long getAddedCount() {
+        return _addedCount.sum();
+    }
+
+    public long getNoOpCount() {
+        return _noOpCount.sum();
+    }
+
+    public long getRemovedCount() {
+        return _removedCount.sum();
+    }
+
+    /**
+     * @return <code>true</code> if every site, user group and organization
+     *         named by the attributes exists
+     */
+    public boolean synchronize(User user, ShibbolethAttributes attributes) throws Exception {
+        final long userId = user.getUserId();
+
+        String managedMemberships = _shibbolethAttributesFingerprintStore.getManagedMemberships(user);
+
+        Map<ShibbolethMembershipType, long[]> managedIds = decode(managedMemberships);
+
+        final Map<ShibbolethMembershipType, long[]> addIds = new EnumMap<>(ShibbolethMembershipType.class);
+        final Map<ShibbolethMembershipType, long[]> removeIds = new EnumMap<>(ShibbolethMembershipType.class);
+        Map<ShibbolethMembershipType, long[]> nextManagedIds = new EnumMap<>(ShibbolethMembershipType.class);
+
+        int addCount = 0;
+        int missingCount = 0;
+        int removeCount = 0;
+
+        for (ShibbolethMembershipType type : ShibbolethMembershipType.values()) {
+            String[] names = getNames(type, attributes);
+            long[] typeManagedIds = managedIds.getOrDefault(type, _NO_IDS);
+
+            if ((names.length == 0) && (typeManagedIds.length == 0)) {
+                continue;
+            }
+
+            long[] desiredIds = getIds(type, user.getCompanyId(), names);
+
+            missingCount += names.length - desiredIds.length;
+
+            desiredIds = ShibbolethSortedArrays.sort(desiredIds);
+            long[] currentIds = ShibbolethSortedArrays.sort(getCurrentIds(type, userId));
+
+            long[] typeAddIds = ShibbolethSortedArrays.difference(desiredIds, currentIds);
+            long[] typeRemoveIds = ShibbolethSortedArrays.difference(
+                    ShibbolethSortedArrays.intersection(currentIds, typeManagedIds), desiredIds);
+
+            addIds.put(type, typeAddIds);
+            removeIds.put(type, typeRemoveIds);
+
+            // a membership the user had before it was desired stays unmanaged
+
+            nextManagedIds.put(
+                    type,
+                    ShibbolethSortedArrays.union(
+                            ShibbolethSortedArrays.intersection(typeManagedIds, desiredIds), typeAddIds));
+
+            addCount += typeAddIds.length;
+            removeCount += typeRemoveIds.length;
+        }
+
+        final String nextManagedMemberships = encode(nextManagedIds);
+
+        boolean managedMembershipsChanged = !nextManagedMemberships.equals(
+                (managedMemberships == null) ? "" : managedMemberships);
+
+        if ((addCount == 0) && (removeCount == 0) && !managedMembershipsChanged) {
+            _noOpCount.increment();
+
+            return missingCount == 0;
+        }
+
+        try {
+            TransactionInvokerUtil.invoke(_transactionConfig, () -> {
+                for (ShibbolethMembershipType type : addIds.keySet()) {
+                    removeMemberships(type, userId, removeIds.get(type));
+                    addMemberships(type, userId, addIds.get(type));
+                }
+
+                _shibbolethAttributesFingerprintStore.setManagedMemberships(user, nextManagedMemberships);
+
+                return null;
+            });
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception(t);
+        }
+
+        if ((addCount == 0) && (removeCount == 0)) {
+            return missingCount == 0;
+        }
+
+        _addedCount.add(addCount);
+        _removedCount.add(removeCount);
+
+        // the mapping tables are written directly, so the user is reindexed
+        // once for all changes instead of once per membership
+
+        PermissionCacheUtil.clearCache(userId);
+
+        IndexerRegistryUtil.nullSafeGetIndexer(User.class).reindex(user);
+
+        if (_log.isDebugEnabled()) {
+            for (ShibbolethMembershipType type : addIds.keySet()) {
+                _log.debug("User " + userId + ": added " + type.getName() + "s " +
+                        Arrays.toString(addIds.get(type)) + ", removed " + type.getName() + "s " +
+                        Arrays.toString(removeIds.get(type)));
+            }
+        }
+
+        return missingCount == 0;
+    }
+
+    @Reference(unbind = "-")
+    protected void setGroupLocalService(GroupLocalService groupLocalService) {
+        _groupLocalService = groupLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setOrganizationLocalService(OrganizationLocalService organizationLocalService) {
+        _organizationLocalService = organizationLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethAttributesFingerprintStore(
+            ShibbolethAttributesFingerprintStore shibbolethAttributesFingerprintStore) {
+
+        _shibbolethAttributesFingerprintStore = shibbolethAttributesFingerprintStore;
+    }
+
+    @Reference(unbind = "-")
+    protected void setUserGroupLocalService(UserGroupLocalService userGroupLocalService) {
+        _userGroupLocalService = userGroupLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setUserGroupRoleLocalService(UserGroupRoleLocalService userGroupRoleLocalService) {
+        _userGroupRoleLocalService = userGroupRoleLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setUserLocalService(UserLocalService userLocalService) {
+        _userLocalService = userLocalService;
+    }
+
+    /**
+     * Decodes the managed memberships, stored as
+     * <code>type:id,id;type:id</code> with the IDs sorted
+     */
+    private static Map<ShibbolethMembershipType, long[]> decode(String managedMemberships) {
+        Map<ShibbolethMembershipType, long[]> managedIds = new EnumMap<>(ShibbolethMembershipType.class);
+
+        if (Validator.isNull(managedMemberships)) {
+            return managedIds;
+        }
+
+        for (String part : managedMemberships.split(";")) {
+            int index = part.indexOf(':');
+
+            if (index < 0) {
+                continue;
+            }
+
+            ShibbolethMembershipType type = ShibbolethMembershipType.parse(part.substring(0, index));
+
+            if (type == null) {
+                continue;
+            }
+
+            String[] values = part.substring(index + 1).split(",");
+
+            long[] ids = new long[values.length];
+            int count = 0;
+
+            for (String value : values) {
+                try {
+                    ids[count] = Long.parseLong(value);
+
+                    count++;
+                } catch (NumberFormatException nfe) {
+                    _log.warn("Ignoring invalid managed membership " + type.getName() + ":" + value);
+                }
+            }
+
+            managedIds.put(type, ShibbolethSortedArrays.sort(Arrays.copyOf(ids, count)));
+        }
+
+        return managedIds;
+    }
+
+    private static String encode(Map<ShibbolethMembershipType, long[]> managedIds) {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<ShibbolethMembershipType, long[]> entry : managedIds.entrySet()) {
+            long[] ids = entry.getValue();
+
+            if (ids.length == 0) {
+                continue;
+            }
+
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+
+            sb.append(entry.getKey().getName());
+            sb.append(':');
+
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+
+                sb.append(ids[i]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String[] getNames(ShibbolethMembershipType type, ShibbolethAttributes attributes) {
+        switch (type) {
+            case ORGANIZATION:
+                return attributes.getOrganizationNames();
+            case SITE:
+                return attributes.getGroupNames();
+            default:
+                return attributes.getUserGroupNames();
+        }
+    }
+
+    private void addMemberships(ShibbolethMembershipType type, long userId, long[] ids) {
+        if (ids.length == 0) {
+            return;
+        }
+
+        switch (type) {
+            case ORGANIZATION:
+                _organizationLocalService.addUserOrganizations(userId, ids);
+
+                break;
+            case SITE:
+                _groupLocalService.addUserGroups(userId, ids);
+
+                break;
+            case USER_GROUP:
+                _userGroupLocalService.addUserUserGroups(userId, ids);
+
+                break;
+        }
+    }
+
+    private long[] getCurrentIds(ShibbolethMembershipType type, long userId) {
+        switch (type) {
+            case ORGANIZATION:
+                return _userLocalService.getOrganizationPrimaryKeys(userId);
+            case SITE:
+                return _userLocalService.getGroupPrimaryKeys(userId);
+            default:
+                return _userLocalService.getUserGroupPrimaryKeys(userId);
+        }
+    }
+
+    /**
+     * Returns the IDs of the sites of the organizations, which hold the
+     * organization roles of their members
+     */
+    private long[] getOrganizationGroupIds(long[] organizationIds) {
+        long[] groupIds = new long[organizationIds.length];
+        int count = 0;
+
+        for (long organizationId : organizationIds) {
+            Organization organization = _organizationLocalService.fetchOrganization(organizationId);
+
+            if (organization != null) {
+                groupIds[count++] = organization.getGroupId();
+            }
+        }
+
+        return Arrays.copyOf(groupIds, count);
+    }
+
+    /**
+     * Returns the IDs of the named sites, user groups or organizations,
+     * skipping the ones that do not exist
+     */
+    private long[] getIds(ShibbolethMembershipType type, long companyId, String[] names) {
+        long[] ids = new long[names.length];
+        int count = 0;
+
+        for (String name : names) {
+            long id = 0;
+
+            switch (type) {
+                case ORGANIZATION:
+                    Organization organization = _organizationLocalService.fetchOrganization(companyId, name);
+
+                    if (organization != null) {
+                        id = organization.getOrganizationId();
+                    }
+
+                    break;
+                case SITE:
+                    Group group = _groupLocalService.fetchGroup(companyId, name);
+
+                    if (group != null) {
+                        id = group.getGroupId();
+                    }
+
+                    break;
+                case USER_GROUP:
+                    UserGroup userGroup = _userGroupLocalService.fetchUserGroup(companyId, name);
+
+                    if (userGroup != null) {
+                        id = userGroup.getUserGroupId();
+                    }
+
+                    break;
+            }
+
+            if (id == 0) {
+                _log.warn("No " + type.getName() + " with name '" + name + "'");
+
+                continue;
+            }
+
+            ids[count++] = id;
+        }
+
+        return Arrays.copyOf(ids, count);
+    }
+
+    private void removeMemberships(ShibbolethMembershipType type, long userId, long[] ids) {
+        if (ids.length == 0) {
+            return;
+        }
+
+        switch (type) {
+            case ORGANIZATION:
+                _userGroupRoleLocalService.deleteUserGroupRoles(userId, getOrganizationGroupIds(ids));
+
+                _organizationLocalService.deleteUserOrganizations(userId, ids);
+
+                break;
+            case SITE:
+                _userGroupRoleLocalService.deleteUserGroupRoles(userId, ids);
+
+                _groupLocalService.deleteUserGroups(userId, ids);
+
+                break;
+            case USER_GROUP:
+                _userGroupLocalService.deleteUserUserGroups(userId, ids);
+
+                break;
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethMembershipSynchronizer.class);
+
+    private static final long[] _NO_IDS = new long[0];
+
+    private static final TransactionConfig _transactionConfig = TransactionConfig.Factory.create(
+            Propagation.REQUIRED, new Class<?>[] {Exception.class});
+
+    private final LongAdder _addedCount = new LongAdder();
+    private GroupLocalService _groupLocalService;
+    private final LongAdder _noOpCount = new LongAdder();
+    private OrganizationLocalService _organizationLocalService;
+    private final LongAdder _removedCount = new LongAdder();
+    private ShibbolethAttributesFingerprintStore _shibbolethAttributesFingerprintStore;
+    private UserGroupLocalService _userGroupLocalService;
+    private UserGroupRoleLocalService _userGroupRoleLocalService;
+    private UserLocalService _userLocalService;
+
+}
@@ -0,0 +1,30 @@
+package com.liferay.portal.security.shibboleth.internal.membership;
+
+/**
+ * The kinds of memberships synchronized from the attributes.
+ */
+public enum ShibbolethMembershipType {
+
+    ORGANIZATION("organization"), SITE("site"), USER_GROUP("userGroup");
+
+    public static ShibbolethMembershipType parse(String name) {
+        for (ShibbolethMembershipType type : values()) {
+            if (type._name.equals(name)) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    private ShibbolethMembershipType(String name) {
+        _name = name;
+    }
+
+    private final String _name;
+
+}
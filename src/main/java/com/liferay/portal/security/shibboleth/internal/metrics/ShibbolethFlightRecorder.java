@@ -0,0 +1,89 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+
+/**
+ * Emits the Java Flight Recorder events of the logins and their stages.
+ * <p/>
+ * The flight recorder is an optional import of the bundle; without it, or
+ * while no recording has the events enabled, the methods return right away
+ * and no event is created. The event classes are only loaded once the flight
+ * recorder is known to be available.
+ */
+public final class ShibbolethFlightRecorder {
+
+    /**
+     * Begins the event of a login
+     *
+     * @return the recording or <code>null</code> if the login event is not
+     *         recorded
+     */
+    public static ShibbolethLoginRecording beginLogin(long companyId, ShibbolethAttributes attributes) {
+        if (!_AVAILABLE) {
+            return null;
+        }
+
+        ShibbolethLoginEvent event = new ShibbolethLoginEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        event.affiliationCount = attributes.getAffiliations().length;
+        event.companyId = companyId;
+        event.expandoValueCount = attributes.getExpandoValues().size();
+        event.organizationCount = attributes.getOrganizationNames().length;
+        event.siteCount = attributes.getGroupNames().length;
+        event.userGroupCount = attributes.getUserGroupNames().length;
+
+        return new ShibbolethLoginRecording(event);
+    }
+
+    /**
+     * Begins the event of a stage
+     *
+     * @return the recording or <code>null</code> if the stage event is not
+     *         recorded
+     */
+    static ShibbolethStageRecording beginStage() {
+        if (!_AVAILABLE) {
+            return null;
+        }
+
+        ShibbolethStageEvent event = new ShibbolethStageEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return new ShibbolethStageRecording(event);
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, ShibbolethFlightRecorder.class.getClassLoader());
+
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            if (_log.isDebugEnabled()) {
+                _log.debug("Java Flight Recorder is not available, no login events are emitted");
+            }
+
+            return false;
+        }
+    }
+
+    private ShibbolethFlightRecorder() {
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethFlightRecorder.class);
+
+    private static final boolean _AVAILABLE = isAvailable();
+
+}
@@ -0,0 +1,117 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram of one stage.
+ * <p/>
+ * Latencies are counted in buckets whose upper bounds are powers of two
+ * microseconds, from 1 microsecond up to about 67 seconds; slower samples fall into the
+ * last bucket. Percentiles are therefore reported as the upper bound of the
+ * bucket they fall into, which is at most twice the exact value.
+ */
+public class ShibbolethLatencyHistogram {
+
+    public long getCount() {
+        return _count.sum();
+    }
+
+    public long getFailureCount() {
+        return _failureCount.sum();
+    }
+
+    public double getMaxMillis() {
+        return toMillis(_maxNanos.get());
+    }
+
+    public double getMeanMillis() {
+        long count = _count.sum();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        return toMillis(_totalNanos.sum()) / count;
+    }
+
+    /**
+     * @param  percentile the percentile, between 0 and 100
+     * @return the upper bound in milliseconds of the bucket holding the
+     *         percentile, or 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = new long[_BUCKET_COUNT];
+        long count = 0;
+
+        for (int i = 0; i < _BUCKET_COUNT; i++) {
+            counts[i] = _buckets.get(i);
+            count += counts[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * (percentile / 100));
+
+        if (rank < 1) {
+            rank = 1;
+        }
+
+        long cumulativeCount = 0;
+
+        for (int i = 0; i < _BUCKET_COUNT; i++) {
+            cumulativeCount += counts[i];
+
+            if (cumulativeCount >= rank) {
+                return Math.min(toMillis(TimeUnit.MICROSECONDS.toNanos(1L << i)), getMaxMillis());
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    public void record(long nanos, boolean success) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        long micros = nanos / 1000;
+
+        int bucket = (micros == 0) ? 0 : (64 - Long.numberOfLeadingZeros(micros - 1));
+
+        if (bucket >= _BUCKET_COUNT) {
+            bucket = _BUCKET_COUNT - 1;
+        }
+
+        _buckets.incrementAndGet(bucket);
+        _count.increment();
+        _totalNanos.add(nanos);
+
+        if (!success) {
+            _failureCount.increment();
+        }
+
+        long maxNanos = _maxNanos.get();
+
+        while ((nanos > maxNanos) && !_maxNanos.compareAndSet(maxNanos, nanos)) {
+            maxNanos = _maxNanos.get();
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static final int _BUCKET_COUNT = 27;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(_BUCKET_COUNT);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _failureCount = new LongAdder();
+    private final AtomicLong _maxNanos = new AtomicLong();
+    private final LongAdder _totalNanos = new LongAdder();
+
+}
@@ -0,0 +1,60 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a login, from the user lookup to the
+ * synchronization of the user. Only loaded if the runtime supports the flight
+ * recorder, see {@link ShibbolethFlightRecorder}.
+ */
+@Category({"Liferay", "Shibboleth"})
+@Description("A login resolving its user from the Shibboleth attributes")
+@Label("Shibboleth Login")
+@Name(ShibbolethLoginEvent.NAME)
+@StackTrace(false)
+final class ShibbolethLoginEvent extends Event {
+
+    public static final String NAME = "com.liferay.portal.security.shibboleth.Login";
+
+    @Label("Affiliations")
+    int affiliationCount;
+
+    @Description("Whether the attributes changed since the last synchronization of the user")
+    @Label("Attributes Changed")
+    boolean attributesChanged;
+
+    @Label("Authentication Type")
+    String authType;
+
+    @Label("Company ID")
+    long companyId;
+
+    @Label("Custom Fields")
+    int expandoValueCount;
+
+    @Label("Organizations")
+    int organizationCount;
+
+    @Description("How the user was resolved: found, created, ldapImport, notFound or failed")
+    @Label("Path")
+    String path;
+
+    @Label("Sites")
+    int siteCount;
+
+    @Label("Success")
+    boolean success;
+
+    @Description("Whether the synchronization of the user was left to the user update queue")
+    @Label("Update Queued")
+    boolean updateQueued;
+
+    @Label("User Groups")
+    int userGroupCount;
+
+}
@@ -0,0 +1,20 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+/**
+ * The way a login resolved its user, as recorded by the flight recorder.
+ */
+public enum ShibbolethLoginPath {
+
+    CREATED("created"), FAILED("failed"), FOUND("found"), LDAP_IMPORT("ldapImport"), NOT_FOUND("notFound");
+
+    public String getName() {
+        return _name;
+    }
+
+    private ShibbolethLoginPath(String name) {
+        _name = name;
+    }
+
+    private final String _name;
+
+}
@@ -0,0 +1,48 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+/**
+ * The flight recorder event of a login in progress, see
+ * {@link ShibbolethFlightRecorder#beginLogin}. The auto login fills in the
+ * outcome as it goes and commits the event when the login ends.
+ */
+public final class ShibbolethLoginRecording {
+
+    /**
+     * Commits the event. A login that ends before its user was resolved is
+     * recorded as failed.
+     *
+     * @param success whether the login resolved a user
+     */
+    public void commit(boolean success) {
+        if (_event.path == null) {
+            _event.path = ShibbolethLoginPath.FAILED.getName();
+        }
+
+        _event.success = success;
+
+        _event.commit();
+    }
+
+    public void setAttributesChanged(boolean attributesChanged) {
+        _event.attributesChanged = attributesChanged;
+    }
+
+    public void setAuthType(String authType) {
+        _event.authType = authType;
+    }
+
+    public void setPath(ShibbolethLoginPath path) {
+        _event.path = path.getName();
+    }
+
+    public void setUpdateQueued(boolean updateQueued) {
+        _event.updateQueued = updateQueued;
+    }
+
+    ShibbolethLoginRecording(ShibbolethLoginEvent event) {
+        _event = event;
+    }
+
+    private final ShibbolethLoginEvent _event;
+
+}
@@ -0,0 +1,90 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+import org.osgi.service.component.annotations.Component;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the latencies and failures of the login stages per company.
+ * <p/>
+ * Recording a sample costs a {@link ShibbolethStageTimer}, two
+ * {@link System#nanoTime()} calls and a few atomic increments, so the stages
+ * are instrumented unconditionally. Every sample is also emitted as a flight
+ * recorder event spanning the stage while a recording has the stage events
+ * enabled, see {@link ShibbolethFlightRecorder}.
+ */
+@Component(immediate = true, service = ShibbolethMetrics.class)
+public class ShibbolethMetrics {
+
+    public Set<Long> getCompanyIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(_histograms.keySet()));
+    }
+
+    /**
+     * @return the histogram or <code>null</code> if nothing was recorded for
+     *         the company yet
+     */
+    public ShibbolethLatencyHistogram getHistogram(long companyId, ShibbolethStage stage) {
+        ShibbolethLatencyHistogram[] histograms = _histograms.get(companyId);
+
+        if (histograms == null) {
+            return null;
+        }
+
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Records a sample of the stage the timer was started for
+     */
+    public void record(ShibbolethStageTimer timer, boolean success) {
+        long nanos = System.nanoTime() - timer.getStartNanos();
+
+        long companyId = timer.getCompanyId();
+        ShibbolethStage stage = timer.getStage();
+
+        ShibbolethLatencyHistogram[] histograms = _histograms.get(companyId);
+
+        if (histograms == null) {
+            histograms = _histograms.computeIfAbsent(companyId, key -> createHistograms());
+        }
+
+        histograms[stage.ordinal()].record(nanos, success);
+
+        ShibbolethStageRecording recording = timer.getRecording();
+
+        if (recording != null) {
+            recording.commit(companyId, stage, success);
+        }
+    }
+
+    public void reset() {
+        _histograms.clear();
+    }
+
+    /**
+     * Starts timing a stage, see {@link #record(ShibbolethStageTimer, boolean)}
+     */
+    public ShibbolethStageTimer start(long companyId, ShibbolethStage stage) {
+        return new ShibbolethStageTimer(companyId, stage, ShibbolethFlightRecorder.beginStage());
+    }
+
+    private static ShibbolethLatencyHistogram[] createHistograms() {
+        ShibbolethStage[] stages = ShibbolethStage.values();
+
+        ShibbolethLatencyHistogram[] histograms = new ShibbolethLatencyHistogram[stages.length];
+
+        for (int i = 0; i < stages.length; i++) {
+            histograms[i] = new ShibbolethLatencyHistogram();
+        }
+
+        return histograms;
+    }
+
+    private final ConcurrentMap<Long, ShibbolethLatencyHistogram[]> _histograms = new ConcurrentHashMap<>();
+
+}
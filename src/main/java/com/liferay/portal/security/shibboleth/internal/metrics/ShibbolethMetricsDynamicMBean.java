@@ -0,0 +1,295 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationBus;
+import com.liferay.portal.security.shibboleth.internal.membership.ShibbolethMembershipSynchronizer;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethLdapImportCache;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethProvisioningBulkhead;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethReadStageExecutor;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethUserUpdateQueue;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleReconciler;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exposes the Shibboleth login metrics over JMX.
+ * <p/>
+ * Every stage of every company that has seen a login is published as a set of
+ * attributes named <code>company.&lt;companyId&gt;.&lt;stage&gt;.&lt;metric&gt;</code>,
+ * for example <code>company.20116.login.p99Millis</code> or
+ * <code>company.20116.create.failureCount</code>. The role, background
+ * update, provisioning bulkhead, LDAP import cache, cache invalidation, read
+ * stage and membership counters of the node are published as well. All
+ * attributes are read only; the <code>reset</code> operation clears the
+ * latency histograms.
+ */
+@Component(
+        immediate = true,
+        property = {
+                "jmx.objectname=com.liferay.portal.security.shibboleth:classification=shibboleth," +
+                        "name=ShibbolethMetrics",
+                "jmx.objectname.cache.key=ShibbolethMetrics"
+        },
+        service = DynamicMBean.class
+)
+public class ShibbolethMetricsDynamicMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        switch (name) {
+            case "bulkheadActiveCount":
+                return _shibbolethProvisioningBulkhead.getActiveCount();
+            case "bulkheadAdmittedCount":
+                return _shibbolethProvisioningBulkhead.getAdmittedCount();
+            case "bulkheadRejectedCount":
+                return _shibbolethProvisioningBulkhead.getRejectedCount();
+            case "bulkheadTimedOutCount":
+                return _shibbolethProvisioningBulkhead.getTimedOutCount();
+            case "bulkheadWaitingCount":
+                return _shibbolethProvisioningBulkhead.getWaitingCount();
+            case "invalidationCoalescedCount":
+                return _shibbolethInvalidationBus.getCoalescedCount();
+            case "invalidationPendingCount":
+                return (long) _shibbolethInvalidationBus.getPendingCount();
+            case "invalidationReceivedCount":
+                return _shibbolethInvalidationBus.getReceivedCount();
+            case "invalidationSentCount":
+                return _shibbolethInvalidationBus.getSentCount();
+            case "invalidationStaleCount":
+                return _shibbolethInvalidationBus.getStaleCount();
+            case "ldapImportFailureHitCount":
+                return _shibbolethLdapImportCache.getFailureHitCount();
+            case "ldapImportHitCount":
+                return _shibbolethLdapImportCache.getImportHitCount();
+            case "membershipAddedCount":
+                return _shibbolethMembershipSynchronizer.getAddedCount();
+            case "membershipNoOpCount":
+                return _shibbolethMembershipSynchronizer.getNoOpCount();
+            case "membershipRemovedCount":
+                return _shibbolethMembershipSynchronizer.getRemovedCount();
+            case "readStageCallerRunCount":
+                return _shibbolethReadStageExecutor.getCallerRunCount();
+            case "roleAddedCount":
+                return _shibbolethRoleReconciler.getAddedCount();
+            case "roleNoOpCount":
+                return _shibbolethRoleReconciler.getNoOpCount();
+            case "roleRemovedCount":
+                return _shibbolethRoleReconciler.getRemovedCount();
+            case "updateQueueAppliedCount":
+                return _shibbolethUserUpdateQueue.getAppliedCount();
+            case "updateQueueCoalescedCount":
+                return _shibbolethUserUpdateQueue.getCoalescedCount();
+            case "updateQueueFailedCount":
+                return _shibbolethUserUpdateQueue.getFailedCount();
+            case "updateQueueRejectedCount":
+                return _shibbolethUserUpdateQueue.getRejectedCount();
+            case "updateQueueSize":
+                return (long) _shibbolethUserUpdateQueue.getSize();
+        }
+
+        String[] parts = name.split("\\.");
+
+        if ((parts.length != 4) || !_COMPANY.equals(parts[0])) {
+            throw new AttributeNotFoundException(name);
+        }
+
+        long companyId;
+
+        try {
+            companyId = Long.parseLong(parts[1]);
+        } catch (NumberFormatException nfe) {
+            throw new AttributeNotFoundException(name);
+        }
+
+        ShibbolethStage stage = getStage(parts[2]);
+
+        if (stage == null) {
+            throw new AttributeNotFoundException(name);
+        }
+
+        ShibbolethLatencyHistogram histogram = _shibbolethMetrics.getHistogram(companyId, stage);
+
+        if (histogram == null) {
+            histogram = _EMPTY_HISTOGRAM;
+        }
+
+        switch (parts[3]) {
+            case "count":
+                return histogram.getCount();
+            case "failureCount":
+                return histogram.getFailureCount();
+            case "maxMillis":
+                return histogram.getMaxMillis();
+            case "meanMillis":
+                return histogram.getMeanMillis();
+            case "p50Millis":
+                return histogram.getPercentileMillis(50);
+            case "p90Millis":
+                return histogram.getPercentileMillis(90);
+            case "p99Millis":
+                return histogram.getPercentileMillis(99);
+        }
+
+        throw new AttributeNotFoundException(name);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList attributes = new AttributeList();
+
+        for (String name : names) {
+            try {
+                attributes.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException anfe) {
+
+                // skipped as required by DynamicMBean
+
+            }
+        }
+
+        return attributes;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributeInfos = new ArrayList<>();
+
+        for (String name : _NODE_ATTRIBUTE_NAMES) {
+            attributeInfos.add(createAttributeInfo(name, Long.class));
+        }
+
+        for (long companyId : _shibbolethMetrics.getCompanyIds()) {
+            for (ShibbolethStage stage : ShibbolethStage.values()) {
+                String prefix = _COMPANY + "." + companyId + "." + stage.getName() + ".";
+
+                attributeInfos.add(createAttributeInfo(prefix + "count", Long.class));
+                attributeInfos.add(createAttributeInfo(prefix + "failureCount", Long.class));
+                attributeInfos.add(createAttributeInfo(prefix + "maxMillis", Double.class));
+                attributeInfos.add(createAttributeInfo(prefix + "meanMillis", Double.class));
+                attributeInfos.add(createAttributeInfo(prefix + "p50Millis", Double.class));
+                attributeInfos.add(createAttributeInfo(prefix + "p90Millis", Double.class));
+                attributeInfos.add(createAttributeInfo(prefix + "p99Millis", Double.class));
+            }
+        }
+
+        MBeanOperationInfo resetOperationInfo = new MBeanOperationInfo(
+                "reset", "Clears the latency histograms of all companies", null, void.class.getName(),
+                MBeanOperationInfo.ACTION);
+
+        return new MBeanInfo(
+                ShibbolethMetricsDynamicMBean.class.getName(), "Shibboleth login metrics",
+                attributeInfos.toArray(new MBeanAttributeInfo[attributeInfos.size()]), null,
+                new MBeanOperationInfo[] {resetOperationInfo}, null);
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName) && ((params == null) || (params.length == 0))) {
+            _shibbolethMetrics.reset();
+
+            return null;
+        }
+
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethInvalidationBus(ShibbolethInvalidationBus shibbolethInvalidationBus) {
+        _shibbolethInvalidationBus = shibbolethInvalidationBus;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethLdapImportCache(ShibbolethLdapImportCache shibbolethLdapImportCache) {
+        _shibbolethLdapImportCache = shibbolethLdapImportCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethMembershipSynchronizer(
+            ShibbolethMembershipSynchronizer shibbolethMembershipSynchronizer) {
+
+        _shibbolethMembershipSynchronizer = shibbolethMembershipSynchronizer;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethMetrics(ShibbolethMetrics shibbolethMetrics) {
+        _shibbolethMetrics = shibbolethMetrics;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethProvisioningBulkhead(ShibbolethProvisioningBulkhead shibbolethProvisioningBulkhead) {
+        _shibbolethProvisioningBulkhead = shibbolethProvisioningBulkhead;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethReadStageExecutor(ShibbolethReadStageExecutor shibbolethReadStageExecutor) {
+        _shibbolethReadStageExecutor = shibbolethReadStageExecutor;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethRoleReconciler(ShibbolethRoleReconciler shibbolethRoleReconciler) {
+        _shibbolethRoleReconciler = shibbolethRoleReconciler;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethUserUpdateQueue(ShibbolethUserUpdateQueue shibbolethUserUpdateQueue) {
+        _shibbolethUserUpdateQueue = shibbolethUserUpdateQueue;
+    }
+
+    private static MBeanAttributeInfo createAttributeInfo(String name, Class<?> type) {
+        return new MBeanAttributeInfo(name, type.getName(), name, true, false, false);
+    }
+
+    private static ShibbolethStage getStage(String name) {
+        for (ShibbolethStage stage : ShibbolethStage.values()) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+
+        return null;
+    }
+
+    private static final String _COMPANY = "company";
+
+    private static final ShibbolethLatencyHistogram _EMPTY_HISTOGRAM = new ShibbolethLatencyHistogram();
+
+    private static final String[] _NODE_ATTRIBUTE_NAMES = {
+            "bulkheadActiveCount", "bulkheadAdmittedCount", "bulkheadRejectedCount", "bulkheadTimedOutCount",
+            "bulkheadWaitingCount", "invalidationCoalescedCount", "invalidationPendingCount",
+            "invalidationReceivedCount", "invalidationSentCount", "invalidationStaleCount",
+            "ldapImportFailureHitCount", "ldapImportHitCount", "membershipAddedCount", "membershipNoOpCount",
+            "membershipRemovedCount", "readStageCallerRunCount", "roleAddedCount", "roleNoOpCount", "roleRemovedCount",
+            "updateQueueAppliedCount", "updateQueueCoalescedCount", "updateQueueFailedCount",
+            "updateQueueRejectedCount", "updateQueueSize"
+    };
+
+    private ShibbolethInvalidationBus _shibbolethInvalidationBus;
+    private ShibbolethLdapImportCache _shibbolethLdapImportCache;
+    private ShibbolethMembershipSynchronizer _shibbolethMembershipSynchronizer;
+    private ShibbolethMetrics _shibbolethMetrics;
+    private ShibbolethProvisioningBulkhead _shibbolethProvisioningBulkhead;
+    private ShibbolethReadStageExecutor _shibbolethReadStageExecutor;
+    private ShibbolethRoleReconciler _shibbolethRoleReconciler;
+    private ShibbolethUserUpdateQueue _shibbolethUserUpdateQueue;
+
+}
@@ -0,0 +1,21 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+/**
+ * The instrumented stages of a Shibboleth login.
+ */
+public enum ShibbolethStage {
+
+    CREATE("create"), EXTRACT("extract"), LDAP_IMPORT("ldapImport"), LOGIN("login"), LOOKUP("lookup"),
+    MEMBERSHIP_SYNC("membershipSync"), ROLE_SYNC("roleSync"), UPDATE("update");
+
+    public String getName() {
+        return _name;
+    }
+
+    private ShibbolethStage(String name) {
+        _name = name;
+    }
+
+    private final String _name;
+
+}
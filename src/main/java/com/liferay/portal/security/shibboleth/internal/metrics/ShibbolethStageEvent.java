@@ -0,0 +1,34 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a login stage. The event begins when the stage
+ * starts and is committed when it ends, so its duration is the time the stage
+ * took; stages that run in the login thread fall within the
+ * {@link ShibbolethLoginEvent} of the login.
+ */
+@Category({"Liferay", "Shibboleth"})
+@Description("A stage of a Shibboleth login")
+@Label("Shibboleth Login Stage")
+@Name(ShibbolethStageEvent.NAME)
+@StackTrace(false)
+final class ShibbolethStageEvent extends Event {
+
+    public static final String NAME = "com.liferay.portal.security.shibboleth.LoginStage";
+
+    @Label("Company ID")
+    long companyId;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Success")
+    boolean success;
+
+}
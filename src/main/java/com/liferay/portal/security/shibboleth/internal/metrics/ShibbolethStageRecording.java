@@ -0,0 +1,30 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+/**
+ * The flight recorder event of a stage in progress, see
+ * {@link ShibbolethFlightRecorder#beginStage}. The event is committed when the
+ * stage ends.
+ */
+final class ShibbolethStageRecording {
+
+    void commit(long companyId, ShibbolethStage stage, boolean success) {
+        _event.end();
+
+        if (!_event.shouldCommit()) {
+            return;
+        }
+
+        _event.companyId = companyId;
+        _event.stage = stage.getName();
+        _event.success = success;
+
+        _event.commit();
+    }
+
+    ShibbolethStageRecording(ShibbolethStageEvent event) {
+        _event = event;
+    }
+
+    private final ShibbolethStageEvent _event;
+
+}
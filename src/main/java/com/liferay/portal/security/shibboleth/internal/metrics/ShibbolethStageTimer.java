@@ -0,0 +1,38 @@
+package com.liferay.portal.security.shibboleth.internal.metrics;
+
+/**
+ * A login stage being timed, see {@link ShibbolethMetrics#start}. The flight
+ * recorder event of the stage, if it is recorded, begins when the timer is
+ * started, so the event spans the stage.
+ */
+public final class ShibbolethStageTimer {
+
+    long getCompanyId() {
+        return _companyId;
+    }
+
+    ShibbolethStageRecording getRecording() {
+        return _recording;
+    }
+
+    ShibbolethStage getStage() {
+        return _stage;
+    }
+
+    long getStartNanos() {
+        return _startNanos;
+    }
+
+    ShibbolethStageTimer(long companyId, ShibbolethStage stage, ShibbolethStageRecording recording) {
+        _companyId = companyId;
+        _stage = stage;
+        _recording = recording;
+        _startNanos = System.nanoTime();
+    }
+
+    private final long _companyId;
+    private final ShibbolethStageRecording _recording;
+    private final ShibbolethStage _stage;
+    private final long _startNanos;
+
+}
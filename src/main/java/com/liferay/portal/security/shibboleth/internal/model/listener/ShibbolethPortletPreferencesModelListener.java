@@ -0,0 +1,52 @@
+package com.liferay.portal.security.shibboleth.internal.model.listener;
+
+import com.liferay.portal.kernel.exception.ModelListenerException;
+import com.liferay.portal.kernel.model.BaseModelListener;
+import com.liferay.portal.kernel.model.ModelListener;
+import com.liferay.portal.kernel.model.PortletPreferences;
+import com.liferay.portal.kernel.util.PortletKeys;
+import com.liferay.portal.security.shibboleth.constants.ShibbolethConstants;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationBus;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationType;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Evicts the cached Shibboleth configuration of a company on all cluster
+ * nodes when its company-scoped settings are saved.
+ */
+@Component(immediate = true, service = ModelListener.class)
+public class ShibbolethPortletPreferencesModelListener extends BaseModelListener<PortletPreferences> {
+
+    @Override
+    public void onAfterCreate(PortletPreferences portletPreferences) throws ModelListenerException {
+        invalidate(portletPreferences);
+    }
+
+    @Override
+    public void onAfterRemove(PortletPreferences portletPreferences) throws ModelListenerException {
+        invalidate(portletPreferences);
+    }
+
+    @Override
+    public void onAfterUpdate(PortletPreferences portletPreferences) throws ModelListenerException {
+        invalidate(portletPreferences);
+    }
+
+    protected void invalidate(PortletPreferences portletPreferences) {
+        if ((portletPreferences.getOwnerType() == PortletKeys.PREFS_OWNER_TYPE_COMPANY) &&
+                ShibbolethConstants.SERVICE_NAME.equals(portletPreferences.getPortletId())) {
+
+            _shibbolethInvalidationBus.invalidate(
+                    ShibbolethInvalidationType.COMPANY_CONFIGURATION, portletPreferences.getOwnerId());
+        }
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethInvalidationBus(ShibbolethInvalidationBus shibbolethInvalidationBus) {
+        _shibbolethInvalidationBus = shibbolethInvalidationBus;
+    }
+
+    private ShibbolethInvalidationBus _shibbolethInvalidationBus;
+
+}
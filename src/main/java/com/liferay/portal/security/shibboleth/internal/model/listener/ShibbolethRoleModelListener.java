@@ -0,0 +1,45 @@
+package com.liferay.portal.security.shibboleth.internal.model.listener;
+
+import com.liferay.portal.kernel.exception.ModelListenerException;
+import com.liferay.portal.kernel.model.BaseModelListener;
+import com.liferay.portal.kernel.model.ModelListener;
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationBus;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationType;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Invalidates the cached role data of a company on all cluster nodes when
+ * one of its roles changes.
+ */
+@Component(immediate = true, service = ModelListener.class)
+public class ShibbolethRoleModelListener extends BaseModelListener<Role> {
+
+    @Override
+    public void onAfterCreate(Role role) throws ModelListenerException {
+        invalidate(role);
+    }
+
+    @Override
+    public void onAfterRemove(Role role) throws ModelListenerException {
+        invalidate(role);
+    }
+
+    @Override
+    public void onAfterUpdate(Role role) throws ModelListenerException {
+        invalidate(role);
+    }
+
+    protected void invalidate(Role role) {
+        _shibbolethInvalidationBus.invalidate(ShibbolethInvalidationType.COMPANY_ROLES, role.getCompanyId());
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethInvalidationBus(ShibbolethInvalidationBus shibbolethInvalidationBus) {
+        _shibbolethInvalidationBus = shibbolethInvalidationBus;
+    }
+
+    private ShibbolethInvalidationBus _shibbolethInvalidationBus;
+
+}
@@ -0,0 +1,57 @@
+package com.liferay.portal.security.shibboleth.internal.model.listener;
+
+import com.liferay.portal.kernel.exception.ModelListenerException;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.BaseModelListener;
+import com.liferay.portal.kernel.model.ModelListener;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.workflow.WorkflowConstants;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationBus;
+import com.liferay.portal.security.shibboleth.internal.cluster.ShibbolethInvalidationType;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityMappingStore;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Revokes the resolved Shibboleth identities of users that are deleted or
+ * deactivated on all cluster nodes, and removes the identity mappings of
+ * deleted users.
+ */
+@Component(immediate = true, service = ModelListener.class)
+public class ShibbolethUserModelListener extends BaseModelListener<User> {
+
+    @Override
+    public void onAfterRemove(User user) throws ModelListenerException {
+        _shibbolethInvalidationBus.invalidate(ShibbolethInvalidationType.USER, user.getUserId());
+
+        try {
+            _shibbolethIdentityMappingStore.removeUserIds(user.getUserId());
+        } catch (Exception e) {
+            _log.error("Unable to remove the identity mappings of user " + user.getUserId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onAfterUpdate(User user) throws ModelListenerException {
+        if (user.getStatus() != WorkflowConstants.STATUS_APPROVED) {
+            _shibbolethInvalidationBus.invalidate(ShibbolethInvalidationType.USER, user.getUserId());
+        }
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethIdentityMappingStore(ShibbolethIdentityMappingStore shibbolethIdentityMappingStore) {
+        _shibbolethIdentityMappingStore = shibbolethIdentityMappingStore;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethInvalidationBus(ShibbolethInvalidationBus shibbolethInvalidationBus) {
+        _shibbolethInvalidationBus = shibbolethInvalidationBus;
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethUserModelListener.class);
+
+    private ShibbolethIdentityMappingStore _shibbolethIdentityMappingStore;
+    private ShibbolethInvalidationBus _shibbolethInvalidationBus;
+
+}
@@ -0,0 +1,44 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Reads the records of an attribute dump exported from the identity provider.
+ * <p/>
+ * Every record maps the attribute names, case-insensitively, to their values.
+ * The values of a multi-valued attribute are joined the way the Shibboleth SP
+ * joins them, so the records can be extracted with the same attribute mapping
+ * plan as the requests.
+ */
+public interface ShibbolethAttributeDumpReader extends Closeable {
+
+    /**
+     * Opens the dump as LDIF if the file name ends with <code>.ldif</code>,
+     * otherwise as CSV
+     */
+    public static ShibbolethAttributeDumpReader open(Path path) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+
+        String fileName = path.getFileName().toString();
+
+        if (fileName.toLowerCase().endsWith(".ldif")) {
+            return new ShibbolethLdifDumpReader(reader);
+        }
+
+        return new ShibbolethCsvDumpReader(reader);
+    }
+
+    /**
+     * Returns the next record
+     *
+     * @return the record or <code>null</code> at the end of the dump
+     */
+    public Map<String, String> read() throws IOException;
+
+}
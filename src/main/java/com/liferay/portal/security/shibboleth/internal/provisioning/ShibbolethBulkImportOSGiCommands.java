@@ -0,0 +1,47 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.nio.file.Paths;
+
+/**
+ * Gogo shell commands of the bulk import, e.g.
+ * <code>shibboleth:importUsers 20116 /data/users.ldif</code> or, with the
+ * number of workers and the chunk size,
+ * <code>shibboleth:importUsers 20116 /data/users.csv 8 200</code>.
+ */
+@Component(
+        immediate = true,
+        property = {"osgi.command.function=importUsers", "osgi.command.scope=shibboleth"},
+        service = ShibbolethBulkImportOSGiCommands.class
+)
+public class ShibbolethBulkImportOSGiCommands {
+
+    public String importUsers(long companyId, String fileName) throws Exception {
+        return importUsers(
+                companyId, fileName, ShibbolethBulkImporter.DEFAULT_WORKER_COUNT,
+                ShibbolethBulkImporter.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Imports the users of the dump and returns a summary, which the Gogo
+     * shell prints
+     */
+    public String importUsers(long companyId, String fileName, int workerCount, int chunkSize) throws Exception {
+        ShibbolethBulkImportResult result = _shibbolethBulkImporter.importUsers(
+                companyId, Paths.get(fileName), workerCount, chunkSize);
+
+        return "Imported " + result.getImportedCount() + " users, skipped " + result.getSkippedCount() +
+                " records, " + result.getFailedCount() + " failed, " + result.getResumedCount() +
+                " already imported by an earlier run, in " + result.getElapsedMillis() + " ms";
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethBulkImporter(ShibbolethBulkImporter shibbolethBulkImporter) {
+        _shibbolethBulkImporter = shibbolethBulkImporter;
+    }
+
+    private ShibbolethBulkImporter _shibbolethBulkImporter;
+
+}
@@ -0,0 +1,62 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the records of a bulk import by outcome.
+ */
+public class ShibbolethBulkImportResult {
+
+    public long getElapsedMillis() {
+        return _elapsedMillis;
+    }
+
+    public long getFailedCount() {
+        return _failedCount.sum();
+    }
+
+    public long getImportedCount() {
+        return _importedCount.sum();
+    }
+
+    public long getResumedCount() {
+        return _resumedCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return _skippedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "{imported=" + getImportedCount() + ", skipped=" + getSkippedCount() + ", failed=" +
+                getFailedCount() + ", resumed=" + getResumedCount() + ", elapsedMillis=" + _elapsedMillis + "}";
+    }
+
+    protected void addFailed(long count) {
+        _failedCount.add(count);
+    }
+
+    protected void addImported(long count) {
+        _importedCount.add(count);
+    }
+
+    protected void addResumed(long count) {
+        _resumedCount.add(count);
+    }
+
+    protected void addSkipped(long count) {
+        _skippedCount.add(count);
+    }
+
+    protected void setElapsedMillis(long elapsedMillis) {
+        _elapsedMillis = elapsedMillis;
+    }
+
+    private volatile long _elapsedMillis;
+    private final LongAdder _failedCount = new LongAdder();
+    private final LongAdder _importedCount = new LongAdder();
+    private final LongAdder _resumedCount = new LongAdder();
+    private final LongAdder _skippedCount = new LongAdder();
+
+}
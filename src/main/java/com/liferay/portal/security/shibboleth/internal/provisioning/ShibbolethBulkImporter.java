@@ -0,0 +1,356 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.security.auth.CompanyThreadLocal;
+import com.liferay.portal.kernel.transaction.Propagation;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+import com.liferay.portal.security.shibboleth.auth.ShibbolethAutoLogin;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributeMappingPlan;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationSnapshot;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisions the users of an attribute dump exported from the identity
+ * provider (CSV or LDIF, see {@link ShibbolethAttributeDumpReader}) ahead of
+ * their first login, so a login storm only has to look the users up.
+ * <p/>
+ * The records are extracted with the company's attribute mapping plan and
+ * provisioned by {@link ShibbolethAutoLogin#importUser(long,
+ * ShibbolethAttributes)}, so users, custom fields, sites and roles end up as
+ * if the users had logged in. The records are imported in chunks by parallel
+ * workers, every chunk in one transaction. Any failure to synchronize a user
+ * fails the transaction instead of being logged, so no chunk is committed
+ * with partially synchronized users. A chunk that fails is imported again
+ * user by user, so a single bad record does not fail its chunk. Records that
+ * lack a value a user cannot be created without are counted as skipped.
+ * <p/>
+ * Unlike logins, imports are not coordinated by
+ * {@link ShibbolethProvisioningCoordinator}: its lock would be released
+ * before the chunk commits. A user created concurrently by a login fails its
+ * chunk, and the user is found when the chunk is imported user by user.
+ * <p/>
+ * The numbers of the completed chunks are appended to a progress file next
+ * to the dump. An interrupted import started again with the same dump and
+ * chunk size skips the completed chunks. The progress file is deleted once
+ * the dump is imported without failures.
+ */
+@Component(immediate = true, service = ShibbolethBulkImporter.class)
+public class ShibbolethBulkImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    public static final int DEFAULT_WORKER_COUNT = 4;
+
+    public ShibbolethBulkImportResult importUsers(long companyId, Path path, int workerCount, int chunkSize)
+            throws Exception {
+
+        if ((workerCount < 1) || (chunkSize < 1)) {
+            throw new IllegalArgumentException("Worker count and chunk size must be positive");
+        }
+
+        ShibbolethConfigurationSnapshot configuration = _shibbolethConfigurationCache.getConfiguration(companyId);
+
+        if (!configuration.enabled()) {
+            throw new ShibbolethProvisioningException("Shibboleth is not enabled for company " + companyId);
+        }
+
+        ShibbolethAttributeMappingPlan attributeMappingPlan = configuration.getAttributeMappingPlan();
+        ShibbolethBulkImportResult result = new ShibbolethBulkImportResult();
+        Progress progress = new Progress(path, chunkSize);
+
+        long startTime = System.currentTimeMillis();
+
+        _log.info("Importing users of company " + companyId + " from " + path + " with " + workerCount +
+                " workers in chunks of " + chunkSize);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(workerCount);
+
+        // at most two chunks per worker are read ahead
+
+        Semaphore semaphore = new Semaphore(workerCount * 2);
+
+        try (ShibbolethAttributeDumpReader reader = ShibbolethAttributeDumpReader.open(path)) {
+            int chunkNumber = 0;
+            List<Map<String, String>> records = new ArrayList<>(chunkSize);
+            Map<String, String> record;
+
+            while ((record = reader.read()) != null) {
+                records.add(record);
+
+                if (records.size() < chunkSize) {
+                    continue;
+                }
+
+                submit(
+                        executorService, semaphore, companyId, attributeMappingPlan, chunkNumber++, records,
+                        progress, result);
+
+                records = new ArrayList<>(chunkSize);
+            }
+
+            if (!records.isEmpty()) {
+                submit(
+                        executorService, semaphore, companyId, attributeMappingPlan, chunkNumber, records, progress,
+                        result);
+            }
+
+            executorService.shutdown();
+
+            while (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                _log.info("Import of " + path + " in progress: " + result);
+            }
+        } finally {
+            executorService.shutdownNow();
+
+            progress.close();
+        }
+
+        result.setElapsedMillis(System.currentTimeMillis() - startTime);
+
+        if (result.getFailedCount() == 0) {
+            progress.delete();
+        }
+
+        _log.info("Imported users of company " + companyId + " from " + path + ": " + result);
+
+        return result;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethAutoLogin(ShibbolethAutoLogin shibbolethAutoLogin) {
+        _shibbolethAutoLogin = shibbolethAutoLogin;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethConfigurationCache(ShibbolethConfigurationCache shibbolethConfigurationCache) {
+        _shibbolethConfigurationCache = shibbolethConfigurationCache;
+    }
+
+    private void importChunk(
+            long companyId, ShibbolethAttributeMappingPlan attributeMappingPlan, int chunkNumber,
+            List<Map<String, String>> records, Progress progress, ShibbolethBulkImportResult result) {
+
+        List<ShibbolethAttributes> attributesList = new ArrayList<>(records.size());
+
+        for (int i = 0; i < records.size(); i++) {
+            Map<String, String> record = records.get(i);
+
+            ShibbolethAttributes attributes = attributeMappingPlan.extract((name, header) -> record.get(name));
+
+            if (attributes == null) {
+
+                // the record is not logged, it holds the personal data of the
+                // user
+
+                _log.warn("Skipping record " + (i + 1) + " of chunk " + chunkNumber + " without login");
+
+                result.addSkipped(1);
+
+                continue;
+            }
+
+            attributesList.add(attributes);
+        }
+
+        Long previousCompanyId = CompanyThreadLocal.getCompanyId();
+
+        CompanyThreadLocal.setCompanyId(companyId);
+
+        try {
+            int importedCount = TransactionInvokerUtil.invoke(_transactionConfig, () -> {
+                int count = 0;
+
+                for (ShibbolethAttributes attributes : attributesList) {
+                    if (_shibbolethAutoLogin.importUser(companyId, attributes) != null) {
+                        count++;
+                    }
+                }
+
+                return count;
+            });
+
+            result.addImported(importedCount);
+            result.addSkipped(attributesList.size() - importedCount);
+
+            progress.complete(chunkNumber);
+
+            return;
+        } catch (Throwable t) {
+            _log.warn("Unable to import chunk " + chunkNumber + " in one transaction, importing its users one by " +
+                    "one: " + t.getMessage());
+        } finally {
+            CompanyThreadLocal.setCompanyId(previousCompanyId);
+        }
+
+        CompanyThreadLocal.setCompanyId(companyId);
+
+        boolean failed = false;
+
+        try {
+            for (ShibbolethAttributes attributes : attributesList) {
+                try {
+                    User user = TransactionInvokerUtil.invoke(
+                            _transactionConfig, () -> _shibbolethAutoLogin.importUser(companyId, attributes));
+
+                    if (user != null) {
+                        result.addImported(1);
+                    } else {
+                        result.addSkipped(1);
+                    }
+                } catch (Throwable t) {
+                    _log.error("Unable to import user " + attributes.getLogin() + ": " + t.getMessage());
+
+                    result.addFailed(1);
+
+                    failed = true;
+                }
+            }
+        } finally {
+            CompanyThreadLocal.setCompanyId(previousCompanyId);
+        }
+
+        if (!failed) {
+            progress.complete(chunkNumber);
+        }
+    }
+
+    private void submit(
+            ExecutorService executorService, Semaphore semaphore, long companyId,
+            ShibbolethAttributeMappingPlan attributeMappingPlan, int chunkNumber, List<Map<String, String>> records,
+            Progress progress, ShibbolethBulkImportResult result)
+            throws InterruptedException {
+
+        if (progress.isCompleted(chunkNumber)) {
+            result.addResumed(records.size());
+
+            return;
+        }
+
+        semaphore.acquire();
+
+        try {
+            executorService.execute(() -> {
+                try {
+                    importChunk(companyId, attributeMappingPlan, chunkNumber, records, progress, result);
+                } finally {
+                    semaphore.release();
+                }
+            });
+        } catch (RuntimeException re) {
+            semaphore.release();
+
+            throw re;
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethBulkImporter.class);
+
+    private static final TransactionConfig _transactionConfig = TransactionConfig.Factory.create(
+            Propagation.REQUIRED, new Class<?>[] {Exception.class});
+
+    private ShibbolethAutoLogin _shibbolethAutoLogin;
+    private ShibbolethConfigurationCache _shibbolethConfigurationCache;
+
+    /**
+     * The progress file of a dump. Its first line identifies the dump by size
+     * and modification time, and the chunk size; the completed chunks of a
+     * different dump or chunk size are not skipped.
+     */
+    private static class Progress {
+
+        public Progress(Path path, int chunkSize) throws IOException {
+            _path = path.resolveSibling(path.getFileName() + ".progress");
+
+            String header = Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis() + ":" + chunkSize;
+
+            if (Files.exists(_path)) {
+                List<String> lines = Files.readAllLines(_path, StandardCharsets.UTF_8);
+
+                if (!lines.isEmpty() && lines.get(0).equals(header)) {
+                    for (String line : lines.subList(1, lines.size())) {
+                        try {
+                            _completedChunkNumbers.add(Integer.valueOf(line.trim()));
+                        } catch (NumberFormatException nfe) {
+
+                            // the last line of an interrupted import may be incomplete
+
+                        }
+                    }
+
+                    _log.info("Resuming the import of " + path + ", skipping " + _completedChunkNumbers.size() +
+                            " completed chunks");
+                }
+            }
+
+            if (_completedChunkNumbers.isEmpty()) {
+                _writer = Files.newBufferedWriter(_path, StandardCharsets.UTF_8);
+
+                _writer.write(header);
+                _writer.newLine();
+                _writer.flush();
+            } else {
+                _writer = Files.newBufferedWriter(_path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+                // start on a new line after an incomplete last line
+
+                _writer.newLine();
+                _writer.flush();
+            }
+        }
+
+        public synchronized void close() {
+            try {
+                _writer.close();
+            } catch (IOException ioe) {
+                _log.warn("Unable to close progress file " + _path + ": " + ioe.getMessage());
+            }
+        }
+
+        public synchronized void complete(int chunkNumber) {
+            try {
+                _writer.write(String.valueOf(chunkNumber));
+                _writer.newLine();
+                _writer.flush();
+            } catch (IOException ioe) {
+                _log.warn("Unable to record the completion of chunk " + chunkNumber + " in " + _path + ": " +
+                        ioe.getMessage());
+            }
+        }
+
+        public void delete() throws IOException {
+            Files.deleteIfExists(_path);
+        }
+
+        public boolean isCompleted(int chunkNumber) {
+            return _completedChunkNumbers.contains(chunkNumber);
+        }
+
+        private final Set<Integer> _completedChunkNumbers = new HashSet<>();
+        private final Path _path;
+        private final BufferedWriter _writer;
+
+    }
+
+}
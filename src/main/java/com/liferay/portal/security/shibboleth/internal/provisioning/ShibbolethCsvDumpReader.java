@@ -0,0 +1,138 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads an attribute dump in CSV format (RFC 4180). The first row holds the
+ * attribute names. Multi-valued attributes hold their values in one field,
+ * separated by <code>;</code>.
+ */
+public class ShibbolethCsvDumpReader implements ShibbolethAttributeDumpReader {
+
+    public ShibbolethCsvDumpReader(BufferedReader reader) {
+        _reader = reader;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _reader.close();
+    }
+
+    @Override
+    public Map<String, String> read() throws IOException {
+        if (_names == null) {
+            List<String> names = readRow();
+
+            if (names == null) {
+                return null;
+            }
+
+            _names = names.toArray(new String[names.size()]);
+
+            for (int i = 0; i < _names.length; i++) {
+                _names[i] = _names[i].trim();
+            }
+        }
+
+        List<String> values;
+
+        do {
+            values = readRow();
+
+            if (values == null) {
+                return null;
+            }
+        } while ((values.size() == 1) && values.get(0).isEmpty());
+
+        if (values.size() > _names.length) {
+            throw new IOException(
+                    "Row " + _rowNumber + " has " + values.size() + " fields, the header only " + _names.length);
+        }
+
+        Map<String, String> record = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+
+            if (!value.isEmpty()) {
+                record.put(_names[i], value);
+            }
+        }
+
+        return record;
+    }
+
+    private List<String> readRow() throws IOException {
+        String line = _reader.readLine();
+
+        if (line == null) {
+            return null;
+        }
+
+        _rowNumber++;
+
+        List<String> values = new ArrayList<>();
+
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+
+                // a quoted field continues on the next line
+
+                line = _reader.readLine();
+
+                if (line == null) {
+                    throw new IOException("Unterminated quoted field in row " + _rowNumber);
+                }
+
+                sb.append('\n');
+
+                i = 0;
+
+                continue;
+            }
+
+            char c = line.charAt(i++);
+
+            if (quoted) {
+                if (c != '"') {
+                    sb.append(c);
+                } else if ((i < line.length()) && (line.charAt(i) == '"')) {
+                    sb.append('"');
+
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(sb.toString());
+
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+
+        values.add(sb.toString());
+
+        return values;
+    }
+
+    private String[] _names;
+    private final BufferedReader _reader;
+    private int _rowNumber;
+
+}
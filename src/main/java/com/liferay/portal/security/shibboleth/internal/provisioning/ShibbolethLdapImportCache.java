@@ -0,0 +1,126 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.service.UserLocalService;
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import com.liferay.portal.security.shibboleth.internal.cache.ShibbolethExpiringCache;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the outcome of LDAP imports per company and login, so the
+ * directory is not asked again on every request of a session.
+ * <p/>
+ * A successful import is remembered as the ID of the imported user, which is
+ * found by primary key on later requests even if the portal's lookup by
+ * screen name or email address does not match it. A failed import (no user
+ * found or an error of the directory) is remembered for a few minutes; the
+ * import is tried again once that time has passed. Imports turned away by the
+ * provisioning bulkhead are not remembered. The outcomes of a company are
+ * forgotten on all nodes when its Shibboleth configuration changes. Changes of
+ * the portal's LDAP settings are not tracked; a login whose import failed
+ * before the settings were fixed is imported once its failure has expired.
+ */
+@Component(immediate = true, service = ShibbolethLdapImportCache.class)
+public class ShibbolethLdapImportCache {
+
+    public long getFailureHitCount() {
+        return _failureHitCount.sum();
+    }
+
+    public long getImportHitCount() {
+        return _importHitCount.sum();
+    }
+
+    /**
+     * Returns the user imported earlier for the login or, unless an import of
+     * the login failed recently, the user imported by <code>importer</code>
+     *
+     * @return the user or <code>null</code> if the import failed now or
+     *         recently
+     */
+    public User importUser(long companyId, String login, Callable<User> importer) throws Exception {
+        String key = companyId + StringPool.POUND + StringUtil.toLowerCase(login);
+
+        Long userId = _userIds.get(key);
+
+        if (userId != null) {
+            if (userId == _FAILED_USER_ID) {
+                _failureHitCount.increment();
+
+                if (_log.isDebugEnabled()) {
+                    _log.debug("Skipping the LDAP import of " + login + ", it failed recently");
+                }
+
+                return null;
+            }
+
+            User user = _userLocalService.fetchUser(userId);
+
+            if (user != null) {
+                _importHitCount.increment();
+
+                return user;
+            }
+
+            _userIds.remove(key);
+        }
+
+        User user;
+
+        try {
+            user = importer.call();
+        } catch (ShibbolethProvisioningRejectedException spre) {
+            throw spre;
+        } catch (Exception e) {
+            _userIds.put(key, _FAILED_USER_ID, _FAILURE_TTL);
+
+            throw e;
+        }
+
+        if (user == null) {
+            _userIds.put(key, _FAILED_USER_ID, _FAILURE_TTL);
+        } else {
+            _userIds.put(key, user.getUserId(), _IMPORT_TTL);
+        }
+
+        return user;
+    }
+
+    /**
+     * Forgets the imports of the company, so a change of its Shibboleth
+     * configuration takes effect on the next login
+     */
+    public void invalidate(long companyId) {
+        String prefix = companyId + StringPool.POUND;
+
+        _userIds.removeIf(key -> key.startsWith(prefix));
+    }
+
+    @Reference(unbind = "-")
+    protected void setUserLocalService(UserLocalService userLocalService) {
+        _userLocalService = userLocalService;
+    }
+
+    private static final long _FAILED_USER_ID = 0;
+
+    private static final long _FAILURE_TTL = 5 * 60 * 1000;
+
+    private static final long _IMPORT_TTL = 60 * 60 * 1000;
+
+    private static final int _MAX_SIZE = 10000;
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethLdapImportCache.class);
+
+    private final LongAdder _failureHitCount = new LongAdder();
+    private final LongAdder _importHitCount = new LongAdder();
+    private UserLocalService _userLocalService;
+    private final ShibbolethExpiringCache<String, Long> _userIds = new ShibbolethExpiringCache<>(_MAX_SIZE);
+
+}
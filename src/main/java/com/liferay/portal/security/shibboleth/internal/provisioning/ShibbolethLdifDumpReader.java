@@ -0,0 +1,154 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads an attribute dump in LDIF format (RFC 2849). Every entry is a record,
+ * the <code>dn</code> and <code>changetype</code> lines are ignored. The values
+ * of an attribute occurring several times are joined with <code>;</code>, a
+ * <code>;</code> inside a value is escaped as <code>\;</code>.
+ */
+public class ShibbolethLdifDumpReader implements ShibbolethAttributeDumpReader {
+
+    public ShibbolethLdifDumpReader(BufferedReader reader) {
+        _reader = reader;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _reader.close();
+    }
+
+    @Override
+    public Map<String, String> read() throws IOException {
+        Map<String, String> record = null;
+
+        String line;
+
+        while ((line = readLine()) != null) {
+            if (line.isEmpty()) {
+                if (record != null) {
+                    return record;
+                }
+
+                continue;
+            }
+
+            if (line.startsWith("#") || line.startsWith("version:")) {
+                continue;
+            }
+
+            int index = line.indexOf(':');
+
+            if (index <= 0) {
+                throw new IOException("Invalid LDIF line " + _lineNumber + ": " + line);
+            }
+
+            String name = line.substring(0, index);
+
+            // options such as ;binary or ;lang-en are not part of the name
+
+            int optionsIndex = name.indexOf(';');
+
+            if (optionsIndex > 0) {
+                name = name.substring(0, optionsIndex);
+            }
+
+            if (name.equalsIgnoreCase("dn") || name.equalsIgnoreCase("changetype")) {
+                if (record == null) {
+                    record = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                }
+
+                continue;
+            }
+
+            String value;
+
+            if (line.startsWith("::", index)) {
+                try {
+                    value = new String(
+                            Base64.getMimeDecoder().decode(line.substring(index + 2).trim()),
+                            StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException iae) {
+                    throw new IOException("Invalid base64 value in LDIF line " + _lineNumber, iae);
+                }
+            } else if (line.startsWith(":<", index)) {
+                throw new IOException("URL values are not supported, LDIF line " + _lineNumber);
+            } else {
+                value = line.substring(index + 1).trim();
+            }
+
+            if (record == null) {
+                record = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            }
+
+            value = value.replace(";", "\\;");
+
+            String previousValue = record.get(name);
+
+            if (previousValue == null) {
+                record.put(name, value);
+            } else {
+                record.put(name, previousValue + ";" + value);
+            }
+        }
+
+        return record;
+    }
+
+    /**
+     * Returns the next logical line, with continuation lines (starting with a
+     * space) unfolded
+     */
+    private String readLine() throws IOException {
+        String line = _nextLine;
+
+        if (line == null) {
+            line = _reader.readLine();
+
+            if (line == null) {
+                return null;
+            }
+
+            _lineNumber++;
+        }
+
+        _nextLine = null;
+
+        StringBuilder sb = null;
+
+        String nextLine;
+
+        while ((nextLine = _reader.readLine()) != null) {
+            _lineNumber++;
+
+            if (!nextLine.startsWith(" ")) {
+                _nextLine = nextLine;
+
+                break;
+            }
+
+            if (sb == null) {
+                sb = new StringBuilder(line);
+            }
+
+            sb.append(nextLine, 1, nextLine.length());
+        }
+
+        if (sb == null) {
+            return line;
+        }
+
+        return sb.toString();
+    }
+
+    private int _lineNumber;
+    private String _nextLine;
+    private final BufferedReader _reader;
+
+}
@@ -0,0 +1,194 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.configuration.metatype.bnd.util.ConfigurableUtil;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethProvisioningBulkheadConfiguration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of provisioning operations running at the same time on this
+ * node, so a login storm of new users cannot take all database connections
+ * from the regular page traffic.
+ * <p/>
+ * An operation that finds all permits taken waits for one, as long as fewer
+ * than the maximum number of operations are waiting already and at most for
+ * the wait timeout. Otherwise it is rejected with a
+ * {@link ShibbolethProvisioningRejectedException}. Lookups of existing users
+ * do not pass the bulkhead. When the bulkhead is disabled operations run
+ * without limits.
+ */
+@Component(
+        immediate = true,
+        configurationPid = "com.liferay.portal.security.shibboleth.configuration.ShibbolethProvisioningBulkheadConfiguration",
+        service = ShibbolethProvisioningBulkhead.class
+)
+public class ShibbolethProvisioningBulkhead {
+
+    /**
+     * Runs the provisioning operation once a permit is available
+     *
+     * @throws ShibbolethProvisioningRejectedException if the operation is
+     *         turned away
+     */
+    public <T> T execute(Callable<T> callable) throws Exception {
+        Limiter limiter = _limiter;
+
+        if (limiter == null) {
+            return callable.call();
+        }
+
+        limiter.acquire();
+
+        _admittedCount.increment();
+
+        try {
+            return callable.call();
+        } finally {
+            limiter.release();
+        }
+    }
+
+    public long getActiveCount() {
+        Limiter limiter = _limiter;
+
+        if (limiter == null) {
+            return 0;
+        }
+
+        return limiter.getActiveCount();
+    }
+
+    public long getAdmittedCount() {
+        return _admittedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return _rejectedCount.sum();
+    }
+
+    public long getTimedOutCount() {
+        return _timedOutCount.sum();
+    }
+
+    public long getWaitingCount() {
+        Limiter limiter = _limiter;
+
+        if (limiter == null) {
+            return 0;
+        }
+
+        return limiter.getWaitingCount();
+    }
+
+    @Activate
+    @Modified
+    protected void activate(Map<String, Object> properties) {
+        ShibbolethProvisioningBulkheadConfiguration configuration = ConfigurableUtil.createConfigurable(
+                ShibbolethProvisioningBulkheadConfiguration.class, properties);
+
+        if (!configuration.enabled()) {
+            _limiter = null;
+
+            return;
+        }
+
+        // operations admitted by the previous limiter release their permits
+        // to it, so they are not counted against the new limits
+
+        _limiter = new Limiter(
+                Math.max(1, configuration.maxConcurrent()), Math.max(0, configuration.maxWaiting()),
+                Math.max(0, configuration.waitTimeout()));
+
+        if (_log.isInfoEnabled()) {
+            _log.info("Allowing " + configuration.maxConcurrent() + " concurrent provisioning operations with " +
+                    configuration.maxWaiting() + " waiting for at most " + configuration.waitTimeout() + " ms");
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        _limiter = null;
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethProvisioningBulkhead.class);
+
+    private final LongAdder _admittedCount = new LongAdder();
+    private volatile Limiter _limiter;
+    private final LongAdder _rejectedCount = new LongAdder();
+    private final LongAdder _timedOutCount = new LongAdder();
+
+    private class Limiter {
+
+        public Limiter(int maxConcurrent, int maxWaiting, long waitTimeout) {
+            _maxConcurrent = maxConcurrent;
+            _maxWaiting = maxWaiting;
+            _waitTimeout = waitTimeout;
+
+            _semaphore = new Semaphore(maxConcurrent, true);
+        }
+
+        public void acquire() throws ShibbolethProvisioningRejectedException {
+            if (_semaphore.tryAcquire()) {
+                return;
+            }
+
+            if (_waitingCount.incrementAndGet() > _maxWaiting) {
+                _waitingCount.decrementAndGet();
+
+                _rejectedCount.increment();
+
+                throw new ShibbolethProvisioningRejectedException(
+                        "Too many provisioning operations are waiting already");
+            }
+
+            try {
+                if (!_semaphore.tryAcquire(_waitTimeout, TimeUnit.MILLISECONDS)) {
+                    _timedOutCount.increment();
+
+                    throw new ShibbolethProvisioningRejectedException(
+                            "Timed out after " + _waitTimeout + " ms waiting for a provisioning permit");
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+
+                _rejectedCount.increment();
+
+                throw new ShibbolethProvisioningRejectedException(
+                        "Interrupted while waiting for a provisioning permit");
+            } finally {
+                _waitingCount.decrementAndGet();
+            }
+        }
+
+        public int getActiveCount() {
+            return _maxConcurrent - _semaphore.availablePermits();
+        }
+
+        public int getWaitingCount() {
+            return _waitingCount.get();
+        }
+
+        public void release() {
+            _semaphore.release();
+        }
+
+        private final int _maxConcurrent;
+        private final int _maxWaiting;
+        private final Semaphore _semaphore;
+        private final long _waitTimeout;
+        private final AtomicInteger _waitingCount = new AtomicInteger();
+
+    }
+
+}
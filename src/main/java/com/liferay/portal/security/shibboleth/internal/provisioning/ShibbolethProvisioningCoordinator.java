@@ -0,0 +1,180 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.kernel.lock.Lock;
+import com.liferay.portal.kernel.lock.LockManager;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.util.GetterUtil;
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure a user is provisioned only once when several requests of the
+ * same, not yet existing user arrive at the same time.
+ * <p/>
+ * Within a node, the first request for a login runs the provisioning and the
+ * others wait for its result. The provisioner is expected to set the user up
+ * completely, including its roles and memberships, since the requests that
+ * waited for it or found the user created do not. With the cluster lock
+ * enabled, the provisioning request additionally holds a portal lock on the
+ * login, so requests handled by other nodes wait as well and then find the
+ * user created by the lock holder. A lock left behind by a crashed node is
+ * taken over once it is older than twice the wait timeout.
+ */
+@Component(immediate = true, service = ShibbolethProvisioningCoordinator.class)
+public class ShibbolethProvisioningCoordinator {
+
+    /**
+     * Returns the user found by <code>lookup</code> or, if there is none,
+     * the user created by <code>provisioner</code>
+     */
+    public User provision(
+            long companyId, String login, boolean clusterLockEnabled, Callable<User> lookup,
+            Callable<User> provisioner)
+            throws Exception {
+
+        String key = companyId + StringPool.POUND + StringUtil.toLowerCase(login);
+
+        CompletableFuture<User> future = new CompletableFuture<>();
+
+        CompletableFuture<User> inFlightFuture = _inFlightFutures.putIfAbsent(key, future);
+
+        if (inFlightFuture != null) {
+            _log.info("Waiting for the concurrent provisioning of user " + login);
+
+            try {
+                return inFlightFuture.get(_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+
+                throw ee;
+            }
+        }
+
+        try {
+            User user;
+
+            if (clusterLockEnabled) {
+                user = provisionWithClusterLock(key, lookup, provisioner);
+            } else {
+                user = provision(lookup, provisioner);
+            }
+
+            future.complete(user);
+
+            return user;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            _inFlightFutures.remove(key, future);
+        }
+    }
+
+    @Reference(unbind = "-")
+    protected void setLockManager(LockManager lockManager) {
+        _lockManager = lockManager;
+    }
+
+    private String acquireClusterLock(String key) throws Exception {
+        String owner = _OWNER_PREFIX + System.currentTimeMillis();
+
+        long deadline = System.currentTimeMillis() + _WAIT_TIMEOUT;
+
+        while (true) {
+            Lock lock = _lockManager.lock(_LOCK_CLASS_NAME, key, owner);
+
+            if (owner.equals(lock.getOwner())) {
+                return owner;
+            }
+
+            if (isStale(lock.getOwner())) {
+                _log.warn("Taking over the stale provisioning lock " + lock.getOwner() + " of " + key);
+
+                lock = _lockManager.lock(_LOCK_CLASS_NAME, key, lock.getOwner(), owner);
+
+                if (owner.equals(lock.getOwner())) {
+                    return owner;
+                }
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                throw new ShibbolethProvisioningException(
+                        "Timed out waiting for the provisioning lock of " + key + " held by " + lock.getOwner());
+            }
+
+            Thread.sleep(_LOCK_POLL_INTERVAL);
+        }
+    }
+
+    private boolean isStale(String owner) {
+        if (owner == null) {
+            return false;
+        }
+
+        int index = owner.lastIndexOf(StringPool.AT);
+
+        long acquireTime = GetterUtil.getLong(owner.substring(index + 1));
+
+        if ((acquireTime > 0) && ((System.currentTimeMillis() - acquireTime) > (2 * _WAIT_TIMEOUT))) {
+            return true;
+        }
+
+        return false;
+    }
+
+    private User provision(Callable<User> lookup, Callable<User> provisioner) throws Exception {
+
+        // the user may have been created since the caller looked it up
+
+        User user = lookup.call();
+
+        if (user != null) {
+            return user;
+        }
+
+        return provisioner.call();
+    }
+
+    private User provisionWithClusterLock(String key, Callable<User> lookup, Callable<User> provisioner)
+            throws Exception {
+
+        String owner = acquireClusterLock(key);
+
+        try {
+            return provision(lookup, provisioner);
+        } finally {
+            _lockManager.unlock(_LOCK_CLASS_NAME, key, owner);
+        }
+    }
+
+    private static final String _LOCK_CLASS_NAME = ShibbolethProvisioningCoordinator.class.getName();
+
+    private static final long _LOCK_POLL_INTERVAL = 100;
+
+    private static final String _OWNER_PREFIX = UUID.randomUUID().toString() + StringPool.AT;
+
+    private static final long _WAIT_TIMEOUT = 30000;
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethProvisioningCoordinator.class);
+
+    private final ConcurrentMap<String, CompletableFuture<User>> _inFlightFutures = new ConcurrentHashMap<>();
+    private LockManager _lockManager;
+
+}
@@ -0,0 +1,18 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.kernel.exception.PortalException;
+
+/**
+ * Thrown when a user cannot be provisioned because of concurrent logins.
+ */
+public class ShibbolethProvisioningException extends PortalException {
+
+    public ShibbolethProvisioningException(String msg) {
+        super(msg);
+    }
+
+    public ShibbolethProvisioningException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+/**
+ * Thrown when the provisioning bulkhead turns a provisioning operation away
+ * because too many are running or waiting already.
+ */
+public class ShibbolethProvisioningRejectedException extends ShibbolethProvisioningException {
+
+    public ShibbolethProvisioningRejectedException(String msg) {
+        super(msg);
+    }
+
+}
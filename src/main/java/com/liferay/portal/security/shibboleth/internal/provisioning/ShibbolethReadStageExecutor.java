@@ -0,0 +1,157 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.configuration.metatype.bnd.util.ConfigurableUtil;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethReadStageExecutorConfiguration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the read stages of logins that do not depend on each other, e.g. the
+ * role lookups, concurrently with the user lookup of the login thread.
+ * <p/>
+ * The stages run on virtual threads if the runtime supports them and they
+ * are enabled, otherwise on a fixed number of platform threads with a bounded
+ * queue. A stage that does not fit into the queue, or is submitted while the
+ * executor is stopped, runs in the submitting thread.
+ */
+@Component(
+        immediate = true,
+        configurationPid = "com.liferay.portal.security.shibboleth.configuration.ShibbolethReadStageExecutorConfiguration",
+        service = ShibbolethReadStageExecutor.class
+)
+public class ShibbolethReadStageExecutor implements Executor {
+
+    @Override
+    public void execute(Runnable runnable) {
+        ExecutorService executorService = _executorService;
+
+        if (executorService != null) {
+            try {
+                executorService.execute(runnable);
+
+                return;
+            } catch (RejectedExecutionException ree) {
+
+                // the queue is full or the executor is being replaced
+
+            }
+        }
+
+        _callerRunCount.increment();
+
+        runnable.run();
+    }
+
+    /**
+     * Returns the number of stages that ran in the submitting thread
+     */
+    public long getCallerRunCount() {
+        return _callerRunCount.sum();
+    }
+
+    /**
+     * Returns the number of stages a login should split its reads into
+     */
+    public int getParallelism() {
+        return _parallelism;
+    }
+
+    @Activate
+    @Modified
+    protected void activate(Map<String, Object> properties) {
+        deactivate();
+
+        ShibbolethReadStageExecutorConfiguration configuration = ConfigurableUtil.createConfigurable(
+                ShibbolethReadStageExecutorConfiguration.class, properties);
+
+        int threadCount = Math.max(1, configuration.threadCount());
+
+        ExecutorService executorService = null;
+
+        if (configuration.virtualThreadsEnabled()) {
+            executorService = createVirtualThreadExecutorService();
+        }
+
+        if (executorService == null) {
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                    threadCount, threadCount, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, configuration.queueCapacity())), runnable -> {
+                        Thread thread = new Thread(
+                                runnable, "Shibboleth Read Stage-" + _threadCounter.incrementAndGet());
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    });
+
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+            executorService = threadPoolExecutor;
+        }
+
+        _parallelism = threadCount;
+        _executorService = executorService;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ExecutorService executorService = _executorService;
+
+        if (executorService == null) {
+            return;
+        }
+
+        _executorService = null;
+
+        // the queued stages still run, a login waiting for one of them runs
+        // it itself if it has not started yet
+
+        executorService.shutdown();
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per stage
+     *
+     * @return the executor or <code>null</code> if the runtime does not
+     *         support virtual threads
+     */
+    private static ExecutorService createVirtualThreadExecutorService() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException nsme) {
+            if (_log.isDebugEnabled()) {
+                _log.debug("Virtual threads are not supported by this runtime, using platform threads");
+            }
+        } catch (ReflectiveOperationException roe) {
+            _log.warn("Unable to create a virtual thread executor, using platform threads: " + roe.getMessage());
+        }
+
+        return null;
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethReadStageExecutor.class);
+
+    private final LongAdder _callerRunCount = new LongAdder();
+    private volatile ExecutorService _executorService;
+    private volatile int _parallelism = 1;
+    private final AtomicInteger _threadCounter = new AtomicInteger();
+
+}
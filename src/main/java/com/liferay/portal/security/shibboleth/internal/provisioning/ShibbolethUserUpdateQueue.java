@@ -0,0 +1,286 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.configuration.metatype.bnd.util.ConfigurableUtil;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethUserUpdateQueueConfiguration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies post-login user updates in the background.
+ * <p/>
+ * Updates are queued per user. An update offered for a user that is still
+ * waiting replaces the waiting one, so only the newest attribute set of a user
+ * is applied. An update offered while an update of the same user is being
+ * applied waits until that one is done and is then applied by the same
+ * worker, so the updates of a user never run concurrently or out of order.
+ * Workers take the queued users in batches. When the queue is full
+ * {@link #offer(long, Callable)} returns <code>false</code> and the caller is
+ * expected to apply the update itself. On deactivation the workers stop taking
+ * new batches and get the shutdown timeout to finish their current one; the
+ * remaining updates are then applied until the shutdown timeout runs out
+ * again.
+ */
+@Component(
+        immediate = true,
+        configurationPid = "com.liferay.portal.security.shibboleth.configuration.ShibbolethUserUpdateQueueConfiguration",
+        service = ShibbolethUserUpdateQueue.class
+)
+public class ShibbolethUserUpdateQueue {
+
+    public long getAppliedCount() {
+        return _appliedCount.sum();
+    }
+
+    public long getCoalescedCount() {
+        return _coalescedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return _failedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return _rejectedCount.sum();
+    }
+
+    public int getSize() {
+        return _pendingUpdates.size();
+    }
+
+    /**
+     * Queues the update of the user, replacing an update of the same user that
+     * has not been applied yet
+     *
+     * @return <code>false</code> if the queue is full or shut down and the
+     *         update has to be applied by the caller
+     */
+    public boolean offer(long userId, Callable<?> update) {
+        synchronized (this) {
+            if (_userIds == null) {
+                _rejectedCount.increment();
+
+                return false;
+            }
+
+            if (_pendingUpdates.put(userId, update) != null) {
+
+                // the user is still queued, its worker will pick up the newer
+                // update
+
+                _coalescedCount.increment();
+
+                return true;
+            }
+
+            if (_applyingUserIds.contains(userId)) {
+
+                // the worker applying the current update of the user applies
+                // this one right after it
+
+                return true;
+            }
+
+            if (!_userIds.offer(userId)) {
+                _pendingUpdates.remove(userId);
+
+                _rejectedCount.increment();
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Activate
+    @Modified
+    protected void activate(Map<String, Object> properties) {
+        deactivate();
+
+        ShibbolethUserUpdateQueueConfiguration configuration = ConfigurableUtil.createConfigurable(
+                ShibbolethUserUpdateQueueConfiguration.class, properties);
+
+        _batchSize = Math.max(1, configuration.batchSize());
+        _shutdownTimeout = TimeUnit.SECONDS.toMillis(Math.max(0, configuration.shutdownTimeout()));
+
+        int workerCount = Math.max(1, configuration.workerCount());
+
+        BlockingQueue<Long> userIds = new ArrayBlockingQueue<>(Math.max(1, configuration.queueCapacity()));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(
+                    runnable, "Shibboleth User Update Worker-" + _threadCounter.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        synchronized (this) {
+            _userIds = userIds;
+            _executorService = executorService;
+            _running = running;
+        }
+
+        for (int i = 0; i < workerCount; i++) {
+            executorService.execute(() -> work(userIds, running));
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        BlockingQueue<Long> userIds;
+        ExecutorService executorService;
+        AtomicBoolean running;
+
+        synchronized (this) {
+            userIds = _userIds;
+            executorService = _executorService;
+            running = _running;
+
+            _userIds = null;
+            _executorService = null;
+            _running = null;
+        }
+
+        if (executorService == null) {
+            return;
+        }
+
+        // let the workers finish their current batch, the rest of the queue is
+        // drained by this thread
+
+        running.set(false);
+
+        executorService.shutdown();
+
+        try {
+            executorService.awaitTermination(_shutdownTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        long deadline = System.currentTimeMillis() + _shutdownTimeout;
+
+        List<Long> remainingUserIds = new ArrayList<>();
+
+        userIds.drainTo(remainingUserIds);
+
+        for (Long userId : remainingUserIds) {
+            if (System.currentTimeMillis() > deadline) {
+                _log.warn("Discarding " + _pendingUpdates.size() + " user updates left after the shutdown timeout");
+
+                _pendingUpdates.clear();
+
+                return;
+            }
+
+            apply(userId);
+        }
+    }
+
+    /**
+     * Applies the pending update of the user and then the updates offered for
+     * the user in the meantime
+     */
+    private void apply(Long userId) {
+        Callable<?> update;
+
+        synchronized (this) {
+            update = _pendingUpdates.remove(userId);
+
+            if (update == null) {
+                return;
+            }
+
+            _applyingUserIds.add(userId);
+        }
+
+        while (true) {
+            try {
+                update.call();
+
+                _appliedCount.increment();
+            } catch (Exception e) {
+                _failedCount.increment();
+
+                _log.error("Unable to update user " + userId + ": " + e.getMessage(), e);
+            }
+
+            synchronized (this) {
+                update = _pendingUpdates.remove(userId);
+
+                if (update == null) {
+                    _applyingUserIds.remove(userId);
+
+                    return;
+                }
+            }
+        }
+    }
+
+    private void work(BlockingQueue<Long> userIds, AtomicBoolean running) {
+        List<Long> batch = new ArrayList<>(_batchSize);
+
+        while (running.get()) {
+            try {
+                Long userId = userIds.poll(1, TimeUnit.SECONDS);
+
+                if (userId == null) {
+                    continue;
+                }
+
+                batch.add(userId);
+
+                userIds.drainTo(batch, _batchSize - 1);
+
+                for (Long batchUserId : batch) {
+                    apply(batchUserId);
+                }
+            } catch (InterruptedException ie) {
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethUserUpdateQueue.class);
+
+    private final LongAdder _appliedCount = new LongAdder();
+    private final Set<Long> _applyingUserIds = new HashSet<>();
+    private volatile int _batchSize;
+    private final LongAdder _coalescedCount = new LongAdder();
+    private ExecutorService _executorService;
+    private final LongAdder _failedCount = new LongAdder();
+    private final ConcurrentMap<Long, Callable<?>> _pendingUpdates = new ConcurrentHashMap<>();
+    private final LongAdder _rejectedCount = new LongAdder();
+    private AtomicBoolean _running;
+    private volatile long _shutdownTimeout;
+    private final AtomicInteger _threadCounter = new AtomicInteger();
+    private BlockingQueue<Long> _userIds;
+
+}
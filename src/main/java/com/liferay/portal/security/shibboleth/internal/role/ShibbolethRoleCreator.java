@@ -0,0 +1,212 @@
+package com.liferay.portal.security.shibboleth.internal.role;
+
+import com.liferay.counter.kernel.service.CounterLocalService;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.model.RoleConstants;
+import com.liferay.portal.kernel.service.ClassNameLocalService;
+import com.liferay.portal.kernel.service.RoleLocalService;
+import com.liferay.portal.kernel.transaction.Propagation;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+import com.liferay.portal.kernel.util.StringPool;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the roles for affiliation values that do not match an existing role.
+ * <p/>
+ * Role IDs come from the counter service. Within a node, only one thread
+ * creates a given role of a company, the others wait for its result. All roles
+ * a thread has to create are added in one transaction of their own, which
+ * commits before the transaction of the caller, if any, so the roles are
+ * visible to other threads and nodes right away and a failed attempt does not
+ * doom the caller's transaction. A role created at the same time by another
+ * node or import worker makes that transaction fail on the unique role name;
+ * the roles that exist by then are fetched and the remaining ones are created
+ * in a new attempt.
+ */
+@Component(immediate = true, service = ShibbolethRoleCreator.class)
+public class ShibbolethRoleCreator {
+
+    /**
+     * Returns the IDs of the roles with the names, creating the roles that do
+     * not exist yet. Names whose role could not be created are missing from
+     * the returned map.
+     */
+    public Map<String, Long> addRoles(long companyId, Collection<String> names) throws Exception {
+        Map<String, Long> roleIds = new HashMap<>();
+
+        Map<String, CompletableFuture<Long>> ownFutures = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Long>> otherFutures = new LinkedHashMap<>();
+
+        for (String name : names) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+
+            CompletableFuture<Long> inFlightFuture = _inFlightFutures.putIfAbsent(getKey(companyId, name), future);
+
+            if (inFlightFuture == null) {
+                ownFutures.put(name, future);
+            } else {
+                otherFutures.put(name, inFlightFuture);
+            }
+        }
+
+        try {
+            if (!ownFutures.isEmpty()) {
+                roleIds.putAll(doAddRoles(companyId, ownFutures.keySet()));
+            }
+
+            for (Map.Entry<String, CompletableFuture<Long>> entry : ownFutures.entrySet()) {
+                CompletableFuture<Long> future = entry.getValue();
+
+                future.complete(roleIds.get(entry.getKey()));
+            }
+        } catch (Exception e) {
+            for (CompletableFuture<Long> future : ownFutures.values()) {
+                future.completeExceptionally(e);
+            }
+
+            throw e;
+        } finally {
+            for (Map.Entry<String, CompletableFuture<Long>> entry : ownFutures.entrySet()) {
+                _inFlightFutures.remove(getKey(companyId, entry.getKey()), entry.getValue());
+            }
+        }
+
+        for (Map.Entry<String, CompletableFuture<Long>> entry : otherFutures.entrySet()) {
+            CompletableFuture<Long> future = entry.getValue();
+
+            try {
+                Long roleId = future.get(_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+
+                if (roleId != null) {
+                    roleIds.put(entry.getKey(), roleId);
+                }
+            } catch (Exception e) {
+                _log.error("Role '" + entry.getKey() + "' was not created by a concurrent login: " + e.getMessage());
+            }
+        }
+
+        return roleIds;
+    }
+
+    @Reference(unbind = "-")
+    protected void setClassNameLocalService(ClassNameLocalService classNameLocalService) {
+        _classNameLocalService = classNameLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setCounterLocalService(CounterLocalService counterLocalService) {
+        _counterLocalService = counterLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setRoleLocalService(RoleLocalService roleLocalService) {
+        _roleLocalService = roleLocalService;
+    }
+
+    private Map<String, Long> addRolesInTransaction(long companyId, List<String> names) {
+        Map<String, Long> roleIds = new HashMap<>();
+
+        for (String name : names) {
+            Role role = _roleLocalService.fetchRole(companyId, name);
+
+            if (role == null) {
+                long roleId = _counterLocalService.increment();
+
+                role = _roleLocalService.createRole(roleId);
+
+                role.setCompanyId(companyId);
+                role.setClassNameId(_classNameLocalService.getClassNameId(Role.class));
+                role.setClassPK(roleId);
+                role.setName(name);
+                role.setType(RoleConstants.TYPE_REGULAR);
+
+                role = _roleLocalService.addRole(role);
+
+                _log.info("Created role '" + name + "' with ID " + roleId);
+            }
+
+            roleIds.put(name, role.getRoleId());
+        }
+
+        return roleIds;
+    }
+
+    private Map<String, Long> doAddRoles(final long companyId, Collection<String> names) throws Exception {
+        Map<String, Long> roleIds = new HashMap<>();
+
+        final List<String> missingNames = new ArrayList<>(names);
+
+        for (int attempt = 1;; attempt++) {
+            try {
+                roleIds.putAll(TransactionInvokerUtil.invoke(
+                        _transactionConfig, () -> addRolesInTransaction(companyId, missingNames)));
+
+                return roleIds;
+            } catch (Throwable t) {
+                if (attempt >= _MAX_ATTEMPTS) {
+                    if (t instanceof Exception) {
+                        throw (Exception) t;
+                    }
+
+                    throw new Exception(t);
+                }
+
+                _log.warn("Unable to create roles " + missingNames + ", retrying with the roles that are still " +
+                        "missing: " + t.getMessage());
+            }
+
+            Iterator<String> iterator = missingNames.iterator();
+
+            while (iterator.hasNext()) {
+                String name = iterator.next();
+
+                Role role = _roleLocalService.fetchRole(companyId, name);
+
+                if (role != null) {
+                    roleIds.put(name, role.getRoleId());
+
+                    iterator.remove();
+                }
+            }
+
+            if (missingNames.isEmpty()) {
+                return roleIds;
+            }
+        }
+    }
+
+    private String getKey(long companyId, String name) {
+        return companyId + StringPool.POUND + name;
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethRoleCreator.class);
+
+    private static final int _MAX_ATTEMPTS = 3;
+
+    private static final long _WAIT_TIMEOUT = 30000;
+
+    private static final TransactionConfig _transactionConfig = TransactionConfig.Factory.create(
+            Propagation.REQUIRES_NEW, new Class<?>[] {Exception.class});
+
+    private ClassNameLocalService _classNameLocalService;
+    private CounterLocalService _counterLocalService;
+    private final ConcurrentMap<String, CompletableFuture<Long>> _inFlightFutures = new ConcurrentHashMap<>();
+    private RoleLocalService _roleLocalService;
+
+}
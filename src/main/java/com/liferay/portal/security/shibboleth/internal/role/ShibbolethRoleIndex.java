@@ -0,0 +1,67 @@
+package com.liferay.portal.security.shibboleth.internal.role;
+
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.service.RoleLocalService;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the role IDs of a role subtype, per company.
+ * <p/>
+ * An entry is built from the roles of its company the first time it is needed
+ * and kept until a role of that company is added, updated or deleted (see
+ * {@link com.liferay.portal.security.shibboleth.internal.model.listener.ShibbolethRoleModelListener}).
+ * The returned arrays are sorted and must not be modified.
+ */
+@Component(immediate = true, service = ShibbolethRoleIndex.class)
+public class ShibbolethRoleIndex {
+
+    public long[] getSubtypeRoleIds(final long companyId, String subtype) {
+        ConcurrentMap<String, long[]> subtypeRoleIds = _companySubtypeRoleIds.computeIfAbsent(
+                companyId, key -> new ConcurrentHashMap<>());
+
+        return subtypeRoleIds.computeIfAbsent(subtype, key -> loadSubtypeRoleIds(companyId, key));
+    }
+
+    public void invalidate(long companyId) {
+        _companySubtypeRoleIds.remove(companyId);
+    }
+
+    public void invalidateAll() {
+        _companySubtypeRoleIds.clear();
+    }
+
+    @Reference(unbind = "-")
+    protected void setRoleLocalService(RoleLocalService roleLocalService) {
+        _roleLocalService = roleLocalService;
+    }
+
+    private long[] loadSubtypeRoleIds(long companyId, String subtype) {
+        List<Role> roles = _roleLocalService.getRoles(companyId);
+
+        long[] roleIds = new long[roles.size()];
+        int count = 0;
+
+        for (Role role : roles) {
+            if (subtype.equals(role.getSubtype())) {
+                roleIds[count++] = role.getRoleId();
+            }
+        }
+
+        roleIds = Arrays.copyOf(roleIds, count);
+
+        Arrays.sort(roleIds);
+
+        return roleIds;
+    }
+
+    private final ConcurrentMap<Long, ConcurrentMap<String, long[]>> _companySubtypeRoleIds =
+            new ConcurrentHashMap<>();
+    private RoleLocalService _roleLocalService;
+
+}
@@ -0,0 +1,73 @@
+package com.liferay.portal.security.shibboleth.internal.role;
+
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.service.RoleLocalService;
+import com.liferay.portal.security.shibboleth.internal.cache.ShibbolethExpiringCache;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves role names to role IDs, per company.
+ * <p/>
+ * Known roles are kept until a role of the company changes (see
+ * {@link com.liferay.portal.security.shibboleth.internal.model.listener.ShibbolethRoleModelListener}).
+ * Names that do not match any role are remembered for a short time as well, so
+ * affiliation values that map to no role do not cost a query on every login.
+ */
+@Component(immediate = true, service = ShibbolethRoleNameCache.class)
+public class ShibbolethRoleNameCache {
+
+    public static final long UNKNOWN_ROLE_ID = 0;
+
+    /**
+     * Returns the ID of the company's role with the name, or
+     * {@link #UNKNOWN_ROLE_ID} if there is no such role
+     */
+    public long getRoleId(long companyId, String name) {
+        ShibbolethExpiringCache<String, Long> roleIds = _companyRoleIds.computeIfAbsent(
+                companyId, key -> new ShibbolethExpiringCache<>(_MAX_SIZE));
+
+        Long roleId = roleIds.get(name);
+
+        if (roleId != null) {
+            return roleId;
+        }
+
+        Role role = _roleLocalService.fetchRole(companyId, name);
+
+        if (role == null) {
+            roleIds.put(name, UNKNOWN_ROLE_ID, _UNKNOWN_ROLE_TTL);
+
+            return UNKNOWN_ROLE_ID;
+        }
+
+        roleIds.put(name, role.getRoleId());
+
+        return role.getRoleId();
+    }
+
+    public void invalidate(long companyId) {
+        _companyRoleIds.remove(companyId);
+    }
+
+    public void invalidateAll() {
+        _companyRoleIds.clear();
+    }
+
+    @Reference(unbind = "-")
+    protected void setRoleLocalService(RoleLocalService roleLocalService) {
+        _roleLocalService = roleLocalService;
+    }
+
+    private static final int _MAX_SIZE = 10000;
+
+    private static final long _UNKNOWN_ROLE_TTL = 5 * 60 * 1000;
+
+    private final ConcurrentMap<Long, ShibbolethExpiringCache<String, Long>> _companyRoleIds =
+            new ConcurrentHashMap<>();
+    private RoleLocalService _roleLocalService;
+
+}
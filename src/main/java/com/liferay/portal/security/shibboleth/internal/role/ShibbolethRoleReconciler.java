@@ -0,0 +1,113 @@
+package com.liferay.portal.security.shibboleth.internal.role;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.service.RoleLocalService;
+import com.liferay.portal.kernel.service.UserLocalService;
+import com.liferay.portal.kernel.transaction.Propagation;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+import com.liferay.portal.security.shibboleth.internal.util.ShibbolethSortedArrays;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Brings the Shibboleth managed roles of a user in line with the roles derived
+ * from the user's attributes.
+ * <p/>
+ * Only the difference between the current and the desired assignments is
+ * written, in a single transaction. Roles of the user that are not managed
+ * (not part of the configured subtype) are never removed.
+ */
+@Component(immediate = true, service = ShibbolethRoleReconciler.class)
+public class ShibbolethRoleReconciler {
+
+    public long getAddedCount() {
+        return _addedCount.sum();
+    }
+
+    public long getNoOpCount() {
+        return _noOpCount.sum();
+    }
+
+    public long getRemovedCount() {
+        return _removedCount.sum();
+    }
+
+    /**
+     * @param  userId the primary key of the user
+     * @param  managedRoleIds the roles whose assignment is controlled by
+     *         Shibboleth
+     * @param  desiredRoleIds the roles the user should have
+     * @return <code>true</code> if any role was added or removed
+     */
+    public boolean reconcile(final long userId, long[] managedRoleIds, long[] desiredRoleIds) throws Exception {
+        long[] currentRoleIds = ShibbolethSortedArrays.sort(_userLocalService.getRolePrimaryKeys(userId));
+
+        desiredRoleIds = ShibbolethSortedArrays.sort(desiredRoleIds);
+
+        final long[] addRoleIds = ShibbolethSortedArrays.difference(desiredRoleIds, currentRoleIds);
+        final long[] removeRoleIds = ShibbolethSortedArrays.difference(
+                ShibbolethSortedArrays.intersection(currentRoleIds, ShibbolethSortedArrays.sort(managedRoleIds)),
+                desiredRoleIds);
+
+        if ((addRoleIds.length == 0) && (removeRoleIds.length == 0)) {
+            _noOpCount.increment();
+
+            return false;
+        }
+
+        try {
+            TransactionInvokerUtil.invoke(_transactionConfig, () -> {
+                if (removeRoleIds.length > 0) {
+                    _roleLocalService.unsetUserRoles(userId, removeRoleIds);
+                }
+
+                if (addRoleIds.length > 0) {
+                    _roleLocalService.addUserRoles(userId, addRoleIds);
+                }
+
+                return null;
+            });
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception(t);
+        }
+
+        _addedCount.add(addRoleIds.length);
+        _removedCount.add(removeRoleIds.length);
+
+        if (_log.isDebugEnabled()) {
+            _log.debug("User " + userId + ": added roles " + Arrays.toString(addRoleIds) + ", removed roles " +
+                    Arrays.toString(removeRoleIds));
+        }
+
+        return true;
+    }
+
+    @Reference(unbind = "-")
+    protected void setRoleLocalService(RoleLocalService roleLocalService) {
+        _roleLocalService = roleLocalService;
+    }
+
+    @Reference(unbind = "-")
+    protected void setUserLocalService(UserLocalService userLocalService) {
+        _userLocalService = userLocalService;
+    }
+
+    private static final Log _log = LogFactoryUtil.getLog(ShibbolethRoleReconciler.class);
+
+    private static final TransactionConfig _transactionConfig = TransactionConfig.Factory.create(
+            Propagation.REQUIRED, new Class<?>[] {Exception.class});
+
+    private final LongAdder _addedCount = new LongAdder();
+    private final LongAdder _noOpCount = new LongAdder();
+    private final LongAdder _removedCount = new LongAdder();
+    private RoleLocalService _roleLocalService;
+    private UserLocalService _userLocalService;
+
+}
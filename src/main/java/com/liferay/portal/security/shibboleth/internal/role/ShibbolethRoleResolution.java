@@ -0,0 +1,173 @@
+package com.liferay.portal.security.shibboleth.internal.role;
+
+import com.liferay.portal.kernel.util.Validator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The role lookups of a login: the IDs of the roles named by the user's
+ * attributes and of all roles of the configured subtype.
+ * <p/>
+ * The lookups are submitted to an executor when the resolution is started,
+ * the role names split into at most <code>parallelism</code> stages. Reading
+ * a result waits for the stages it depends on; a stage that has not started
+ * yet is run by the reading thread instead, so a busy executor never makes a
+ * login wait longer than doing the lookups itself. With a direct executor
+ * the lookups run one after another in the starting thread.
+ */
+public class ShibbolethRoleResolution {
+
+    /**
+     * Starts looking up the roles
+     *
+     * @param roleNames the role names of the user's attributes, blank names
+     *        are skipped
+     */
+    public static ShibbolethRoleResolution start(
+            long companyId, String[] roleNames, String roleSubtype, ShibbolethRoleIndex shibbolethRoleIndex,
+            ShibbolethRoleNameCache shibbolethRoleNameCache, Executor executor, int parallelism) {
+
+        return new ShibbolethRoleResolution(
+                companyId, roleNames, roleSubtype, shibbolethRoleIndex, shibbolethRoleNameCache, executor,
+                Math.max(1, parallelism));
+    }
+
+    /**
+     * Stops the lookups that have not started yet, when the login turns out
+     * not to need the roles
+     */
+    public void cancel() {
+        _subtypeRoleIdsTask.cancel(false);
+
+        for (FutureTask<long[]> roleIdsTask : _roleIdsTasks) {
+            roleIdsTask.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the IDs of the known roles named by the user's attributes, in
+     * the order of the names
+     */
+    public long[] getRoleIds() throws Exception {
+        long[] roleIds = new long[_roleNames.length];
+        int count = 0;
+
+        for (int i = 0; i < _roleIdsTasks.size(); i++) {
+            for (long roleId : join(_roleIdsTasks.get(i))) {
+                if (roleId != ShibbolethRoleNameCache.UNKNOWN_ROLE_ID) {
+                    roleIds[count++] = roleId;
+                }
+            }
+        }
+
+        return Arrays.copyOf(roleIds, count);
+    }
+
+    /**
+     * Returns the IDs of all roles of the configured subtype
+     */
+    public long[] getSubtypeRoleIds() throws Exception {
+        return join(_subtypeRoleIdsTask);
+    }
+
+    /**
+     * Returns the names of the user's attributes without a role
+     */
+    public Set<String> getUnknownRoleNames() throws Exception {
+        Set<String> unknownRoleNames = new LinkedHashSet<>();
+
+        int offset = 0;
+
+        for (FutureTask<long[]> roleIdsTask : _roleIdsTasks) {
+            long[] roleIds = join(roleIdsTask);
+
+            for (int i = 0; i < roleIds.length; i++) {
+                if (roleIds[i] == ShibbolethRoleNameCache.UNKNOWN_ROLE_ID) {
+                    unknownRoleNames.add(_roleNames[offset + i]);
+                }
+            }
+
+            offset += roleIds.length;
+        }
+
+        return unknownRoleNames;
+    }
+
+    private static <T> T join(FutureTask<T> task) throws Exception {
+
+        // runs the task if the executor has not started it yet, a no-op
+        // otherwise
+
+        task.run();
+
+        try {
+            return task.get();
+        } catch (CancellationException ce) {
+            throw new IllegalStateException("Role resolution was cancelled", ce);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            throw ee;
+        }
+    }
+
+    private ShibbolethRoleResolution(
+            long companyId, String[] roleNames, String roleSubtype, ShibbolethRoleIndex shibbolethRoleIndex,
+            ShibbolethRoleNameCache shibbolethRoleNameCache, Executor executor, int parallelism) {
+
+        List<String> nonBlankRoleNames = new ArrayList<>(roleNames.length);
+
+        for (String roleName : roleNames) {
+            if (Validator.isNotNull(roleName)) {
+                nonBlankRoleNames.add(roleName);
+            }
+        }
+
+        _roleNames = nonBlankRoleNames.toArray(new String[nonBlankRoleNames.size()]);
+
+        _subtypeRoleIdsTask = new FutureTask<>(
+                () -> shibbolethRoleIndex.getSubtypeRoleIds(companyId, roleSubtype));
+
+        executor.execute(_subtypeRoleIdsTask);
+
+        int stageSize = Math.max(1, (_roleNames.length + parallelism - 1) / parallelism);
+
+        _roleIdsTasks = new ArrayList<>(parallelism);
+
+        for (int start = 0; start < _roleNames.length; start += stageSize) {
+            int from = start;
+            int to = Math.min(start + stageSize, _roleNames.length);
+
+            FutureTask<long[]> roleIdsTask = new FutureTask<>(() -> {
+                long[] roleIds = new long[to - from];
+
+                for (int i = from; i < to; i++) {
+                    roleIds[i - from] = shibbolethRoleNameCache.getRoleId(companyId, _roleNames[i]);
+                }
+
+                return roleIds;
+            });
+
+            _roleIdsTasks.add(roleIdsTask);
+
+            executor.execute(roleIdsTask);
+        }
+    }
+
+    private final List<FutureTask<long[]>> _roleIdsTasks;
+    private final String[] _roleNames;
+    private final FutureTask<long[]> _subtypeRoleIdsTask;
+
+}
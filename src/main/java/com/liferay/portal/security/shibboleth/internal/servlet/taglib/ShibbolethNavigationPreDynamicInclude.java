@@ -1,30 +1,37 @@
 package com.liferay.portal.security.shibboleth.internal.servlet.taglib;
 
+import com.liferay.portal.kernel.language.LanguageUtil;
 import com.liferay.portal.kernel.log.Log;
 import com.liferay.portal.kernel.log.LogFactoryUtil;
 import com.liferay.portal.kernel.module.configuration.ConfigurationException;
-import com.liferay.portal.kernel.module.configuration.ConfigurationProvider;
 import com.liferay.portal.kernel.servlet.taglib.BaseDynamicInclude;
 import com.liferay.portal.kernel.servlet.taglib.DynamicInclude;
-import com.liferay.portal.kernel.settings.CompanyServiceSettingsLocator;
 import com.liferay.portal.kernel.theme.ThemeDisplay;
+import com.liferay.portal.kernel.util.HtmlUtil;
+import com.liferay.portal.kernel.util.ResourceBundleUtil;
+import com.liferay.portal.kernel.util.StringPool;
 import com.liferay.portal.kernel.util.WebKeys;
-import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
-import com.liferay.portal.security.shibboleth.constants.ShibbolethConstants;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationSnapshot;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 
-import javax.servlet.RequestDispatcher;
-import javax.servlet.ServletContext;
-import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * User: Romeo Sheshi <a href="mailto:rsheshi@gmail.com">Romeo Sheshi</a>
- * Date: 27/10/2016
- * Time: 17:12
+ * Adds the Shibboleth login links to the navigation of the sign in portlet.
+ * <p/>
+ * The links are rendered once per company and locale and then written to the
+ * response as-is. A rendered fragment is bound to the configuration snapshot
+ * it was rendered from, so it is rendered again as soon as the configuration
+ * of the company changes. Every configured identity provider gets its own
+ * link; without identity providers a single link points to the login URL.
  */
 @Component(immediate = true, service = DynamicInclude.class)
 public class ShibbolethNavigationPreDynamicInclude extends BaseDynamicInclude {
@@ -34,29 +41,12 @@ public class ShibbolethNavigationPreDynamicInclude extends BaseDynamicInclude {
             HttpServletRequest request, HttpServletResponse response,
             String key)
             throws IOException {
-        _log.error("Shibboleth dynamic include");
+
         ThemeDisplay themeDisplay = (ThemeDisplay)request.getAttribute(
                 WebKeys.THEME_DISPLAY);
 
         try {
-
-            ShibbolethConfiguration shibbolethConfiguration = getShibbolethConfiguration(themeDisplay.getCompanyId());
-
-            String loginUrl = shibbolethConfiguration.loginUrl();
-
-        request.setAttribute("shibbolethLoginUrl",loginUrl);
-
-
-
-        RequestDispatcher requestDispatcher =
-                _servletContext.getRequestDispatcher(_JSP_PATH);
-
-
-            requestDispatcher.include(request, response);
-        } catch (ServletException se) {
-            _log.error("Unable to include JSP " + _JSP_PATH, se);
-
-            throw new IOException("Unable to include JSP " + _JSP_PATH, se);
+            response.getWriter().write(getFragment(themeDisplay.getCompanyId(), themeDisplay.getLocale()));
         } catch (ConfigurationException e) {
             throw new IOException("Unable to load configuration", e);
         }
@@ -65,42 +55,105 @@ public class ShibbolethNavigationPreDynamicInclude extends BaseDynamicInclude {
     @Override
     public void register(
             DynamicIncludeRegistry dynamicIncludeRegistry) {
-        _log.error("Shibboleth dynamic include register");
 
         dynamicIncludeRegistry.register(
                 "com.liferay.login.web#/navigation.jsp#pre");
     }
 
+    @Reference(unbind = "-")
+    protected void setShibbolethConfigurationCache(
+            ShibbolethConfigurationCache shibbolethConfigurationCache) {
 
-    @Reference(
-            target = "(osgi.web.symbolicname=liferay-shibboleth-plugin)",
-            unbind = "-"
-    )
-    protected void setServletContext(ServletContext servletContext) {
-        _servletContext = servletContext;
+        _shibbolethConfigurationCache = shibbolethConfigurationCache;
     }
 
-    @Reference(unbind = "-")
-    protected void setConfigurationProvider(
-            ConfigurationProvider configurationProvider) {
+    private static void appendLink(StringBuilder sb, String url, String label) {
+        sb.append("<a class=\"taglib-icon\" href=\"");
+        sb.append(HtmlUtil.escapeHREF(url));
+        sb.append("\"><i class=\"icon-user\"></i><span class=\"taglib-text\">");
+        sb.append(HtmlUtil.escape(label));
+        sb.append("</span></a>");
+    }
+
+    private String getFragment(long companyId, Locale locale) throws ConfigurationException {
+        ShibbolethConfigurationSnapshot configuration = _shibbolethConfigurationCache.getConfiguration(companyId);
+
+        String key = companyId + StringPool.POUND + locale;
+
+        Fragment fragment = _fragments.get(key);
 
-        _configurationProvider = configurationProvider;
+        if ((fragment == null) || (fragment.getConfiguration() != configuration)) {
+            fragment = new Fragment(configuration, render(configuration, locale));
+
+            _fragments.put(key, fragment);
+        }
+
+        return fragment.getContent();
     }
 
-    private ShibbolethConfiguration getShibbolethConfiguration(long companyId) throws ConfigurationException {
-        return _configurationProvider.getConfiguration(
-                ShibbolethConfiguration.class,
-                new CompanyServiceSettingsLocator(
-                        companyId, ShibbolethConstants.SERVICE_NAME));
+    private String render(ShibbolethConfigurationSnapshot configuration, Locale locale) {
+        StringBuilder sb = new StringBuilder();
+
+        for (String identityProvider : configuration.identityProviders()) {
+            int index = identityProvider.indexOf('|');
+
+            String label = StringPool.BLANK;
+            String url = StringPool.BLANK;
+
+            if (index > 0) {
+                label = identityProvider.substring(0, index).trim();
+                url = identityProvider.substring(index + 1).trim();
+            }
+
+            if (label.isEmpty() || url.isEmpty()) {
+                _log.warn("Ignoring identity provider '" + identityProvider + "' of company " +
+                        configuration.getCompanyId() + ", expected 'label | login URL'");
+
+                continue;
+            }
+
+            appendLink(sb, url, label);
+        }
+
+        if (sb.length() == 0) {
+            ResourceBundle resourceBundle = ResourceBundleUtil.getBundle(
+                    "content.Language", locale, getClass());
+
+            appendLink(sb, configuration.loginUrl(), LanguageUtil.get(resourceBundle, "shibboleth"));
+        }
+
+        if (_log.isDebugEnabled()) {
+            _log.debug("Rendered Shibboleth navigation of company " + configuration.getCompanyId() + " for " +
+                    locale);
+        }
+
+        return sb.toString();
     }
-    private ConfigurationProvider _configurationProvider;
-    private static final String _JSP_PATH =
-            "/html/portlet/login/navigation/shibboleth.jsp";
+
+    private final ConcurrentMap<String, Fragment> _fragments = new ConcurrentHashMap<>();
+    private ShibbolethConfigurationCache _shibbolethConfigurationCache;
 
     private static final Log _log = LogFactoryUtil.getLog(
             ShibbolethNavigationPreDynamicInclude.class);
 
-    private ServletContext _servletContext;
+    private static class Fragment {
+
+        public Fragment(ShibbolethConfigurationSnapshot configuration, String content) {
+            _configuration = configuration;
+            _content = content;
+        }
+
+        public ShibbolethConfigurationSnapshot getConfiguration() {
+            return _configuration;
+        }
+
+        public String getContent() {
+            return _content;
+        }
 
+        private final ShibbolethConfigurationSnapshot _configuration;
+        private final String _content;
+
+    }
 
 }
@@ -0,0 +1,21 @@
+package com.liferay.portal.security.shibboleth.internal.upgrade;
+
+import com.liferay.portal.security.shibboleth.internal.upgrade.v1_0_0.UpgradeIdentityMapping;
+import com.liferay.portal.upgrade.registry.UpgradeStepRegistrator;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Registers the upgrade steps of the module's database schema, so the tables
+ * of the module are created when it is deployed rather than on the login path.
+ */
+@Component(immediate = true, service = UpgradeStepRegistrator.class)
+public class ShibbolethServiceUpgrade implements UpgradeStepRegistrator {
+
+    public static final String BUNDLE_SYMBOLIC_NAME = "liferay-shibboleth-plugin";
+
+    @Override
+    public void register(Registry registry) {
+        registry.register(BUNDLE_SYMBOLIC_NAME, "0.0.0", "1.0.0", new UpgradeIdentityMapping());
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.liferay.portal.security.shibboleth.internal.upgrade.v1_0_0;
+
+import com.liferay.portal.kernel.upgrade.UpgradeProcess;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityMappingStore;
+
+/**
+ * Creates the table of the
+ * {@link ShibbolethIdentityMappingStore identity mappings}.
+ * <p/>
+ * Installations that ran an earlier version of the module may have created
+ * the table already, in which case it is left as it is. The table is looked up
+ * in the catalog and schema of the portal connection only.
+ */
+public class UpgradeIdentityMapping extends UpgradeProcess {
+
+    @Override
+    protected void doUpgrade() throws Exception {
+        if (hasTable(ShibbolethIdentityMappingStore.TABLE_NAME)) {
+            return;
+        }
+
+        // the template types are translated to the portal database by the
+        // portal
+
+        runSQLTemplateString(
+                "create table " + ShibbolethIdentityMappingStore.TABLE_NAME + " (companyId LONG not null, " +
+                        "mappingKey VARCHAR(75) not null, identityProvider VARCHAR(255) null, persistentId " +
+                        "VARCHAR(255) null, userId LONG, createDate DATE null, primary key (companyId, " +
+                        "mappingKey));\ncreate index IX_ShibbolethIdMapping_UserId on " +
+                        ShibbolethIdentityMappingStore.TABLE_NAME + " (userId);",
+                false, true);
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.liferay.portal.security.shibboleth.internal.util;
+
+import java.util.Arrays;
+
+/**
+ * Set operations on sorted arrays of primary keys, without boxing.
+ */
+public class ShibbolethSortedArrays {
+
+    /**
+     * Returns the values of the sorted array <code>a</code> that are not in the
+     * sorted array <code>b</code>
+     */
+    public static long[] difference(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int count = 0;
+
+        for (int i = 0, j = 0; i < a.length; i++) {
+            while ((j < b.length) && (b[j] < a[i])) {
+                j++;
+            }
+
+            if ((j == b.length) || (b[j] != a[i])) {
+                result[count++] = a[i];
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns the values contained in both sorted arrays
+     */
+    public static long[] intersection(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int count = 0;
+
+        for (int i = 0, j = 0; (i < a.length) && (j < b.length);) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns a sorted copy without duplicates
+     */
+    public static long[] sort(long[] values) {
+        if ((values == null) || (values.length == 0)) {
+            return new long[0];
+        }
+
+        long[] sortedValues = values.clone();
+
+        Arrays.sort(sortedValues);
+
+        int count = 1;
+
+        for (int i = 1; i < sortedValues.length; i++) {
+            if (sortedValues[i] != sortedValues[count - 1]) {
+                sortedValues[count++] = sortedValues[i];
+            }
+        }
+
+        return Arrays.copyOf(sortedValues, count);
+    }
+
+    /**
+     * Returns the values contained in either sorted array
+     */
+    public static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int count = 0;
+
+        int i = 0;
+        int j = 0;
+
+        while ((i < a.length) || (j < b.length)) {
+            if ((j == b.length) || ((i < a.length) && (a[i] < b[j]))) {
+                result[count++] = a[i++];
+            } else if ((i == a.length) || (b[j] < a[i])) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i];
+
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+}
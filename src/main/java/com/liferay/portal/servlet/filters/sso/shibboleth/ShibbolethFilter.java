@@ -2,13 +2,17 @@ package com.liferay.portal.servlet.filters.sso.shibboleth;
 
 import com.liferay.portal.kernel.log.Log;
 import com.liferay.portal.kernel.log.LogFactoryUtil;
-import com.liferay.portal.kernel.module.configuration.ConfigurationProvider;
 import com.liferay.portal.kernel.servlet.BaseFilter;
-import com.liferay.portal.kernel.settings.CompanyServiceSettingsLocator;
 import com.liferay.portal.kernel.util.PortalUtil;
 import com.liferay.portal.kernel.util.Validator;
 import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
-import com.liferay.portal.security.shibboleth.constants.ShibbolethConstants;
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationSnapshot;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityTokenCodec;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethMetrics;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethStage;
+import com.liferay.portal.security.shibboleth.internal.metrics.ShibbolethStageTimer;
 import com.liferay.portal.shibboleth.util.ShibbolethPropsKeys;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
@@ -18,6 +22,7 @@ import javax.servlet.FilterChain;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.util.Objects;
 
 /**
  * @author Romeo Sheshi <rsheshi@gmail.com>
@@ -43,10 +48,7 @@ public class ShibbolethFilter extends BaseFilter {
             long companyId = PortalUtil.getCompanyId(request);
 
             ShibbolethConfiguration configuration =
-                    _configurationProvider.getConfiguration(
-                            ShibbolethConfiguration.class,
-                            new CompanyServiceSettingsLocator(
-                                    companyId, ShibbolethConstants.SERVICE_NAME));
+                    _shibbolethConfigurationCache.getConfiguration(companyId);
             if (configuration.enabled()) {
                 return true;
             }
@@ -65,24 +67,34 @@ public class ShibbolethFilter extends BaseFilter {
     protected void processFilter(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws Exception {
 
-        _log.info("Shibboleth filter");
+        if (_log.isDebugEnabled()) {
+            _log.debug("Shibboleth filter");
+        }
+
         String pathInfo = request.getPathInfo();
         HttpSession session = request.getSession();
         long companyId = PortalUtil.getCompanyId(request);
-        ShibbolethConfiguration configuration =
-                _configurationProvider.getConfiguration(
-                        ShibbolethConfiguration.class,
-                        new CompanyServiceSettingsLocator(
-                                companyId, ShibbolethConstants.SERVICE_NAME));
+        ShibbolethConfigurationSnapshot configuration =
+                _shibbolethConfigurationCache.getConfiguration(companyId);
 
 
         if (pathInfo.contains("/portal/logout")) {
+
+            // the identity token is not bound to the session, so it is removed
+            // on every logout, even if the token has been disabled since
+
+            if (ShibbolethIdentityTokenCodec.getToken(request) != null) {
+                ShibbolethIdentityTokenCodec.removeCookie(request, response);
+            }
+
             if (configuration.logoutEnabled()) {
                 session.invalidate();
                 String logoutUrl =configuration.logoutUrl();
                 response.sendRedirect(logoutUrl);
                 return;
             }
+        } else if (configuration.getIdentityTokenCodec() != null) {
+            extractToken(companyId, request, response);
         } else {
             extractData(session, companyId, request);
         }
@@ -96,132 +108,88 @@ public class ShibbolethFilter extends BaseFilter {
      */
     protected boolean extractData(HttpSession session, long companyId, HttpServletRequest request) throws Exception {
         String login = (String) session.getAttribute(ShibbolethPropsKeys.SHIBBOLETH_LOGIN);
-        ShibbolethConfiguration configuration =
-                _configurationProvider.getConfiguration(
-                        ShibbolethConfiguration.class,
-                        new CompanyServiceSettingsLocator(
-                                companyId, ShibbolethConstants.SERVICE_NAME));
+        ShibbolethConfigurationSnapshot configuration =
+                _shibbolethConfigurationCache.getConfiguration(companyId);
         if (Validator.isNull(login)) {
 
-            boolean headersEnabled =configuration.headersEnabled();
+            ShibbolethAttributes attributes = extractAttributes(companyId, request, configuration);
 
-            if (headersEnabled) {
-                _log.info("Using HTTP headers as source for attribute values");
-            } else {
-                _log.info("Using Environment variables as source for attribute values");
+            if (attributes == null) {
+                logMissingLogin(configuration);
+
+                return false;
             }
 
-            String aaiProvidedLoginName = getHeader(configuration.userHeader(), request, headersEnabled);
+            attributes.toSession(session);
+
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Extracts user data into a signed identity token, which is sent to the
+     * browser as a session cookie and passed on to the auto login as a request
+     * attribute. The data provided by the SP always takes precedence: the
+     * token is re-issued whenever it carries another login or other
+     * attributes. The token of an earlier request is only used if the SP
+     * provides no data.
+     *
+     * @return true if the data was extracted
+     */
+    protected boolean extractToken(long companyId, HttpServletRequest request, HttpServletResponse response)
+            throws Exception {
 
-            String aaiProvidedEmail = getHeader(configuration.userEmailHeader(), request, headersEnabled);
+        ShibbolethConfigurationSnapshot configuration =
+                _shibbolethConfigurationCache.getConfiguration(companyId);
+        ShibbolethIdentityTokenCodec identityTokenCodec = configuration.getIdentityTokenCodec();
+        long now = System.currentTimeMillis();
 
-            String aaiProvidedFirstname = getHeader(configuration.firstname(), request, headersEnabled);
+        String token = ShibbolethIdentityTokenCodec.getToken(request);
 
-            String aaiProvidedSurname = getHeader(configuration.surname(), request, headersEnabled);
+        ShibbolethAttributes tokenAttributes = identityTokenCodec.decode(token, now);
 
-            String aaiProvidedAffiliation = getHeader(configuration.userHeaderAffiliation(), request, headersEnabled);
+        ShibbolethAttributes attributes = extractAttributes(companyId, request, configuration);
 
+        if (attributes == null) {
+            if (tokenAttributes == null) {
+                logMissingLogin(configuration);
 
-            if (Validator.isNull(aaiProvidedLoginName)) {
-                _log.error("Required header [" + configuration.userHeader() + "] not found");
-                _log.error("AAI authentication failed as login name header is empty.");
                 return false;
             }
 
-            if ( configuration.screenameTransformEnabled()) {
-                _log.info("ScreenName transform is enabled.");
-                //check validity of screen name 
-
-                // most probably it is an eduPersonPrincipalName. Make transformations
-                if(aaiProvidedLoginName.contains("@")){
-                    _log.info("The login name provided by AAI looks like an "
-                            + "email (or eduPersonPrincipalName): "
-                            + aaiProvidedLoginName
-                            + " It needs to be converted to be a Liferay screen name.");
-                    aaiProvidedLoginName = aaiProvidedLoginName.replaceAll("@", ".at.");
-                    _log.info("Login name is converted to:" + aaiProvidedLoginName);
-                } else _log.info("error");
-                //Liferay does not like underscores
-                if (aaiProvidedLoginName.contains("_")) {
-                    _log.info("The login name provided by AAI contains underscores:"
-                            + aaiProvidedLoginName
-                            + "It needs to be converted to be a Liferay screen name.");
-                    aaiProvidedLoginName = aaiProvidedLoginName.replaceAll("_", "-");
-                    _log.info("Login name is converted to:" + aaiProvidedLoginName);
-                }
-            }
-            else {
-                _log.info("ScreenName transform is disabled.");
-            }
+            request.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_ATTRIBUTES, tokenAttributes);
+
+            return false;
+        }
 
-            _log.info("AAI-provided screen name is:" + aaiProvidedLoginName);
-            session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_LOGIN, aaiProvidedLoginName);
+        request.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_ATTRIBUTES, attributes);
 
-            //get the first of multi-valued email address
-            if (aaiProvidedEmail.contains(";")) {
-                _log.info("The email address string provided by AAI is multi-valued:"
-                        + aaiProvidedEmail
-                        + " Using the first value.");
-                String[] emails = aaiProvidedEmail.split(";");
-                aaiProvidedEmail = emails[0];
-            }
-            _log.info("AAI-provided email is:" + aaiProvidedEmail);
-            session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_EMAIL, aaiProvidedEmail);
-
-            if (Validator.isNull(aaiProvidedFirstname)) {
-                _log.error("No First name provided in: "
-                        + configuration.firstname()
-                        + " using a default value instead.");
-                aaiProvidedFirstname = "MissingFirstName";
-            }
-            _log.info("AAI-provided first name is:" + aaiProvidedFirstname);
-            session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_FIRSTNAME, aaiProvidedFirstname);
-
-            if (Validator.isNull(aaiProvidedSurname)) {
-                _log.error("No Surname provided in: "
-                        + configuration.surname()
-                        + " using a default value instead.");
-                aaiProvidedSurname = "MissingSurname";
-            }
-            _log.info("AAI-provided Surname is:" + aaiProvidedSurname);
-            session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_SURNAME, aaiProvidedSurname);
+        if ((tokenAttributes != null) && isSameIdentity(attributes, tokenAttributes)) {
+            return true;
+        }
 
-            if (Validator.isNull(aaiProvidedAffiliation)) {
-                _log.debug("No affiliation provided");
-                aaiProvidedAffiliation = "";
-            }
-            if (configuration.affiliationTruncateEnabled() && aaiProvidedAffiliation.contains(":")) {
-                _log.info("affiliation contains ':' characters: "
-                        + aaiProvidedAffiliation
-                        + " assuming eduPersonEntitlement format");
-                // AAI-provided affiliation is multi-valued
-                if (aaiProvidedAffiliation.contains(";")) {
-                    _log.info("AAI-provided affiliation is multi-valued:"
-                            + aaiProvidedAffiliation
-                            + " Processing each vale");
-                    String[] affiliations = aaiProvidedAffiliation.split(";");
-                    aaiProvidedAffiliation = "";
-
-                    for (int i = 0; i < affiliations.length; i++) {
-                        String[] parts = affiliations[i].split(":");
-                        aaiProvidedAffiliation += parts[parts.length - 1];
-                        if (i < affiliations.length - 1) {
-                            aaiProvidedAffiliation += ";";
-                        }
-                    }
-
-                } else {
-                    String[] parts = aaiProvidedAffiliation.split(":");
-                    aaiProvidedAffiliation = parts[parts.length - 1];
-                }
+        String newToken = identityTokenCodec.encode(attributes, now);
+
+        if (newToken.length() > ShibbolethIdentityTokenCodec.MAX_TOKEN_LENGTH) {
+
+            // browsers drop cookies of more than 4 KB, the auto login uses the
+            // request attribute only
+
+            _log.warn("Not issuing an identity token of " + newToken.length() + " characters for " +
+                    attributes.getLogin() + ", it exceeds the cookie size limit");
+
+            if (token != null) {
+                ShibbolethIdentityTokenCodec.removeCookie(request, response);
             }
-            _log.info("AAI-provided affiliation is:" + aaiProvidedAffiliation);
-            session.setAttribute(ShibbolethPropsKeys.SHIBBOLETH_HEADER_AFFILIATION, aaiProvidedAffiliation);
 
             return true;
-        } else {
-            return false;
         }
+
+        ShibbolethIdentityTokenCodec.addCookie(request, response, newToken);
+
+        return true;
     }
 
     protected String getHeader(String headerName, HttpServletRequest request, boolean headersEnabled) {
@@ -236,19 +204,70 @@ public class ShibbolethFilter extends BaseFilter {
             headerValue = (String) request.getAttribute(headerName);
         }
 
-        _log.info("Header [" + headerName + "]: " + headerValue);
+        if (_log.isDebugEnabled()) {
+            _log.debug("Header [" + headerName + "]: " + headerValue);
+        }
 
         return headerValue;
     }
 
+    private ShibbolethAttributes extractAttributes(
+            long companyId, HttpServletRequest request, ShibbolethConfigurationSnapshot configuration) {
+
+        if (_log.isDebugEnabled()) {
+            if (configuration.headersEnabled()) {
+                _log.debug("Using HTTP headers as source for attribute values");
+            } else {
+                _log.debug("Using Environment variables as source for attribute values");
+            }
+        }
+
+        // all mapped attributes are extracted in a single pass by the plan compiled from the configuration
+
+        ShibbolethStageTimer timer = _shibbolethMetrics.start(companyId, ShibbolethStage.EXTRACT);
+
+        ShibbolethAttributes attributes = configuration.getAttributeMappingPlan().extract(
+                (name, header) -> getHeader(name, request, header));
+
+        _shibbolethMetrics.record(timer, attributes != null);
+
+        if (attributes == null) {
+            return null;
+        }
+
+        if (_log.isDebugEnabled()) {
+            _log.debug("AAI-provided attributes are:" + attributes);
+        }
+
+        return attributes;
+    }
+
+    private boolean isSameIdentity(ShibbolethAttributes attributes, ShibbolethAttributes tokenAttributes) {
+        return attributes.getLogin().equals(tokenAttributes.getLogin()) &&
+                attributes.getFingerprint().equals(tokenAttributes.getFingerprint()) &&
+                Objects.equals(attributes.getIdentityProvider(), tokenAttributes.getIdentityProvider()) &&
+                Objects.equals(attributes.getPersistentId(), tokenAttributes.getPersistentId());
+    }
+
+    private void logMissingLogin(ShibbolethConfigurationSnapshot configuration) {
+        _log.error("Required header [" + configuration.userHeader() + "] not found");
+        _log.error("AAI authentication failed as login name header is empty.");
+    }
+
     @Reference(unbind = "-")
-    protected void setConfigurationProvider(
-            ConfigurationProvider configurationProvider) {
+    protected void setShibbolethConfigurationCache(
+            ShibbolethConfigurationCache shibbolethConfigurationCache) {
 
-        _configurationProvider = configurationProvider;
+        _shibbolethConfigurationCache = shibbolethConfigurationCache;
+    }
+
+    @Reference(unbind = "-")
+    protected void setShibbolethMetrics(ShibbolethMetrics shibbolethMetrics) {
+        _shibbolethMetrics = shibbolethMetrics;
     }
 
-    private ConfigurationProvider _configurationProvider;
+    private ShibbolethConfigurationCache _shibbolethConfigurationCache;
+    private ShibbolethMetrics _shibbolethMetrics;
     private static final Log _log = LogFactoryUtil.getLog(ShibbolethFilter.class);
 
 }
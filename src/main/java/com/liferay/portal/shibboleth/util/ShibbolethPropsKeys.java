@@ -11,6 +11,17 @@ public class ShibbolethPropsKeys {
     public static final String SHIBBOLETH_HEADER_FIRSTNAME = "shibboleth.header.firstname";
     public static final String SHIBBOLETH_HEADER_SURNAME = "shibboleth.header.surname";
     public static final String SHIBBOLETH_HEADER_AFFILIATION = "shibboleth.header.affiliation";
+    public static final String SHIBBOLETH_ATTRIBUTES = "shibboleth.attributes";
+    public static final String SHIBBOLETH_EXPANDO_VALUES = "shibboleth.expando.values";
+    public static final String SHIBBOLETH_GROUP_NAMES = "shibboleth.group.names";
+    public static final String SHIBBOLETH_USER_GROUP_NAMES = "shibboleth.user.group.names";
+    public static final String SHIBBOLETH_ORGANIZATION_NAMES = "shibboleth.organization.names";
+    public static final String SHIBBOLETH_IDENTITY_PROVIDER = "shibboleth.identity.provider";
+    public static final String SHIBBOLETH_PERSISTENT_ID = "shibboleth.persistent.id";
+    public static final String SHIBBOLETH_RESOLVED_COMPANY_ID = "shibboleth.resolved.company.id";
+    public static final String SHIBBOLETH_RESOLVED_USER_ID = "shibboleth.resolved.user.id";
+    public static final String SHIBBOLETH_RESOLVED_FINGERPRINT = "shibboleth.resolved.fingerprint";
+    public static final String SHIBBOLETH_RESOLVED_CREATE_TIME = "shibboleth.resolved.create.time";
 
 
 }
@@ -1,3 +0,0 @@
-<%@ taglib uri="http://liferay.com/tld/ui" prefix="liferay-ui" %>
-
-<%@ page import="com.liferay.portal.kernel.util.PortalUtil" %>
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import com.liferay.portal.security.shibboleth.configuration.ShibbolethConfiguration;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFakes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShibbolethAttributeMappingPlanTest {
+
+    @Test
+    public void testExtractExpandos() {
+        ShibbolethAttributeMappingPlan plan = compile(
+                "attributeMappings",
+                new String[] {"eppn -> login", "idp -> expando:identityProvider", "ou -> expando:units"});
+
+        ShibbolethAttributes attributes = plan.extract(
+                source("eppn", "jdoe@example.org", "idp", "https://idp.example.org", "ou", "Library;IT"));
+
+        assertArrayEquals(
+                new String[] {"https://idp.example.org"}, attributes.getExpandoValues().get("identityProvider"));
+        assertArrayEquals(new String[] {"Library", "IT"}, attributes.getExpandoValues().get("units"));
+    }
+
+    @Test
+    public void testExtractEntitlements() {
+        ShibbolethAttributeMappingPlan plan = compile(
+                "userHeader", "eppn", "userHeaderAffiliation", "entitlement", "entitlementRules",
+                new String[] {
+                    "urn:mace:example.org:entitlement:staff -> role:Staff",
+                    "urn:mace:example.org:entitlement:site:* -> site"
+                });
+
+        ShibbolethAttributes attributes = plan.extract(
+                source(
+                        "eppn", "jdoe@example.org", "entitlement",
+                        "urn:mace:example.org:entitlement:staff;urn:mace:example.org:entitlement:site:Library;" +
+                                "urn:mace:other.org:entitlement:staff"));
+
+        assertArrayEquals(new String[] {"Staff"}, attributes.getAffiliations());
+        assertArrayEquals(new String[] {"Library"}, attributes.getGroupNames());
+    }
+
+    @Test
+    public void testExtractLegacyHeaders() {
+        ShibbolethAttributeMappingPlan plan = compile(
+                "userHeader", "eppn", "userEmailHeader", "mail", "userHeaderAffiliation", "affiliation",
+                "affiliationTruncateEnabled", true, "screenameTransformEnabled", true);
+
+        ShibbolethAttributes attributes = plan.extract(
+                source(
+                        "eppn", "john_doe@example.org", "mail", "jdoe@example.org;john.doe@example.org",
+                        "affiliation", "urn:mace:x:staff;urn:mace:x:student"));
+
+        assertEquals("john-doe.at.example.org", attributes.getLogin());
+        assertEquals("jdoe@example.org", attributes.getEmailAddress());
+        assertEquals(ShibbolethAttributeMappingPlan.DEFAULT_FIRST_NAME, attributes.getFirstName());
+        assertEquals(ShibbolethAttributeMappingPlan.DEFAULT_LAST_NAME, attributes.getLastName());
+        assertArrayEquals(new String[] {"staff", "student"}, attributes.getAffiliations());
+        assertEquals("john_doe@example.org", attributes.getPersistentId());
+    }
+
+    @Test
+    public void testExtractWithoutLogin() {
+        ShibbolethAttributeMappingPlan plan = compile("userHeader", "eppn", "userEmailHeader", "mail");
+
+        assertNull(plan.extract(source("mail", "jdoe@example.org")));
+        assertNull(plan.extract(source("eppn", "", "mail", "jdoe@example.org")));
+    }
+
+    @Test
+    public void testMappingsOverrideLegacyHeaders() {
+        ShibbolethAttributeMappingPlan plan = compile(
+                "userHeader", "eppn", "userEmailHeader", "mail", "attributeMappings",
+                new String[] {"eppn -> login", "email | lowercase -> emailAddress"});
+
+        ShibbolethAttributes attributes = plan.extract(
+                source("eppn", "jdoe@example.org", "mail", "mail@example.org", "email", "JDoe@Example.org"));
+
+        assertEquals("jdoe@example.org", attributes.getEmailAddress());
+        assertEquals(2, plan.getMappings().size());
+    }
+
+    @Test
+    public void testInvalidMappingsAreIgnored() {
+        ShibbolethAttributeMappingPlan plan = compile(
+                "attributeMappings", new String[] {"eppn -> login", "mail -> nickname", "", "ou -> expando"});
+
+        assertEquals(1, plan.getMappings().size());
+        assertEquals("jdoe@example.org", plan.extract(source("eppn", "jdoe@example.org")).getLogin());
+    }
+
+    @Test
+    public void testSourcesAreReadOnce() {
+        ShibbolethAttributeMappingPlan plan = compile(
+                "attributeMappings",
+                new String[] {"eppn -> login", "eppn | first -> emailAddress", "header:eppn -> expando:eppn"});
+
+        List<String> readNames = new ArrayList<>();
+
+        plan.extract((name, header) -> {
+            readNames.add((header ? "header:" : "attribute:") + name);
+
+            return "jdoe@example.org";
+        });
+
+        assertEquals(2, readNames.size());
+        assertEquals("attribute:eppn", readNames.get(0));
+        assertEquals("header:eppn", readNames.get(1));
+    }
+
+    private static ShibbolethAttributeMappingPlan compile(Object... keysAndValues) {
+        return ShibbolethAttributeMappingPlan.compile(
+                ShibbolethFakes.configuration(ShibbolethConfiguration.class, toMap(keysAndValues)));
+    }
+
+    private static ShibbolethAttributeSource source(Object... namesAndValues) {
+        Map<String, Object> values = toMap(namesAndValues);
+
+        return (name, header) -> (String)values.get(name);
+    }
+
+    private static Map<String, Object> toMap(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String)keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        return map;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShibbolethAttributeMappingTest {
+
+    @Test
+    public void testApply() {
+        ShibbolethAttributeMapping mapping = ShibbolethAttributeMapping.parse("mail -> emailAddress", false);
+
+        assertArrayEquals(new String[] {"a@example.org;b@example.org"}, mapping.apply("a@example.org;b@example.org"));
+        assertSame(ShibbolethAttributeParser.EMPTY_VALUES, mapping.apply(null));
+
+        mapping = ShibbolethAttributeMapping.parse("ou -> organization", false);
+
+        assertArrayEquals(new String[] {"Library", "IT"}, mapping.apply("Library;IT"));
+    }
+
+    @Test
+    public void testApplyTransforms() {
+        ShibbolethAttributeMapping mapping = ShibbolethAttributeMapping.parse(
+                "eppn | trim | lowercase | screenName | first -> login", false);
+
+        assertArrayEquals(new String[] {"john-doe.at.example.org"}, mapping.apply(" John_Doe@Example.org ;jdoe"));
+
+        mapping = ShibbolethAttributeMapping.parse("entitlement | truncate -> role", false);
+
+        assertArrayEquals(
+                new String[] {"staff", "student"}, mapping.apply("urn:mace:x:staff;urn:mace:x:student"));
+    }
+
+    @Test
+    public void testParse() {
+        ShibbolethAttributeMapping mapping = ShibbolethAttributeMapping.parse(
+                "Shib-Identity-Provider -> expando:identityProvider", false);
+
+        assertEquals("Shib-Identity-Provider", mapping.getSourceName());
+        assertFalse(mapping.isHeader());
+        assertEquals(ShibbolethAttributeTarget.EXPANDO, mapping.getTarget());
+        assertEquals("identityProvider", mapping.getTargetName());
+
+        mapping = ShibbolethAttributeMapping.parse("eppn -> login", true);
+
+        assertTrue(mapping.isHeader());
+        assertNull(mapping.getTargetName());
+    }
+
+    @Test
+    public void testParseSourcePrefixes() {
+        assertTrue(ShibbolethAttributeMapping.parse("header:eppn -> login", false).isHeader());
+        assertFalse(ShibbolethAttributeMapping.parse("attribute:eppn -> login", true).isHeader());
+        assertEquals("eppn", ShibbolethAttributeMapping.parse("header: eppn -> login", false).getSourceName());
+    }
+
+    @Test
+    public void testParseTargetAliases() {
+        assertEquals(
+                ShibbolethAttributeTarget.AFFILIATION,
+                ShibbolethAttributeMapping.parse("affiliation -> role", false).getTarget());
+        assertEquals(
+                ShibbolethAttributeTarget.GROUP,
+                ShibbolethAttributeMapping.parse("memberOf -> site", false).getTarget());
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertInvalid("eppn login", "Missing '->'");
+        assertInvalid(" | first -> login", "Missing source");
+        assertInvalid("eppn -> nickname", "Unknown target 'nickname'");
+        assertInvalid("eppn -> expando", "Missing expando name");
+        assertInvalid("eppn -> expando: ", "Missing expando name");
+        assertInvalid("eppn -> login:screenName", "Only expando targets take a name");
+        assertInvalid("eppn | reverse -> login", "Unknown transform 'reverse'");
+    }
+
+    private void assertInvalid(String declaration, String message) {
+        try {
+            ShibbolethAttributeMapping.parse(declaration, false);
+
+            fail("Parsed invalid attribute mapping " + declaration);
+        } catch (IllegalArgumentException iae) {
+            assertTrue(iae.getMessage(), iae.getMessage().startsWith(message));
+            assertTrue(iae.getMessage(), iae.getMessage().endsWith(declaration));
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ShibbolethAttributeParserTest {
+
+    @Test
+    public void testGetFirstValue() {
+        assertEquals("staff", ShibbolethAttributeParser.getFirstValue("staff;student"));
+        assertEquals("staff", ShibbolethAttributeParser.getFirstValue(";staff;student"));
+        assertEquals("a;b", ShibbolethAttributeParser.getFirstValue("a\\;b;c"));
+        assertEquals("staff", ShibbolethAttributeParser.getFirstValue("staff"));
+        assertNull(ShibbolethAttributeParser.getFirstValue(null));
+    }
+
+    @Test
+    public void testSplit() {
+        assertArrayEquals(
+                new String[] {"staff", "student"}, ShibbolethAttributeParser.split("staff;student"));
+        assertArrayEquals(new String[] {"staff"}, ShibbolethAttributeParser.split("staff"));
+    }
+
+    @Test
+    public void testSplitDropsEmptyValues() {
+        assertArrayEquals(
+                new String[] {"staff", "student"}, ShibbolethAttributeParser.split(";staff;;student;"));
+        assertArrayEquals(new String[0], ShibbolethAttributeParser.split(";;"));
+        assertSame(ShibbolethAttributeParser.EMPTY_VALUES, ShibbolethAttributeParser.split(""));
+        assertSame(ShibbolethAttributeParser.EMPTY_VALUES, ShibbolethAttributeParser.split(null));
+    }
+
+    @Test
+    public void testSplitEscapedSeparator() {
+        assertArrayEquals(new String[] {"a;b", "c"}, ShibbolethAttributeParser.split("a\\;b;c"));
+        assertArrayEquals(new String[] {"a", ";b;"}, ShibbolethAttributeParser.split("a;\\;b\\;"));
+        assertArrayEquals(new String[] {";"}, ShibbolethAttributeParser.split("\\;"));
+        assertArrayEquals(new String[] {"a\\b", "c\\"}, ShibbolethAttributeParser.split("a\\b;c\\"));
+    }
+
+    @Test
+    public void testSplitTruncate() {
+        assertArrayEquals(
+                new String[] {"staff", "student"},
+                ShibbolethAttributeParser.split(
+                        "urn:mace:example.org:entitlement:staff;urn:mace:example.org:entitlement:student", true));
+        assertArrayEquals(new String[] {"a;b"}, ShibbolethAttributeParser.split("urn:x\\;y:a\\;b", true));
+        assertArrayEquals(new String[0], ShibbolethAttributeParser.split("urn:mace:", true));
+        assertArrayEquals(
+                new String[] {"urn:mace:staff"}, ShibbolethAttributeParser.split("urn:mace:staff", false));
+    }
+
+    @Test
+    public void testToScreenName() {
+        assertEquals("jdoe.at.example.org", ShibbolethAttributeParser.toScreenName("jdoe@example.org"));
+        assertEquals("john-doe.at.example.org", ShibbolethAttributeParser.toScreenName("john_doe@example.org"));
+        assertEquals("jdoe", ShibbolethAttributeParser.toScreenName("jdoe"));
+        assertNull(ShibbolethAttributeParser.toScreenName(null));
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.liferay.portal.security.shibboleth.internal.attribute;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShibbolethEntitlementMatcherTest {
+
+    @Test
+    public void testCompileIgnoresInvalidRules() {
+        ShibbolethEntitlementMatcher matcher = ShibbolethEntitlementMatcher.compile(
+                new String[] {
+                    "urn:mace:example.org:staff", "urn:mace:**:staff -> role", "urn:mace:example.org:staff -> user",
+                    " ", "urn:mace:example.org:staff -> role:Staff"
+                });
+
+        assertEquals(1, matcher.getRules().size());
+        assertEquals(Arrays.asList("role:Staff"), match(matcher, "urn:mace:example.org:staff"));
+
+        assertSame(ShibbolethEntitlementMatcher.EMPTY, ShibbolethEntitlementMatcher.compile(null));
+        assertSame(
+                ShibbolethEntitlementMatcher.EMPTY,
+                ShibbolethEntitlementMatcher.compile(new String[] {"urn:mace:example.org:staff"}));
+        assertTrue(ShibbolethEntitlementMatcher.EMPTY.isEmpty());
+        assertEquals(Collections.emptyList(), match(ShibbolethEntitlementMatcher.EMPTY, "urn:mace:example.org:staff"));
+    }
+
+    @Test
+    public void testMatchExact() {
+        ShibbolethEntitlementMatcher matcher = compile(
+                "urn:mace:example.org:entitlement:staff -> role:Staff",
+                "urn:mace:example.org:entitlement:library -> userGroup");
+
+        assertEquals(Arrays.asList("role:Staff"), match(matcher, "urn:mace:example.org:entitlement:staff"));
+        assertEquals(
+                Arrays.asList("userGroup:library"), match(matcher, "urn:mace:example.org:entitlement:library"));
+
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement:staf"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement:staff:extra"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement:Staff"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.com:entitlement:staff"));
+    }
+
+    @Test
+    public void testMatchInDeclarationOrder() {
+        ShibbolethEntitlementMatcher matcher = compile(
+                "urn:mace:example.org:entitlement:staff -> role:Staff",
+                "urn:mace:example.org:entitlement:* -> site",
+                "urn:mace:example.org:entitlement:staff -> organization:Employees",
+                "urn:mace:example.org:** -> userGroup:Members");
+
+        // prefix rules match on the way down the trie, the rules of the same
+        // node in declaration order
+
+        assertEquals(
+                Arrays.asList("userGroup:Members", "role:Staff", "organization:Employees", "site:staff"),
+                match(matcher, "urn:mace:example.org:entitlement:staff"));
+    }
+
+    @Test
+    public void testMatchSegmentWildcard() {
+        ShibbolethEntitlementMatcher matcher = compile(
+                "urn:mace:example.org:entitlement:*:admin -> role",
+                "urn:mace:example.org:*:*:member -> site:Members");
+
+        assertEquals(Arrays.asList("role:admin"), match(matcher, "urn:mace:example.org:entitlement:library:admin"));
+        assertEquals(
+                Arrays.asList("site:Members"), match(matcher, "urn:mace:example.org:entitlement:library:member"));
+
+        // * matches exactly one segment
+
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement:admin"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement:a:b:admin"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:entitlement:library:admins"));
+    }
+
+    @Test
+    public void testMatchTrailingPrefixWildcard() {
+        ShibbolethEntitlementMatcher matcher = compile(
+                "urn:mace:example.org:course:** -> site",
+                "urn:mace:example.org:*:guest:** -> role:Guest");
+
+        assertEquals(Arrays.asList("site:math"), match(matcher, "urn:mace:example.org:course:math"));
+        assertEquals(Arrays.asList("site:101"), match(matcher, "urn:mace:example.org:course:math:101"));
+        assertEquals(
+                Arrays.asList("site:lab", "role:Guest"), match(matcher, "urn:mace:example.org:course:guest:lab"));
+
+        // ** matches one or more segments, not none
+
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:course"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:courses:math"));
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:example.org:library:guest"));
+    }
+
+    @Test
+    public void testMatchUrnCaseFolding() {
+        ShibbolethEntitlementMatcher matcher = compile(
+                "urn:mace:example.org:entitlement:staff -> role:Staff",
+                "URN:MACE:example.org:course:** -> site");
+
+        // the scheme and namespace ID are case insensitive on both sides
+
+        assertEquals(Arrays.asList("role:Staff"), match(matcher, "URN:MACE:example.org:entitlement:staff"));
+        assertEquals(Arrays.asList("role:Staff"), match(matcher, "Urn:Mace:example.org:entitlement:staff"));
+        assertEquals(Arrays.asList("site:math"), match(matcher, "urn:mace:example.org:course:math"));
+
+        // the namespace specific string is not
+
+        assertEquals(Collections.emptyList(), match(matcher, "urn:mace:EXAMPLE.org:entitlement:staff"));
+
+        // other schemes are matched as they are
+
+        ShibbolethEntitlementMatcher httpMatcher = compile("https://example.org:staff -> role:Staff");
+
+        assertEquals(Arrays.asList("role:Staff"), match(httpMatcher, "https://example.org:staff"));
+        assertEquals(Collections.emptyList(), match(httpMatcher, "HTTPS://example.org:staff"));
+    }
+
+    private static ShibbolethEntitlementMatcher compile(String... declarations) {
+        ShibbolethEntitlementMatcher matcher = ShibbolethEntitlementMatcher.compile(declarations);
+
+        assertEquals(declarations.length, matcher.getRules().size());
+
+        return matcher;
+    }
+
+    private static List<String> match(ShibbolethEntitlementMatcher matcher, String entitlement) {
+        List<String> matches = new ArrayList<>();
+
+        boolean matched = matcher.match(entitlement, (target, name) -> matches.add(format(target, name)));
+
+        assertEquals(!matches.isEmpty(), matched);
+
+        return matches;
+    }
+
+    private static String format(ShibbolethAttributeTarget target, String name) {
+        if (target == ShibbolethAttributeTarget.AFFILIATION) {
+            return "role:" + name;
+        }
+
+        if (target == ShibbolethAttributeTarget.GROUP) {
+            return "site:" + name;
+        }
+
+        return target.getName() + ':' + name;
+    }
+
+}
@@ -0,0 +1,300 @@
+package com.liferay.portal.security.shibboleth.internal.cluster;
+
+import com.liferay.portal.kernel.service.UserLocalService;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFakes;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethLocalInvalidationNetwork;
+import com.liferay.portal.security.shibboleth.internal.configuration.ShibbolethConfigurationCache;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethIdentityRevocations;
+import com.liferay.portal.security.shibboleth.internal.identity.ShibbolethResolvedIdentity;
+import com.liferay.portal.security.shibboleth.internal.provisioning.ShibbolethLdapImportCache;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleIndex;
+import com.liferay.portal.security.shibboleth.internal.role.ShibbolethRoleNameCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs three buses connected by a {@link ShibbolethLocalInvalidationNetwork}.
+ * The flush interval is long enough for the buses to flush only when a batch
+ * is full or when the test flushes them.
+ */
+public class ShibbolethInvalidationBusTest {
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < _nodes.length; i++) {
+            _nodes[i] = new Node(_network.createTransport());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (Node node : _nodes) {
+            ShibbolethFakes.invoke(node._bus, "deactivate");
+        }
+    }
+
+    @Test
+    public void testBatching() {
+        Node node = _nodes[0];
+
+        for (long userId = 1; userId <= 7; userId++) {
+            node._bus.invalidate(ShibbolethInvalidationType.USER, userId);
+        }
+
+        // a full batch is sent by the bus' own thread
+
+        ShibbolethFakes.invoke(node._bus, "deactivate");
+
+        int invalidationCount = 0;
+
+        for (int batchSize : node._transport._batchSizes) {
+            assertTrue("Batch of " + batchSize + " invalidations", batchSize <= _MAX_BATCH_SIZE);
+
+            invalidationCount += batchSize;
+        }
+
+        assertEquals(7, invalidationCount);
+        assertTrue(node._transport._batchSizes.size() >= 3);
+        assertEquals(7, node._bus.getSentCount());
+        assertEquals(7, _nodes[1]._bus.getReceivedCount());
+        assertEquals(7, _nodes[2]._bus.getReceivedCount());
+    }
+
+    @Test
+    public void testCoalescing() {
+        Node node = _nodes[0];
+
+        node._bus.invalidate(ShibbolethInvalidationType.USER, 42);
+        node._bus.invalidate(ShibbolethInvalidationType.USER, 42);
+        node._bus.invalidate(ShibbolethInvalidationType.USER, 42);
+        node._bus.invalidate(ShibbolethInvalidationType.COMPANY_ROLES, 42);
+
+        assertEquals(2, node._bus.getPendingCount());
+        assertEquals(2, node._bus.getCoalescedCount());
+
+        flush(node);
+
+        assertEquals(Arrays.asList(2), node._transport._batchSizes);
+        assertEquals(2, _network.getInvalidationCount());
+        assertEquals(2, _nodes[1]._bus.getReceivedCount());
+        assertEquals(1, _nodes[1]._revokeCount.get());
+    }
+
+    @Test
+    public void testCompanyConfigurationInvalidatesLdapImports() throws Exception {
+        AtomicInteger importCount = new AtomicInteger();
+
+        for (Node node : _nodes) {
+            assertNull(node._ldapImportCache.importUser(_COMPANY_ID, "jdoe", () -> {
+                importCount.incrementAndGet();
+
+                return null;
+            }));
+        }
+
+        _nodes[0]._bus.invalidate(ShibbolethInvalidationType.COMPANY_CONFIGURATION, _COMPANY_ID);
+
+        flush(_nodes[0]);
+
+        for (Node node : _nodes) {
+            node._ldapImportCache.importUser(_COMPANY_ID, "jdoe", () -> {
+                importCount.incrementAndGet();
+
+                return null;
+            });
+        }
+
+        // the failed imports are tried again on every node
+
+        assertEquals(6, importCount.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        ShibbolethResolvedIdentity resolvedIdentity = new ShibbolethResolvedIdentity(
+                _COMPANY_ID, 42, "fingerprint",
+                System.currentTimeMillis() - (2 * ShibbolethIdentityRevocations.CLOCK_SKEW_MARGIN));
+
+        for (Node node : _nodes) {
+            assertTrue(node._identityRevocations.isValid(resolvedIdentity));
+        }
+
+        _nodes[0]._bus.invalidate(ShibbolethInvalidationType.USER, 42);
+
+        // applied right away and again once the transaction commits, which
+        // happens right away without a transaction
+
+        assertEquals(2, _nodes[0]._revokeCount.get());
+        assertFalse(_nodes[0]._identityRevocations.isValid(resolvedIdentity));
+
+        // the other nodes are only told after the commit, with the next batch
+
+        assertEquals(1, _nodes[0]._bus.getPendingCount());
+        assertTrue(_nodes[1]._identityRevocations.isValid(resolvedIdentity));
+
+        flush(_nodes[0]);
+
+        for (int i = 1; i < _nodes.length; i++) {
+            assertEquals(1, _nodes[i]._revokeCount.get());
+            assertFalse(_nodes[i]._identityRevocations.isValid(resolvedIdentity));
+        }
+
+        assertEquals(0, _nodes[0]._bus.getReceivedCount());
+    }
+
+    @Test
+    public void testReceiveSkipsStaleInvalidations() {
+        ShibbolethInvalidationBus bus = _nodes[1]._bus;
+
+        bus.receive(Arrays.asList(
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 42, "node-a", 5),
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 42, "node-a", 5),
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 42, "node-a", 3)));
+
+        assertEquals(1, bus.getReceivedCount());
+        assertEquals(2, bus.getStaleCount());
+
+        // sequences are tracked per node and key
+
+        bus.receive(Arrays.asList(
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 42, "node-b", 1),
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 43, "node-a", 1),
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 42, "node-a", 6)));
+
+        assertEquals(4, bus.getReceivedCount());
+        assertEquals(2, bus.getStaleCount());
+        assertEquals(4, _nodes[1]._revokeCount.get());
+
+        // a node ignores its own invalidations
+
+        bus.receive(Arrays.asList(
+                new ShibbolethInvalidation(ShibbolethInvalidationType.USER, 44, bus.getNodeId(), 1)));
+
+        assertEquals(4, bus.getReceivedCount());
+    }
+
+    @Test
+    public void testReceiveSkipsOvertakenInvalidations() {
+        Node node = _nodes[0];
+
+        node._bus.invalidate(ShibbolethInvalidationType.USER, 42);
+
+        flush(node);
+
+        node._bus.invalidate(ShibbolethInvalidationType.USER, 42);
+
+        flush(node);
+
+        // the batches are delivered again, the first after the second
+
+        List<List<ShibbolethInvalidation>> batches = node._transport._batches;
+
+        ShibbolethInvalidationBus bus = _nodes[1]._bus;
+
+        bus.receive(batches.get(1));
+        bus.receive(batches.get(0));
+
+        assertEquals(2, bus.getReceivedCount());
+        assertEquals(2, bus.getStaleCount());
+    }
+
+    private void flush(Node node) {
+        ShibbolethFakes.invoke(node._bus, "flush");
+    }
+
+    private static final long _COMPANY_ID = 20116;
+
+    private static final int _MAX_BATCH_SIZE = 3;
+
+    private final ShibbolethLocalInvalidationNetwork _network = new ShibbolethLocalInvalidationNetwork();
+    private final Node[] _nodes = new Node[3];
+
+    private static class CountingIdentityRevocations extends ShibbolethIdentityRevocations {
+
+        public CountingIdentityRevocations(AtomicInteger revokeCount) {
+            _revokeCount = revokeCount;
+        }
+
+        @Override
+        public void revoke(long userId) {
+            _revokeCount.incrementAndGet();
+
+            super.revoke(userId);
+        }
+
+        private final AtomicInteger _revokeCount;
+
+    }
+
+    private static class Node {
+
+        public Node(ShibbolethInvalidationTransport transport) {
+            _transport = new RecordingTransport(transport);
+
+            _identityRevocations = new CountingIdentityRevocations(_revokeCount);
+            _ldapImportCache = ShibbolethFakes.inject(
+                    new ShibbolethLdapImportCache(), ShibbolethFakes.fake(UserLocalService.class, new Object()));
+
+            _bus = ShibbolethFakes.inject(
+                    new ShibbolethInvalidationBus(), new ShibbolethConfigurationCache(), _identityRevocations,
+                    _transport, _ldapImportCache, new ShibbolethRoleIndex(), new ShibbolethRoleNameCache());
+
+            Map<String, Object> properties = new HashMap<>();
+
+            properties.put("flushInterval", 3600000);
+            properties.put("maxBatchSize", _MAX_BATCH_SIZE);
+
+            ShibbolethFakes.invoke(_bus, "activate", properties);
+        }
+
+        private final ShibbolethInvalidationBus _bus;
+        private final ShibbolethIdentityRevocations _identityRevocations;
+        private final ShibbolethLdapImportCache _ldapImportCache;
+        private final AtomicInteger _revokeCount = new AtomicInteger();
+        private final RecordingTransport _transport;
+
+    }
+
+    /**
+     * Records the batches a bus sends before passing them on to the network
+     */
+    private static class RecordingTransport implements ShibbolethInvalidationTransport {
+
+        public RecordingTransport(ShibbolethInvalidationTransport transport) {
+            _transport = transport;
+        }
+
+        @Override
+        public synchronized void send(List<ShibbolethInvalidation> invalidations) throws Exception {
+            _batches.add(new ArrayList<>(invalidations));
+            _batchSizes.add(invalidations.size());
+
+            _transport.send(invalidations);
+        }
+
+        @Override
+        public void setReceiver(Consumer<List<ShibbolethInvalidation>> receiver) {
+            _transport.setReceiver(receiver);
+        }
+
+        private final List<List<ShibbolethInvalidation>> _batches = new ArrayList<>();
+        private final List<Integer> _batchSizes = new ArrayList<>();
+        private final ShibbolethInvalidationTransport _transport;
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.liferay.portal.security.shibboleth.internal.identity;
+
+import com.liferay.portal.security.shibboleth.internal.attribute.ShibbolethAttributes;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ShibbolethIdentityTokenCodecTest {
+
+    @Test
+    public void testDecode() {
+        ShibbolethAttributes attributes = createAttributes();
+
+        ShibbolethAttributes decodedAttributes = _codec.decode(_codec.encode(attributes, _NOW), _NOW + 1000);
+
+        assertNotNull(decodedAttributes);
+        assertEquals(attributes.getLogin(), decodedAttributes.getLogin());
+        assertEquals(attributes.getEmailAddress(), decodedAttributes.getEmailAddress());
+        assertEquals(attributes.getFirstName(), decodedAttributes.getFirstName());
+        assertEquals(attributes.getLastName(), decodedAttributes.getLastName());
+        assertArrayEquals(attributes.getAffiliations(), decodedAttributes.getAffiliations());
+        assertArrayEquals(
+                attributes.getExpandoValues().get("units"), decodedAttributes.getExpandoValues().get("units"));
+        assertArrayEquals(attributes.getGroupNames(), decodedAttributes.getGroupNames());
+        assertArrayEquals(attributes.getUserGroupNames(), decodedAttributes.getUserGroupNames());
+        assertArrayEquals(attributes.getOrganizationNames(), decodedAttributes.getOrganizationNames());
+        assertEquals(attributes.getIdentityProvider(), decodedAttributes.getIdentityProvider());
+        assertNull(decodedAttributes.getPersistentId());
+        assertEquals(attributes.getFingerprint(), decodedAttributes.getFingerprint());
+    }
+
+    @Test
+    public void testDecodeExpired() {
+        String token = _codec.encode(createAttributes(), _NOW);
+
+        assertNotNull(_codec.decode(token, _NOW + (_MAX_AGE * 1000L)));
+        assertNull(_codec.decode(token, _NOW + (_MAX_AGE * 1000L) + 1));
+        assertNull(_codec.decode(token, _NOW - 1));
+    }
+
+    @Test
+    public void testDecodeInvalid() {
+        assertNull(_codec.decode(null, _NOW));
+        assertNull(_codec.decode("", _NOW));
+        assertNull(_codec.decode("not a token!", _NOW));
+        assertNull(_codec.decode("AAAA", _NOW));
+
+        String token = _codec.encode(createAttributes(), _NOW);
+
+        assertNull(_codec.decode(token.substring(0, token.length() - 4), _NOW));
+        assertNull(_codec.decode(token.substring(4), _NOW));
+    }
+
+    @Test
+    public void testDecodeOtherCompany() {
+        ShibbolethIdentityTokenCodec codec = new ShibbolethIdentityTokenCodec(_COMPANY_ID + 1, _SECRET, _MAX_AGE);
+
+        assertNull(_codec.decode(codec.encode(createAttributes(), _NOW), _NOW));
+    }
+
+    @Test
+    public void testDecodeOtherSecret() {
+        ShibbolethIdentityTokenCodec codec = new ShibbolethIdentityTokenCodec(
+                _COMPANY_ID, _SECRET + "-rotated", _MAX_AGE);
+
+        assertNull(_codec.decode(codec.encode(createAttributes(), _NOW), _NOW));
+    }
+
+    @Test
+    public void testDecodeTampered() {
+        byte[] bytes = Base64.getUrlDecoder().decode(_codec.encode(createAttributes(), _NOW));
+
+        for (int i = 0; i < bytes.length; i++) {
+            byte[] tamperedBytes = bytes.clone();
+
+            tamperedBytes[i] ^= 0x01;
+
+            String token = Base64.getUrlEncoder().withoutPadding().encodeToString(tamperedBytes);
+
+            assertNull("Accepted token tampered at byte " + i, _codec.decode(token, _NOW));
+        }
+    }
+
+    private static ShibbolethAttributes createAttributes() {
+        Map<String, String[]> expandoValues = Collections.singletonMap("units", new String[] {"Library", "IT"});
+
+        return new ShibbolethAttributes(
+                "jdoe@example.org", "jdoe@example.org", "John", "Doe", new String[] {"staff", "student"},
+                expandoValues, new String[] {"Library"}, new String[] {"Readers"}, new String[] {"Example"},
+                "https://idp.example.org/idp/shibboleth", null);
+    }
+
+    private static final long _COMPANY_ID = 20116;
+
+    private static final int _MAX_AGE = 3600;
+
+    private static final long _NOW = 1700000000000L;
+
+    private static final String _SECRET = "0123456789abcdef0123456789abcdef";
+
+    private final ShibbolethIdentityTokenCodec _codec = new ShibbolethIdentityTokenCodec(
+            _COMPANY_ID, _SECRET, _MAX_AGE);
+
+}
@@ -0,0 +1,173 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.security.shibboleth.fixtures.FakeRoleLocalService;
+import com.liferay.portal.security.shibboleth.fixtures.FakeUserLocalService;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFakes;
+import com.liferay.portal.security.shibboleth.fixtures.ShibbolethFixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShibbolethBulkImporterTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> configurationValues = ShibbolethFixture.createConfigurationValues();
+
+        configurationValues.put("autoCreateRole", true);
+
+        _fixture = new ShibbolethFixture(configurationValues, true);
+
+        _bulkImporter = ShibbolethFakes.inject(
+                new ShibbolethBulkImporter(), _fixture.getAutoLogin(), _fixture.getShibbolethConfigurationCache());
+
+        _directory = Files.createTempDirectory("shibboleth-bulk-import");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.list(_directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.delete(path);
+            }
+        }
+
+        Files.delete(_directory);
+    }
+
+    @Test
+    public void testImportUsers() throws Exception {
+        Path path = writeDump("users.csv", 250);
+
+        ShibbolethBulkImportResult result = _bulkImporter.importUsers(ShibbolethFixture.COMPANY_ID, path, 4, 10);
+
+        assertEquals(250, result.getImportedCount());
+        assertEquals(0, result.getFailedCount());
+        assertEquals(0, result.getSkippedCount());
+        assertEquals(250, _fixture.getFakeUserLocalService().getUsersCount());
+
+        // the progress file is removed after a complete import
+
+        assertFalse(Files.exists(path.resolveSibling("users.csv.progress")));
+    }
+
+    @Test
+    public void testImportUsersWithSharedNewRole() throws Exception {
+        Path path = writeDump("users.csv", 250);
+
+        ShibbolethBulkImportResult result = _bulkImporter.importUsers(ShibbolethFixture.COMPANY_ID, path, 8, 5);
+
+        assertEquals(250, result.getImportedCount());
+        assertEquals(0, result.getFailedCount());
+
+        FakeRoleLocalService fakeRoleLocalService = _fixture.getFakeRoleLocalService();
+
+        Role role = fakeRoleLocalService.fetchRole(ShibbolethFixture.COMPANY_ID, "librarian");
+
+        assertNotNull(role);
+
+        int count = 0;
+
+        for (Role companyRole : fakeRoleLocalService.getRoles(ShibbolethFixture.COMPANY_ID)) {
+            if (companyRole.getName().equalsIgnoreCase("librarian")) {
+                count++;
+            }
+        }
+
+        assertEquals(1, count);
+
+        FakeUserLocalService fakeUserLocalService = _fixture.getFakeUserLocalService();
+
+        for (int i = 0; i < 250; i++) {
+            User user = fakeUserLocalService.getUserByEmailAddress(
+                    ShibbolethFixture.COMPANY_ID, "user" + i + "@example.org");
+
+            assertTrue(
+                    "User " + i + " lacks the shared role",
+                    contains(fakeUserLocalService.getRolePrimaryKeys(user.getUserId()), role.getRoleId()));
+        }
+    }
+
+    @Test
+    public void testImportUsersSkipsRecordsWithoutLogin() throws Exception {
+        Path path = _directory.resolve("users.csv");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("eppn,mail,givenName,sn,entitlement\n");
+            writer.write("user0@example.org,user0@example.org,User,Zero,urn:x:librarian\n");
+            writer.write(",nobody@example.org,No,Body,urn:x:librarian\n");
+        }
+
+        ShibbolethBulkImportResult result = _bulkImporter.importUsers(ShibbolethFixture.COMPANY_ID, path, 2, 10);
+
+        assertEquals(1, result.getImportedCount());
+        assertEquals(1, result.getSkippedCount());
+        assertEquals(0, result.getFailedCount());
+    }
+
+    @Test
+    public void testImportUsersSkipsRecordsWithoutEmailAddress() throws Exception {
+        Path path = _directory.resolve("users.csv");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("eppn,mail,givenName,sn,entitlement\n");
+            writer.write("user0@example.org,user0@example.org,User,Zero,urn:x:librarian\n");
+            writer.write("user1@example.org,,User,One,urn:x:librarian\n");
+        }
+
+        ShibbolethBulkImportResult result = _bulkImporter.importUsers(ShibbolethFixture.COMPANY_ID, path, 2, 10);
+
+        assertEquals(1, result.getImportedCount());
+        assertEquals(1, result.getSkippedCount());
+        assertEquals(0, result.getFailedCount());
+        assertEquals(1, _fixture.getFakeUserLocalService().getUsersCount());
+
+        assertFalse(Files.exists(path.resolveSibling("users.csv.progress")));
+    }
+
+    private static boolean contains(long[] values, long value) {
+        for (long curValue : values) {
+            if (curValue == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Path writeDump(String fileName, int count) throws IOException {
+        Path path = _directory.resolve(fileName);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("eppn,mail,givenName,sn,entitlement\n");
+
+            for (int i = 0; i < count; i++) {
+                writer.write(
+                        "user" + i + "@example.org,user" + i + "@example.org,User,Number " + i +
+                                ",urn:mace:example.org:entitlement:librarian\n");
+            }
+        }
+
+        return path;
+    }
+
+    private ShibbolethBulkImporter _bulkImporter;
+    private Path _directory;
+    private ShibbolethFixture _fixture;
+
+}
@@ -0,0 +1,84 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ShibbolethCsvDumpReaderTest {
+
+    @Test
+    public void testRead() throws IOException {
+        ShibbolethCsvDumpReader reader = createReader(
+                "eppn, mail ,givenName\n" + "jdoe@example.org,jdoe@example.org,John\n" + "\n" +
+                        "asmith@example.org,,Anna\n");
+
+        Map<String, String> record = reader.read();
+
+        assertEquals("jdoe@example.org", record.get("eppn"));
+        assertEquals("jdoe@example.org", record.get("MAIL"));
+        assertEquals("John", record.get("givenname"));
+
+        record = reader.read();
+
+        assertEquals("asmith@example.org", record.get("eppn"));
+        assertFalse(record.containsKey("mail"));
+        assertEquals("Anna", record.get("givenName"));
+
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadMultiValued() throws IOException {
+        ShibbolethCsvDumpReader reader = createReader(
+                "eppn,entitlement\n" + "jdoe@example.org,urn:x:staff;urn:x:a\\;b\n");
+
+        assertEquals("urn:x:staff;urn:x:a\\;b", reader.read().get("entitlement"));
+    }
+
+    @Test
+    public void testReadQuoted() throws IOException {
+        ShibbolethCsvDumpReader reader = createReader(
+                "eppn,cn,description\n" + "jdoe@example.org,\"Doe, John\",\"Says \"\"hi\"\"\nand bye\"\n" +
+                        "asmith@example.org,\"\",x\n");
+
+        Map<String, String> record = reader.read();
+
+        assertEquals("Doe, John", record.get("cn"));
+        assertEquals("Says \"hi\"\nand bye", record.get("description"));
+
+        record = reader.read();
+
+        assertFalse(record.containsKey("cn"));
+        assertEquals("x", record.get("description"));
+    }
+
+    @Test
+    public void testReadInvalid() throws IOException {
+        assertInvalid("eppn\n" + "jdoe@example.org,extra\n");
+        assertInvalid("eppn,cn\n" + "jdoe@example.org,\"Doe\n");
+    }
+
+    private static void assertInvalid(String dump) throws IOException {
+        ShibbolethCsvDumpReader reader = createReader(dump);
+
+        try {
+            reader.read();
+
+            fail("Read invalid dump " + dump);
+        } catch (IOException ioe) {
+        }
+    }
+
+    private static ShibbolethCsvDumpReader createReader(String dump) {
+        return new ShibbolethCsvDumpReader(new BufferedReader(new StringReader(dump)));
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.liferay.portal.security.shibboleth.internal.provisioning;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ShibbolethLdifDumpReaderTest {
+
+    @Test
+    public void testRead() throws IOException {
+        ShibbolethLdifDumpReader reader = createReader(
+                "version: 1\n" + "# users\n" + "dn: uid=jdoe,ou=people,dc=example,dc=org\n" +
+                        "changetype: add\n" + "eduPersonPrincipalName: jdoe@example.org\n" +
+                        "mail: jdoe@example.org\n" + "\n" + "\n" + "dn: uid=asmith,ou=people,dc=example,dc=org\n" +
+                        "eduPersonPrincipalName: asmith@example.org\n");
+
+        Map<String, String> record = reader.read();
+
+        assertEquals("jdoe@example.org", record.get("eduPersonPrincipalName"));
+        assertEquals("jdoe@example.org", record.get("MAIL"));
+        assertFalse(record.containsKey("dn"));
+        assertFalse(record.containsKey("changetype"));
+
+        assertEquals("asmith@example.org", reader.read().get("eduPersonPrincipalName"));
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadBase64() throws IOException {
+        String value = Base64.getEncoder().encodeToString("J\u00fcrgen; Sr.".getBytes(StandardCharsets.UTF_8));
+
+        ShibbolethLdifDumpReader reader = createReader("dn: uid=jm\n" + "givenName:: " + value + "\n");
+
+        assertEquals("J\u00fcrgen\\; Sr.", reader.read().get("givenName"));
+    }
+
+    @Test
+    public void testReadFolded() throws IOException {
+        ShibbolethLdifDumpReader reader = createReader(
+                "dn: uid=jdoe\n" + "description: a long\n" + "  value\n" + "  continued\n" + "givenName:: SsO8\n" +
+                        " cmdlbg==\n" + "sn: Doe\n");
+
+        Map<String, String> record = reader.read();
+
+        assertEquals("a long value continued", record.get("description"));
+        assertEquals("J\u00fcrgen", record.get("givenName"));
+        assertEquals("Doe", record.get("sn"));
+    }
+
+    @Test
+    public void testReadMultiValued() throws IOException {
+        ShibbolethLdifDumpReader reader = createReader(
+                "dn: uid=jdoe\n" + "eduPersonEntitlement: urn:x:staff\n" + "eduPersonEntitlement;lang-en: urn:x:a;b\n");
+
+        assertEquals("urn:x:staff;urn:x:a\\;b", reader.read().get("eduPersonEntitlement"));
+    }
+
+    @Test
+    public void testReadInvalid() throws IOException {
+        assertInvalid("dn: uid=jdoe\n" + "no separator\n");
+        assertInvalid("dn: uid=jdoe\n" + "jpegPhoto:< file:///tmp/photo.jpg\n");
+    }
+
+    private static void assertInvalid(String dump) throws IOException {
+        ShibbolethLdifDumpReader reader = createReader(dump);
+
+        try {
+            reader.read();
+
+            fail("Read invalid dump " + dump);
+        } catch (IOException ioe) {
+        }
+    }
+
+    private static ShibbolethLdifDumpReader createReader(String dump) {
+        return new ShibbolethLdifDumpReader(new BufferedReader(new StringReader(dump)));
+    }
+
+}